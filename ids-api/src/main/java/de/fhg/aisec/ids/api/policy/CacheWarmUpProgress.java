@@ -0,0 +1,143 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+/**
+ * Progress of the most recent cache warm-up of a Policy Decision Point (PDP).
+ *
+ * <p>A warm-up first requests the label transformations of all warmed endpoints, then the
+ * decisions for all endpoints and all label sets reachable by these transformations. The total
+ * number of steps is therefore only known once the transformations are complete.
+ */
+public class CacheWarmUpProgress {
+  private long policyVersion;
+  private boolean running;
+  private boolean aborted;
+  private int pending;
+  private int endpoints;
+  private int labelSets;
+  private long total;
+  private long completed;
+  private long durationMillis;
+
+  /** @return The policy version the caches are warmed for */
+  public long getPolicyVersion() {
+    return policyVersion;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return Whether the warm-up has been stopped because the policy has changed or the caches have
+   *     been cleared
+   */
+  public boolean isAborted() {
+    return aborted;
+  }
+
+  /** @return Number of warm-ups waiting for this one to finish */
+  public int getPending() {
+    return pending;
+  }
+
+  public int getEndpoints() {
+    return endpoints;
+  }
+
+  /** @return Number of label sets reachable from unlabeled messages */
+  public int getLabelSets() {
+    return labelSets;
+  }
+
+  /** @return Number of transformations and decisions to request */
+  public long getTotal() {
+    return total;
+  }
+
+  public long getCompleted() {
+    return completed;
+  }
+
+  /** @return Time since the warm-up has been started, or its duration once it is finished */
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  public void setPolicyVersion(long policyVersion) {
+    this.policyVersion = policyVersion;
+  }
+
+  public void setRunning(boolean running) {
+    this.running = running;
+  }
+
+  public void setAborted(boolean aborted) {
+    this.aborted = aborted;
+  }
+
+  public void setPending(int pending) {
+    this.pending = pending;
+  }
+
+  public void setEndpoints(int endpoints) {
+    this.endpoints = endpoints;
+  }
+
+  public void setLabelSets(int labelSets) {
+    this.labelSets = labelSets;
+  }
+
+  public void setTotal(long total) {
+    this.total = total;
+  }
+
+  public void setCompleted(long completed) {
+    this.completed = completed;
+  }
+
+  public void setDurationMillis(long durationMillis) {
+    this.durationMillis = durationMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheWarmUpProgress{policyVersion="
+        + policyVersion
+        + ", running="
+        + running
+        + ", aborted="
+        + aborted
+        + ", pending="
+        + pending
+        + ", endpoints="
+        + endpoints
+        + ", labelSets="
+        + labelSets
+        + ", completed="
+        + completed
+        + ", total="
+        + total
+        + ", durationMillis="
+        + durationMillis
+        + "}";
+  }
+}
@@ -0,0 +1,84 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+/** Statistics of the decision cache of a Policy Decision Point (PDP). */
+public class DecisionCacheStats {
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long size;
+  private long policyVersion;
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getPolicyVersion() {
+    return policyVersion;
+  }
+
+  public void setHits(long hits) {
+    this.hits = hits;
+  }
+
+  public void setMisses(long misses) {
+    this.misses = misses;
+  }
+
+  public void setEvictions(long evictions) {
+    this.evictions = evictions;
+  }
+
+  public void setSize(long size) {
+    this.size = size;
+  }
+
+  public void setPolicyVersion(long policyVersion) {
+    this.policyVersion = policyVersion;
+  }
+
+  @Override
+  public String toString() {
+    return "DecisionCacheStats{hits="
+        + hits
+        + ", misses="
+        + misses
+        + ", evictions="
+        + evictions
+        + ", size="
+        + size
+        + ", policyVersion="
+        + policyVersion
+        + "}";
+  }
+}
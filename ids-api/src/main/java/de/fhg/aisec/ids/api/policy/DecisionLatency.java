@@ -0,0 +1,122 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+/**
+ * Latency distribution of the policy decisions evaluated for one target endpoint pattern and
+ * decision outcome. Latencies are in nanoseconds, percentiles are accurate to about 3%.
+ */
+public class DecisionLatency {
+  private String endpoint;
+  private String outcome;
+  private long count;
+  private long meanNanos;
+  private long p50Nanos;
+  private long p90Nanos;
+  private long p99Nanos;
+  private long maxNanos;
+
+  /** @return Target endpoint URI without query parameters */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /** @return ALLOW, DENY or ERROR */
+  public String getOutcome() {
+    return outcome;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMeanNanos() {
+    return meanNanos;
+  }
+
+  public long getP50Nanos() {
+    return p50Nanos;
+  }
+
+  public long getP90Nanos() {
+    return p90Nanos;
+  }
+
+  public long getP99Nanos() {
+    return p99Nanos;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  public void setEndpoint(String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  public void setOutcome(String outcome) {
+    this.outcome = outcome;
+  }
+
+  public void setCount(long count) {
+    this.count = count;
+  }
+
+  public void setMeanNanos(long meanNanos) {
+    this.meanNanos = meanNanos;
+  }
+
+  public void setP50Nanos(long p50Nanos) {
+    this.p50Nanos = p50Nanos;
+  }
+
+  public void setP90Nanos(long p90Nanos) {
+    this.p90Nanos = p90Nanos;
+  }
+
+  public void setP99Nanos(long p99Nanos) {
+    this.p99Nanos = p99Nanos;
+  }
+
+  public void setMaxNanos(long maxNanos) {
+    this.maxNanos = maxNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "DecisionLatency{endpoint="
+        + endpoint
+        + ", outcome="
+        + outcome
+        + ", count="
+        + count
+        + ", meanNanos="
+        + meanNanos
+        + ", p50Nanos="
+        + p50Nanos
+        + ", p90Nanos="
+        + p90Nanos
+        + ", p99Nanos="
+        + p99Nanos
+        + ", maxNanos="
+        + maxNanos
+        + "}";
+  }
+}
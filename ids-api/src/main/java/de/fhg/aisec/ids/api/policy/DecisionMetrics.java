@@ -0,0 +1,100 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Instrumentation data of a Policy Decision Point (PDP). */
+public class DecisionMetrics {
+  private long decisionCacheHits;
+  private long decisionCacheMisses;
+  private long transformationCacheHits;
+  private long transformationCacheMisses;
+  private long budgetExceeded;
+  private List<DecisionLatency> latencies = new ArrayList<>();
+
+  public long getDecisionCacheHits() {
+    return decisionCacheHits;
+  }
+
+  public long getDecisionCacheMisses() {
+    return decisionCacheMisses;
+  }
+
+  public long getTransformationCacheHits() {
+    return transformationCacheHits;
+  }
+
+  public long getTransformationCacheMisses() {
+    return transformationCacheMisses;
+  }
+
+  /** @return Number of decisions whose evaluation exceeded the query budget */
+  public long getBudgetExceeded() {
+    return budgetExceeded;
+  }
+
+  /** @return Latencies of evaluated (i.e. not cached) decisions by endpoint pattern and outcome */
+  public List<DecisionLatency> getLatencies() {
+    return latencies;
+  }
+
+  public void setDecisionCacheHits(long decisionCacheHits) {
+    this.decisionCacheHits = decisionCacheHits;
+  }
+
+  public void setDecisionCacheMisses(long decisionCacheMisses) {
+    this.decisionCacheMisses = decisionCacheMisses;
+  }
+
+  public void setTransformationCacheHits(long transformationCacheHits) {
+    this.transformationCacheHits = transformationCacheHits;
+  }
+
+  public void setTransformationCacheMisses(long transformationCacheMisses) {
+    this.transformationCacheMisses = transformationCacheMisses;
+  }
+
+  public void setBudgetExceeded(long budgetExceeded) {
+    this.budgetExceeded = budgetExceeded;
+  }
+
+  public void setLatencies(List<DecisionLatency> latencies) {
+    this.latencies = latencies;
+  }
+
+  @Override
+  public String toString() {
+    return "DecisionMetrics{decisionCacheHits="
+        + decisionCacheHits
+        + ", decisionCacheMisses="
+        + decisionCacheMisses
+        + ", transformationCacheHits="
+        + transformationCacheHits
+        + ", transformationCacheMisses="
+        + transformationCacheMisses
+        + ", budgetExceeded="
+        + budgetExceeded
+        + ", latencies="
+        + latencies
+        + "}";
+  }
+}
@@ -0,0 +1,125 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Precomputed decisions of the PDP for all hops of a route path, as returned by {@link
+ * PDP#requestPathDecisions(List, Set)}.
+ *
+ * <p>Hops are listed in the order of the path. The plan ends at the first hop that is denied. Hops
+ * between registered endpoints are indexed by the ids of their endpoints, so looking up a hop does
+ * not depend on the length of the path.
+ */
+public class DecisionPlan {
+  @NonNull private final List<HopDecision> hops;
+  /** Hops between registered endpoints, by the ids of their source and target endpoints */
+  @NonNull private final Map<Long, List<HopDecision>> index = new HashMap<>();
+  /** Hops with an endpoint that is not registered */
+  @NonNull private final List<HopDecision> unindexed = new ArrayList<>();
+
+  public DecisionPlan(@NonNull List<HopDecision> hops) {
+    this.hops = hops;
+    for (HopDecision hop : hops) {
+      Long key = key(hop.getFrom(), hop.getTo());
+      if (key != null) {
+        index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(hop);
+      } else {
+        unindexed.add(hop);
+      }
+    }
+  }
+
+  @NonNull
+  public List<HopDecision> getHops() {
+    return hops;
+  }
+
+  /**
+   * Looks up the precomputed decision for a hop.
+   *
+   * @param from Endpoint of the source node
+   * @param to Endpoint of the target node
+   * @param labels Current labels of the message, before the transformation of the source node
+   * @return The matching hop decision, or null if the plan does not cover this hop with these
+   *     labels
+   */
+  @Nullable
+  public HopDecision getHop(String from, String to, Set<String> labels) {
+    for (HopDecision hop : hops) {
+      if (Objects.equals(hop.getFrom().getEndpoint(), from)
+          && Objects.equals(hop.getTo().getEndpoint(), to)
+          && hop.getLabels().equals(labels)) {
+        return hop;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Looks up the precomputed decision for a hop, comparing registered endpoints by their ids.
+   *
+   * @param from The source node
+   * @param to The target node
+   * @param labels Current labels of the message, before the transformation of the source node
+   * @return The matching hop decision, or null if the plan does not cover this hop with these
+   *     labels
+   */
+  @Nullable
+  public HopDecision getHop(ServiceNode from, ServiceNode to, Set<String> labels) {
+    Long key = key(from, to);
+    if (key == null) {
+      return findHop(hops, from, to, labels);
+    }
+    HopDecision hop = findHop(index.getOrDefault(key, List.of()), from, to, labels);
+    return hop != null || unindexed.isEmpty() ? hop : findHop(unindexed, from, to, labels);
+  }
+
+  @Nullable
+  private static HopDecision findHop(
+      List<HopDecision> hops, ServiceNode from, ServiceNode to, Set<String> labels) {
+    for (HopDecision hop : hops) {
+      if (hop.getFrom().hasSameEndpoint(from)
+          && hop.getTo().hasSameEndpoint(to)
+          && hop.getLabels().equals(labels)) {
+        return hop;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the index key of a hop, or null if an endpoint is not registered. */
+  @Nullable
+  private static Long key(ServiceNode from, ServiceNode to) {
+    if (from.getEndpointId() == EndpointRegistry.NO_ID
+        || to.getEndpointId() == EndpointRegistry.NO_ID) {
+      return null;
+    }
+    return ((long) from.getEndpointId() << 32) | (to.getEndpointId() & 0xFFFFFFFFL);
+  }
+}
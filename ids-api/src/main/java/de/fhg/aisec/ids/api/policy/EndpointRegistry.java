@@ -0,0 +1,87 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Process-wide symbol table of endpoint URIs.
+ *
+ * <p>Endpoints of route nodes are registered when a route is started and receive a small integer
+ * id that stays the same for the lifetime of the process. {@link ServiceNode}s carry the id of
+ * their endpoint, so the PEP and the PDP can use arrays and int-keyed tables instead of hashing
+ * endpoint strings for every message.
+ *
+ * <p>Ids are dense, starting at 0. The number of ids is bounded, endpoints that are not registered
+ * (e.g. dynamic URIs beyond the bound) have the id {@link #NO_ID} and are handled by their
+ * endpoint string.
+ */
+public final class EndpointRegistry {
+  /** Id of endpoints that are not registered */
+  public static final int NO_ID = SymbolTable.NO_ID;
+  /** Maximum number of registered endpoints */
+  public static final int MAX_ENDPOINTS = 1 << 16;
+
+  private static final SymbolTable ENDPOINTS = new SymbolTable(MAX_ENDPOINTS);
+
+  private EndpointRegistry() {}
+
+  /**
+   * Registers an endpoint, if it is not registered yet.
+   *
+   * @param endpoint The endpoint URI
+   * @return The id of the endpoint, or {@link #NO_ID} if the maximum number of endpoints has been
+   *     reached
+   */
+  public static int register(@NonNull String endpoint) {
+    return ENDPOINTS.register(endpoint);
+  }
+
+  /**
+   * Returns the id of an endpoint without registering it.
+   *
+   * @param endpoint The endpoint URI
+   * @return The id of the endpoint, or {@link #NO_ID} if it is not registered
+   */
+  public static int lookup(@Nullable String endpoint) {
+    return endpoint != null ? ENDPOINTS.lookup(endpoint) : NO_ID;
+  }
+
+  /**
+   * Returns the endpoint URI of an id.
+   *
+   * @param id The id of a registered endpoint
+   * @return The endpoint URI, or null if no endpoint has this id
+   */
+  @Nullable
+  public static String getEndpoint(int id) {
+    return ENDPOINTS.get(id);
+  }
+
+  /**
+   * Returns the number of registered endpoints, which is also the smallest id not assigned yet.
+   *
+   * @return The number of registered endpoints
+   */
+  public static int size() {
+    return ENDPOINTS.size();
+  }
+}
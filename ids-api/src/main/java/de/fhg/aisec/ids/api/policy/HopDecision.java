@@ -0,0 +1,99 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Precomputed result of the PDP for a single hop of a route, i.e. the label transformation of the
+ * source node and the decision for sending the message to the target node.
+ */
+public class HopDecision {
+  @NonNull private final ServiceNode from;
+  @NonNull private final ServiceNode to;
+  @NonNull private final Set<String> labels;
+  @NonNull private final TransformationDecision transformation;
+  @NonNull private final PolicyDecision decision;
+
+  public HopDecision(
+      @NonNull ServiceNode from,
+      @NonNull ServiceNode to,
+      @NonNull Set<String> labels,
+      @NonNull TransformationDecision transformation,
+      @NonNull PolicyDecision decision) {
+    this.from = from;
+    this.to = to;
+    this.labels = labels;
+    this.transformation = transformation;
+    this.decision = decision;
+  }
+
+  /**
+   * Returns the node the message is received from.
+   *
+   * @return The source node of this hop
+   */
+  @NonNull
+  public ServiceNode getFrom() {
+    return from;
+  }
+
+  /**
+   * Returns the node the message is sent to.
+   *
+   * @return The target node of this hop
+   */
+  @NonNull
+  public ServiceNode getTo() {
+    return to;
+  }
+
+  /**
+   * Returns the labels of the message when it arrives at this hop, before the transformation is
+   * applied. The decision of this hop is only valid for messages carrying exactly these labels.
+   *
+   * @return The labels of the message before the transformation
+   */
+  @NonNull
+  public Set<String> getLabels() {
+    return labels;
+  }
+
+  /**
+   * Returns the label transformation of the source node, to be applied before the decision.
+   *
+   * @return The label transformation
+   */
+  @NonNull
+  public TransformationDecision getTransformation() {
+    return transformation;
+  }
+
+  /**
+   * Returns the decision for the transformed message.
+   *
+   * @return The policy decision of this hop
+   */
+  @NonNull
+  public PolicyDecision getDecision() {
+    return decision;
+  }
+}
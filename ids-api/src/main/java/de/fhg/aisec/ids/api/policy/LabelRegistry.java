@@ -0,0 +1,94 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import java.util.Collection;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Process-wide mapping of data flow labels to bit indices of a {@link LabelSet}.
+ *
+ * <p>The labels defined in a policy are registered when the policy is loaded, so they occupy the
+ * lowest indices and label sets of typical messages fit into a single <code>long</code>. Only
+ * policy labels are registered: labels of messages that no policy mentions are kept as strings by
+ * {@link LabelSet}, so the registry grows with the policies, not with the traffic. Indices are
+ * never reassigned, so label sets stay valid across policy changes.
+ */
+public final class LabelRegistry {
+  /** Index of labels that are not registered */
+  public static final int NO_ID = SymbolTable.NO_ID;
+  /** Maximum number of registered labels */
+  public static final int MAX_LABELS = 1 << 16;
+
+  private static final SymbolTable LABELS = new SymbolTable(MAX_LABELS);
+
+  private LabelRegistry() {}
+
+  /**
+   * Registers a label, if it is not registered yet.
+   *
+   * @param label The label, in Prolog syntax
+   * @return The bit index of the label, or {@link #NO_ID} if the maximum number of labels has been
+   *     reached
+   */
+  public static int register(@NonNull String label) {
+    return LABELS.register(label);
+  }
+
+  /**
+   * Registers the labels of a policy.
+   *
+   * @param labels The labels
+   */
+  public static void registerAll(@NonNull Collection<String> labels) {
+    labels.forEach(LABELS::register);
+  }
+
+  /**
+   * Returns the bit index of a label without registering it.
+   *
+   * @param label The label
+   * @return The bit index of the label, or {@link #NO_ID} if it is not registered
+   */
+  public static int lookup(@Nullable String label) {
+    return label != null ? LABELS.lookup(label) : NO_ID;
+  }
+
+  /**
+   * Returns the label of a bit index.
+   *
+   * @param id The bit index of a registered label
+   * @return The label, or null if no label has this index
+   */
+  @Nullable
+  public static String getLabel(int id) {
+    return LABELS.get(id);
+  }
+
+  /**
+   * Returns the number of registered labels.
+   *
+   * @return The number of registered labels
+   */
+  public static int size() {
+    return LABELS.size();
+  }
+}
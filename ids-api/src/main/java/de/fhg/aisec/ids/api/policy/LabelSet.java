@@ -0,0 +1,320 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Immutable set of data flow labels, represented as a bit mask over the indices of the {@link
+ * LabelRegistry}.
+ *
+ * <p>Label sets are stored on the exchange under {@link PDP#LABELS_KEY}. Label transformations are
+ * bitwise operations on the masks, and equality and hashing of label sets, e.g. as cache keys,
+ * compare the masks instead of label strings. As a {@link Set} of strings, a label set can be read
+ * like any other set, but it cannot be modified: to change the labels of an exchange, a new label
+ * set replaces the old one.
+ *
+ * <p>Only the labels of loaded policies are registered. Other labels, e.g. labels attached to
+ * messages by a remote connector, are kept as strings, so they cannot fill up the registry.
+ */
+public final class LabelSet extends AbstractSet<String> {
+  private static final long[] NO_WORDS = new long[0];
+  /** The empty label set */
+  public static final LabelSet EMPTY = new LabelSet(NO_WORDS, Collections.emptySet());
+
+  /** Bit mask of the registered labels, without trailing zero words */
+  private final long[] words;
+  /** Labels that were not registered when this set was created */
+  private final Set<String> unregistered;
+  private int hash;
+
+  private LabelSet(long[] words, Set<String> unregistered) {
+    this.words = words;
+    this.unregistered = unregistered;
+  }
+
+  /**
+   * Returns a label set containing the given labels. Labels that are not registered are kept as
+   * strings.
+   *
+   * @param labels The labels, may be a label set or null
+   * @return The label set
+   */
+  @NonNull
+  public static LabelSet of(@Nullable Collection<String> labels) {
+    if (labels instanceof LabelSet) {
+      return (LabelSet) labels;
+    }
+    if (labels == null || labels.isEmpty()) {
+      return EMPTY;
+    }
+    BitSet bits = new BitSet();
+    Set<String> unregistered = null;
+    for (String label : labels) {
+      int id = LabelRegistry.lookup(label);
+      if (id != LabelRegistry.NO_ID) {
+        bits.set(id);
+      } else {
+        if (unregistered == null) {
+          unregistered = new HashSet<>();
+        }
+        unregistered.add(label);
+      }
+    }
+    return create(
+        bits.toLongArray(),
+        unregistered != null ? Collections.unmodifiableSet(unregistered) : Collections.emptySet());
+  }
+
+  /**
+   * Returns a label set containing the given labels. Labels that are not registered are kept as
+   * strings.
+   *
+   * @param labels The labels
+   * @return The label set
+   */
+  @NonNull
+  public static LabelSet of(String... labels) {
+    return of(Arrays.asList(labels));
+  }
+
+  private static LabelSet create(long[] words, Set<String> unregistered) {
+    if (!unregistered.isEmpty()) {
+      // Labels registered by a policy loaded since the strings were added are moved to the mask
+      BitSet bits = null;
+      Set<String> remaining = null;
+      for (String label : unregistered) {
+        int id = LabelRegistry.lookup(label);
+        if (id != LabelRegistry.NO_ID) {
+          if (bits == null) {
+            bits = BitSet.valueOf(words);
+            remaining = new HashSet<>(unregistered);
+          }
+          bits.set(id);
+          remaining.remove(label);
+        }
+      }
+      if (bits != null) {
+        words = bits.toLongArray();
+        unregistered =
+            remaining.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(remaining);
+      }
+    }
+    return words.length == 0 && unregistered.isEmpty() ? EMPTY : new LabelSet(words, unregistered);
+  }
+
+  /**
+   * Returns the union of this set and another set, i.e. the bitwise OR of the masks.
+   *
+   * @param other The labels to add
+   * @return The union, which is this set if no label is added
+   */
+  @NonNull
+  public LabelSet union(@NonNull LabelSet other) {
+    if (other.isEmpty() || other == this) {
+      return this;
+    }
+    if (isEmpty()) {
+      return other;
+    }
+    long[] longer = words.length >= other.words.length ? words : other.words;
+    long[] shorter = longer == words ? other.words : words;
+    long[] result = Arrays.copyOf(longer, longer.length);
+    for (int i = 0; i < shorter.length; i++) {
+      result[i] |= shorter[i];
+    }
+    Set<String> resultUnregistered = unregistered;
+    if (!other.unregistered.isEmpty()) {
+      resultUnregistered = new HashSet<>(unregistered);
+      resultUnregistered.addAll(other.unregistered);
+      resultUnregistered = Collections.unmodifiableSet(resultUnregistered);
+    }
+    return Arrays.equals(result, words) && resultUnregistered.equals(unregistered)
+        ? this
+        : create(result, resultUnregistered);
+  }
+
+  /**
+   * Returns the difference of this set and another set, i.e. the bitwise AND of this mask and the
+   * complement of the other mask.
+   *
+   * @param other The labels to remove
+   * @return The difference, which is this set if no label is removed
+   */
+  @NonNull
+  public LabelSet difference(@NonNull LabelSet other) {
+    if (isEmpty() || other.isEmpty()) {
+      return this;
+    }
+    long[] result = Arrays.copyOf(words, words.length);
+    int common = Math.min(words.length, other.words.length);
+    boolean changed = false;
+    for (int i = 0; i < common; i++) {
+      long word = result[i] & ~other.words[i];
+      changed |= word != result[i];
+      result[i] = word;
+    }
+    // Labels of the other set may have been registered since it was created
+    for (String label : other.unregistered) {
+      int id = LabelRegistry.lookup(label);
+      if (id != LabelRegistry.NO_ID && (id >>> 6) < result.length) {
+        long word = result[id >>> 6] & ~(1L << id);
+        changed |= word != result[id >>> 6];
+        result[id >>> 6] = word;
+      }
+    }
+    int length = result.length;
+    while (length > 0 && result[length - 1] == 0) {
+      length--;
+    }
+    Set<String> resultUnregistered = unregistered;
+    if (!unregistered.isEmpty()) {
+      resultUnregistered = new HashSet<>(unregistered);
+      changed |= resultUnregistered.removeIf(other::contains);
+      resultUnregistered = Collections.unmodifiableSet(resultUnregistered);
+    }
+    return changed ? create(Arrays.copyOf(result, length), resultUnregistered) : this;
+  }
+
+  /**
+   * Applies a label transformation, removing labels before adding labels.
+   *
+   * @param remove The labels to remove
+   * @param add The labels to add
+   * @return The transformed label set
+   */
+  @NonNull
+  public LabelSet transform(@NonNull LabelSet remove, @NonNull LabelSet add) {
+    return difference(remove).union(add);
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof String)) {
+      return false;
+    }
+    int id = LabelRegistry.lookup((String) o);
+    if (id != LabelRegistry.NO_ID) {
+      int word = id >>> 6;
+      if (word < words.length && (words[word] & (1L << id)) != 0) {
+        return true;
+      }
+    }
+    // The label might have been registered after this set was created
+    return !unregistered.isEmpty() && unregistered.contains(o);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return words.length == 0 && unregistered.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    int size = unregistered.size();
+    for (long word : words) {
+      size += Long.bitCount(word);
+    }
+    return size;
+  }
+
+  @Override
+  @NonNull
+  public Iterator<String> iterator() {
+    return new Iterator<>() {
+      private int next = nextBit(0);
+      private final Iterator<String> unregisteredIterator = unregistered.iterator();
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0 || unregisteredIterator.hasNext();
+      }
+
+      @Override
+      public String next() {
+        if (next >= 0) {
+          String label = LabelRegistry.getLabel(next);
+          next = nextBit(next + 1);
+          return label;
+        }
+        if (unregisteredIterator.hasNext()) {
+          return unregisteredIterator.next();
+        }
+        throw new NoSuchElementException();
+      }
+    };
+  }
+
+  /** Returns the index of the next set bit at or after an index, or -1 if there is none. */
+  private int nextBit(int from) {
+    int word = from >>> 6;
+    if (word >= words.length) {
+      return -1;
+    }
+    long bits = words[word] & (-1L << from);
+    while (true) {
+      if (bits != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+      }
+      if (++word == words.length) {
+        return -1;
+      }
+      bits = words[word];
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (o instanceof LabelSet) {
+      LabelSet other = (LabelSet) o;
+      if (unregistered.isEmpty() && other.unregistered.isEmpty()) {
+        return Arrays.equals(words, other.words);
+      }
+      // A label might be kept as a string in one set and as a bit in the other set
+      return Arrays.equals(words, other.words) && unregistered.equals(other.unregistered)
+          || super.equals(o);
+    }
+    return super.equals(o);
+  }
+
+  /** Returns the hash code as specified by {@link Set#hashCode()}, computed once. */
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0 && !isEmpty()) {
+      h = super.hashCode();
+      hash = h;
+    }
+    return h;
+  }
+}
@@ -21,6 +21,7 @@ package de.fhg.aisec.ids.api.policy;
 
 import de.fhg.aisec.ids.api.router.RouteVerificationProof;
 import java.util.List;
+import java.util.Map;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -50,6 +51,29 @@ public interface PAP {
 
   List<String> listRules();
 
+  /**
+   * Returns the version of the active policy.
+   *
+   * <p>The version changes whenever a policy is loaded, so results derived from a policy (e.g. route
+   * verification proofs) can be checked for being up to date.
+   *
+   * @return Version of the active policy
+   */
+  long getPolicyVersion();
+
   @Nullable
   RouteVerificationProof verifyRoute(@NonNull String routeId);
+
+  /**
+   * Verifies multiple routes against the active policy.
+   *
+   * <p>Routes may be verified in parallel. Proofs are cached, so routes that have not changed since
+   * their last verification under the same policy are not verified again.
+   *
+   * @param routeIds The ids of the routes to verify
+   * @return The proofs by route id, in the order of the given ids. Routes that cannot be verified
+   *     are missing.
+   */
+  @NonNull
+  Map<String, RouteVerificationProof> verifyRoutes(@NonNull List<String> routeIds);
 }
@@ -19,6 +19,10 @@
  */
 package de.fhg.aisec.ids.api.policy;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Policy Decision Point (PDP) Interface.
  *
@@ -41,9 +45,75 @@ public interface PDP {
    */
   PolicyDecision requestDecision(DecisionRequest req);
 
+  /**
+   * Requests label transformations and policy decisions for all hops of a route path at once.
+   *
+   * <p>For each pair of consecutive nodes, the transformation of the source node is applied to the
+   * labels and the decision for sending the message to the target node is taken, just as if
+   * <code>requestTranformations</code> and <code>requestDecision</code> were called at every hop.
+   * Evaluation stops at the first hop that is denied.
+   *
+   * @param path The ordered nodes of the route, starting with the route input
+   * @param labels The labels of the message at the route input
+   * @return The decisions for all hops up to the first denied one
+   */
+  DecisionPlan requestPathDecisions(List<ServiceNode> path, Set<String> labels);
+
+  /**
+   * Returns whether messages sent to a node never need to be checked under the active policy.
+   *
+   * <p>This is the case if the decision for the node is ALLOW without obligations for all labels
+   * and the node does not transform labels, so skipping its <code>requestDecision</code> and
+   * <code>requestTranformations</code> calls does not change the enforced data flow. The result is
+   * only valid for the active policy version.
+   *
+   * @param node The node
+   * @return Whether enforcement can be skipped for the node, false if this cannot be determined
+   */
+  boolean canPassThrough(ServiceNode node);
+
   /** Removes all data from PDP-internal caches. Future decisions will possibly take more time. */
   void clearAllCaches();
 
+  /**
+   * Pre-populates the transformation and decision caches for route nodes in the background, so the
+   * first messages through these nodes do not pay for cold policy evaluations.
+   *
+   * <p>Transformations are requested for all nodes, decisions for all nodes and all label sets that
+   * unlabeled messages can reach by these transformations. The method returns immediately, the
+   * progress is reported by <code>getCacheWarmUpProgress</code>.
+   *
+   * @param nodes The nodes of deployed routes
+   */
+  void warmCaches(Collection<ServiceNode> nodes);
+
+  /**
+   * Returns the progress of the running or most recently finished cache warm-up.
+   *
+   * @return The warm-up progress
+   */
+  CacheWarmUpProgress getCacheWarmUpProgress();
+
+  /**
+   * Returns statistics of the cache used by <code>requestDecision</code>.
+   *
+   * <p>Decisions are cached per target endpoint and label set, cached decisions are invalidated
+   * whenever a policy is loaded or <code>clearAllCaches</code> is called.
+   *
+   * @return Hit, miss and eviction counters of the decision cache
+   */
+  DecisionCacheStats getDecisionCacheStats();
+
+  /**
+   * Returns instrumentation data of the PDP.
+   *
+   * <p>Latencies of evaluated decisions are broken down by target endpoint and decision outcome,
+   * decisions answered from the cache are only counted.
+   *
+   * @return Cache counters and decision latency histograms
+   */
+  DecisionMetrics getDecisionMetrics();
+
   /**
    * Requests the PDP for the result of applying a transformation function to a message.
    *
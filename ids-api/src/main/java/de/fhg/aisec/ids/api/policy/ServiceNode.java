@@ -25,22 +25,60 @@ import java.util.Set;
 
 public class ServiceNode {
   private String endpoint;
+  private int endpointId;
   private Set<String> properties;
   private Set<String> capabilities;
 
   public ServiceNode(String endpoint, Set<String> properties, Set<String> capabilities) {
     super();
     this.endpoint = endpoint;
+    this.endpointId = EndpointRegistry.lookup(endpoint);
     this.properties = properties != null ? properties : Collections.emptySet();
     this.capabilities = capabilities != null ? capabilities : Collections.emptySet();
   }
 
+  /**
+   * Creates a node without properties and capabilities, registering its endpoint with the {@link
+   * EndpointRegistry}.
+   *
+   * @param endpoint The endpoint URI of the node
+   * @return The node
+   */
+  public static ServiceNode register(String endpoint) {
+    EndpointRegistry.register(endpoint);
+    return new ServiceNode(endpoint, null, null);
+  }
+
   public String getEndpoint() {
     return endpoint;
   }
 
   public void setEndpoint(String endpoint) {
     this.endpoint = endpoint;
+    this.endpointId = EndpointRegistry.lookup(endpoint);
+  }
+
+  /**
+   * Returns the id of the endpoint in the {@link EndpointRegistry}.
+   *
+   * @return The endpoint id, or {@link EndpointRegistry#NO_ID} if the endpoint was not registered
+   *     when the node was created
+   */
+  public int getEndpointId() {
+    return endpointId;
+  }
+
+  /**
+   * Returns whether another node has the same endpoint URI. Registered endpoints are compared by
+   * their ids.
+   *
+   * @param other The other node
+   * @return Whether both nodes have the same endpoint
+   */
+  public boolean hasSameEndpoint(ServiceNode other) {
+    return endpointId != EndpointRegistry.NO_ID && other.endpointId != EndpointRegistry.NO_ID
+        ? endpointId == other.endpointId
+        : Objects.equals(endpoint, other.endpoint);
   }
 
   public Set<String> getProperties() {
@@ -64,7 +102,7 @@ public class ServiceNode {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     ServiceNode that = (ServiceNode) o;
-    return Objects.equals(endpoint, that.endpoint)
+    return hasSameEndpoint(that)
         && Objects.equals(properties, that.properties)
         && Objects.equals(capabilities, that.capabilities);
   }
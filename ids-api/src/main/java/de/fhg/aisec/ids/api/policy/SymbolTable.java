@@ -0,0 +1,81 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.policy;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe table assigning dense int ids, starting at 0, to strings. Ids are never reused or
+ * reassigned, lookups of registered strings do not lock.
+ */
+final class SymbolTable {
+  /** Id of strings that are not registered */
+  static final int NO_ID = -1;
+
+  private final int maxSize;
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] symbols = new String[64];
+  private int size;
+
+  SymbolTable(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  int register(String symbol) {
+    Integer id = ids.get(symbol);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(symbol);
+      if (id != null) {
+        return id;
+      }
+      if (size >= maxSize) {
+        return NO_ID;
+      }
+      String[] table = symbols;
+      if (size == table.length) {
+        table = Arrays.copyOf(table, Math.min(table.length * 2, maxSize));
+      }
+      table[size] = symbol;
+      // Publish the symbol before its id
+      symbols = table;
+      ids.put(symbol, size);
+      return size++;
+    }
+  }
+
+  int lookup(String symbol) {
+    Integer id = ids.get(symbol);
+    return id != null ? id : NO_ID;
+  }
+
+  String get(int id) {
+    String[] table = symbols;
+    return id >= 0 && id < table.length ? table[id] : null;
+  }
+
+  int size() {
+    return ids.size();
+  }
+}
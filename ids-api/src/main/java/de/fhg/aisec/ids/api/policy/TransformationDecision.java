@@ -33,6 +33,8 @@ import java.util.Set;
 public class TransformationDecision {
   private Set<String> labelsToAdd;
   private Set<String> labelsToRemove;
+  private volatile LabelSet labelSetToAdd;
+  private volatile LabelSet labelSetToRemove;
 
   public TransformationDecision() {
     this.labelsToAdd = new HashSet<>();
@@ -68,4 +70,28 @@ public class TransformationDecision {
   public Set<String> getLabelsToRemove() {
     return labelsToRemove;
   }
+
+  /**
+   * Applies this transformation to a label set: labels to remove are removed, then labels to add
+   * are added, both as bitwise operations.
+   *
+   * <p>The label sets of the transformation are computed on first use, so the transformation must
+   * not be modified afterwards.
+   *
+   * @param labels The labels of a message
+   * @return The transformed labels
+   */
+  public LabelSet apply(Set<String> labels) {
+    LabelSet remove = labelSetToRemove;
+    if (remove == null) {
+      remove = LabelSet.of(labelsToRemove);
+      labelSetToRemove = remove;
+    }
+    LabelSet add = labelSetToAdd;
+    if (add == null) {
+      add = LabelSet.of(labelsToAdd);
+      labelSetToAdd = add;
+    }
+    return LabelSet.of(labels).transform(remove, add);
+  }
 }
@@ -0,0 +1,54 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.router;
+
+import de.fhg.aisec.ids.api.policy.Obligation;
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Executes the obligations of policy decisions with a specific action, e.g. <code>delete_after
+ * </code> for <code>delete_after(30)</code>.
+ *
+ * <p>Handlers are called asynchronously by the route manager, after the message has been
+ * forwarded. Obligations with actions that have no handler are not executed, instead the
+ * alternative decision of the obligation is enforced.
+ */
+@FunctionalInterface
+public interface ObligationHandler {
+
+  /**
+   * Executes an obligation.
+   *
+   * @param obligation The obligation
+   * @param source The node that has processed the message
+   * @param destination The node the message has been sent to
+   * @param exchangeId The id of the exchange carrying the message
+   * @param labels The labels of the message when the obligation was triggered
+   * @throws Exception If the obligation could not be executed
+   */
+  void execute(
+      @NonNull Obligation obligation,
+      @NonNull String source,
+      @NonNull String destination,
+      @NonNull String exchangeId,
+      @NonNull Set<String> labels)
+      throws Exception;
+}
@@ -0,0 +1,121 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-api
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.api.router;
+
+/** Metrics of the asynchronous execution of obligations. Times are in nanoseconds. */
+public class ObligationMetrics {
+  private int queueDepth;
+  private int capacity;
+  private long submitted;
+  private long rejected;
+  private long executed;
+  private long failed;
+  private long meanWaitNanos;
+  private long maxWaitNanos;
+  private long meanExecutionNanos;
+  private long maxExecutionNanos;
+
+  /** Number of pending obligations */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /** Maximum number of pending obligations */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  /** Number of obligations rejected because the queue was full or their action had no handler */
+  public long getRejected() {
+    return rejected;
+  }
+
+  /** Number of obligations executed successfully */
+  public long getExecuted() {
+    return executed;
+  }
+
+  /** Number of obligations whose handler has failed */
+  public long getFailed() {
+    return failed;
+  }
+
+  /** Mean time obligations were pending in the queue */
+  public long getMeanWaitNanos() {
+    return meanWaitNanos;
+  }
+
+  public long getMaxWaitNanos() {
+    return maxWaitNanos;
+  }
+
+  /** Mean time of the execution of an obligation handler */
+  public long getMeanExecutionNanos() {
+    return meanExecutionNanos;
+  }
+
+  public long getMaxExecutionNanos() {
+    return maxExecutionNanos;
+  }
+
+  public void setQueueDepth(int queueDepth) {
+    this.queueDepth = queueDepth;
+  }
+
+  public void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
+  public void setSubmitted(long submitted) {
+    this.submitted = submitted;
+  }
+
+  public void setRejected(long rejected) {
+    this.rejected = rejected;
+  }
+
+  public void setExecuted(long executed) {
+    this.executed = executed;
+  }
+
+  public void setFailed(long failed) {
+    this.failed = failed;
+  }
+
+  public void setMeanWaitNanos(long meanWaitNanos) {
+    this.meanWaitNanos = meanWaitNanos;
+  }
+
+  public void setMaxWaitNanos(long maxWaitNanos) {
+    this.maxWaitNanos = maxWaitNanos;
+  }
+
+  public void setMeanExecutionNanos(long meanExecutionNanos) {
+    this.meanExecutionNanos = meanExecutionNanos;
+  }
+
+  public void setMaxExecutionNanos(long maxExecutionNanos) {
+    this.maxExecutionNanos = maxExecutionNanos;
+  }
+}
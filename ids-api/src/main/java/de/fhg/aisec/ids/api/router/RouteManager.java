@@ -153,6 +153,22 @@ public interface RouteManager {
   @NonNull
   Map<String, RouteMetrics> getRouteMetrics();
 
+  /**
+   * Registers the handler of an obligation action, replacing any previous handler of the action.
+   *
+   * @param action The name of the action, e.g. <code>delete_after</code>
+   * @param handler The handler executing obligations with this action
+   */
+  void registerObligationHandler(@NonNull String action, @NonNull ObligationHandler handler);
+
+  /**
+   * Returns the metrics of the asynchronous execution of obligations.
+   *
+   * @return Queue depth, counters and latencies of obligations
+   */
+  @NonNull
+  ObligationMetrics getObligationMetrics();
+
   /**
    * Returns the given route configuration in a Prolog representation.
    *
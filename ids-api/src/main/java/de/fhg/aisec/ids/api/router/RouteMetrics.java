@@ -33,6 +33,8 @@ public class RouteMetrics {
   private long maxProcessingTime;
   private long meanProcessingTime;
   private long minProcessingTime;
+  private long enforcedNodes;
+  private long passedThroughNodes;
 
   public long getCompleted() {
     return completed;
@@ -66,6 +68,16 @@ public class RouteMetrics {
     return minProcessingTime;
   }
 
+  /** Number of nodes of the route whose messages are checked by a policy enforcement point */
+  public long getEnforcedNodes() {
+    return enforcedNodes;
+  }
+
+  /** Number of nodes of the route that cannot be affected by the policy and are not checked */
+  public long getPassedThroughNodes() {
+    return passedThroughNodes;
+  }
+
   public void setCompleted(long completed) {
     this.completed = completed;
   }
@@ -97,4 +109,12 @@ public class RouteMetrics {
   public void setMinProcessingTime(long minProcessingTime) {
     this.minProcessingTime = minProcessingTime;
   }
+
+  public void setEnforcedNodes(long enforcedNodes) {
+    this.enforcedNodes = enforcedNodes;
+  }
+
+  public void setPassedThroughNodes(long passedThroughNodes) {
+    this.passedThroughNodes = passedThroughNodes;
+  }
 }
@@ -31,12 +31,17 @@ import java.util.List;
  * <p>The set is not necessarily complete and contains message paths which are valid in term of the
  * route, but violate the policy.
  *
+ * <p>Counterexamples may be enumerated with bounds on their number and on the verification time.
+ * If a bound has been hit, the proof is {@link #isTruncated() truncated}: it contains the
+ * counterexamples found so far and the route is not considered valid.
+ *
  * @author Julian Schuette (julian.schuette@aisec.fraunhofer.de)
  */
 public class RouteVerificationProof {
   private String routeId;
   private long proofTimeNanos;
   private boolean isValid = true;
+  private boolean truncated = false;
   private List<CounterExample> counterExamples = new ArrayList<>();
   private String query = "";
 
@@ -67,6 +72,15 @@ public class RouteVerificationProof {
     this.isValid = isValid;
   }
 
+  /** Whether the enumeration of counterexamples has been stopped before it was complete */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  public void setTruncated(boolean truncated) {
+    this.truncated = truncated;
+  }
+
   public List<CounterExample> getCounterExamples() {
     return counterExamples;
   }
@@ -88,6 +102,9 @@ public class RouteVerificationProof {
     StringBuilder sb = new StringBuilder();
     sb.append("Proof for ").append(this.query).append("\n");
     sb.append("returns ").append(this.isValid).append("\n");
+    if (this.truncated) {
+      sb.append("(truncated)\n");
+    }
     sb.append("Example flows violating policy:\n");
     for (CounterExample ce : this.counterExamples) {
       sb.append("|-- ").append(ce.toString()).append("\n\n");
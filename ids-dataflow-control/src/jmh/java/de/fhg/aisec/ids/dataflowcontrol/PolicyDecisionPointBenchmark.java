@@ -0,0 +1,121 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol;
+
+import de.fhg.aisec.ids.api.policy.DecisionRequest;
+import de.fhg.aisec.ids.api.policy.PDP;
+import de.fhg.aisec.ids.api.policy.PolicyDecision;
+import de.fhg.aisec.ids.api.policy.ServiceNode;
+import de.fhg.aisec.ids.api.policy.TransformationDecision;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionEngines;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the PDP operations used by the PEP and the web console against generated policies.
+ *
+ * <p>Cached variants rotate over a fixed set of requests and thus measure the PDP caches, uncached
+ * variants make every request unique and measure policy evaluation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyDecisionPointBenchmark {
+  private static final int ENDPOINTS = 64;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int rules;
+
+  @Param({"0", "10", "50"})
+  public int labels;
+
+  @Param({"prolog", "compiled", "datalog"})
+  public String engine;
+
+  private PolicyDecisionPoint pdp;
+  private ServiceNode source;
+  private ServiceNode[] targets;
+  private Set<String> messageLabels;
+  private long counter;
+
+  @Setup
+  public void setUp() {
+    pdp = new PolicyDecisionPoint();
+    pdp.setDecisionEngine(Objects.requireNonNull(DecisionEngines.get(engine)));
+    pdp.loadPolicy(PolicyGenerator.policy(rules));
+    source = new ServiceNode("seda:source", null, null);
+    int services = PolicyGenerator.services(rules);
+    targets = new ServiceNode[ENDPOINTS];
+    for (int i = 0; i < ENDPOINTS; i++) {
+      targets[i] = new ServiceNode("svc" + (i * 7919 % services) + "://target", null, null);
+    }
+    messageLabels = PolicyGenerator.labels(labels);
+  }
+
+  private ServiceNode nextTarget() {
+    return targets[(int) (counter++ % ENDPOINTS)];
+  }
+
+  private PolicyDecision decide(ServiceNode target, Set<String> labels) {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put(PDP.LABELS_KEY, labels);
+    return pdp.requestDecision(new DecisionRequest(source, target, properties, null));
+  }
+
+  @Benchmark
+  public PolicyDecision requestDecision() {
+    return decide(nextTarget(), messageLabels);
+  }
+
+  @Benchmark
+  public PolicyDecision requestDecisionUncached() {
+    // A unique label bypasses the decision cache, it is not referenced by the policy
+    Set<String> unique = new HashSet<>(messageLabels);
+    unique.add("message" + counter);
+    return decide(nextTarget(), unique);
+  }
+
+  @Benchmark
+  public TransformationDecision requestTransformations() {
+    return pdp.requestTranformations(nextTarget());
+  }
+
+  @Benchmark
+  public TransformationDecision requestTransformationsUncached() {
+    // A unique endpoint bypasses the transformation cache, but matches the same service
+    ServiceNode target = nextTarget();
+    return pdp.requestTranformations(
+        new ServiceNode(target.getEndpoint() + "?message=" + counter, null, null));
+  }
+
+  @Benchmark
+  public List<String> listRules() {
+    return pdp.listRules();
+  }
+}
@@ -0,0 +1,162 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Generates policies, label sets and routes of a given size for the benchmarks. */
+final class PolicyGenerator {
+  /** Number of distinct labels used by generated policies */
+  static final int LABEL_VOCABULARY = 50;
+
+  private PolicyGenerator() {}
+
+  /**
+   * Generates a policy with n rules.
+   *
+   * <p>Pairs of rules target one service each: an allow rule for all messages and a drop rule with
+   * higher priority for messages with a specific label. Each service matches the endpoints
+   * <code>svcN://...</code> and creates and removes one label.
+   *
+   * @param rules The number of rules
+   * @return The policy theory
+   */
+  static String policy(int rules) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < rules; i++) {
+      String rule = "rule" + i;
+      int service = i / 2;
+      sb.append("rule(").append(rule).append(").\n");
+      sb.append("has_target(").append(rule).append(", service").append(service).append(").\n");
+      if (i % 2 == 0) {
+        sb.append("rule_priority(").append(rule).append(", 1).\n");
+        sb.append("has_decision(").append(rule).append(", allow).\n");
+        sb.append("receives_label(").append(rule).append(").\n");
+        sb.append("service(service").append(service).append(").\n");
+        sb.append("has_endpoint(service")
+            .append(service)
+            .append(", \"^svc")
+            .append(service)
+            .append("://.*\").\n");
+        sb.append("creates_label(service")
+            .append(service)
+            .append(", label")
+            .append(service % LABEL_VOCABULARY)
+            .append(").\n");
+        sb.append("removes_label(service")
+            .append(service)
+            .append(", label")
+            .append((service + 1) % LABEL_VOCABULARY)
+            .append(").\n");
+      } else {
+        sb.append("rule_priority(").append(rule).append(", 2).\n");
+        sb.append("has_decision(").append(rule).append(", drop).\n");
+        sb.append("receives_label(")
+            .append(rule)
+            .append(") :- label(label")
+            .append(i % LABEL_VOCABULARY)
+            .append(").\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the number of services of a policy generated by {@link #policy(int)}.
+   *
+   * @param rules The number of rules of the policy
+   * @return The number of services
+   */
+  static int services(int rules) {
+    return (rules + 1) / 2;
+  }
+
+  /**
+   * Generates the labels of a message.
+   *
+   * @param n The number of labels, at most {@link #LABEL_VOCABULARY}
+   * @return The labels <code>label0</code> to <code>label(n-1)</code>
+   */
+  static Set<String> labels(int n) {
+    Set<String> labels = new LinkedHashSet<>();
+    for (int i = 0; i < n; i++) {
+      labels.add("label" + i);
+    }
+    return labels;
+  }
+
+  /**
+   * Generates a linear route with n nodes in the Prolog format of route verification. Node i sends
+   * messages to an endpoint of service i (modulo the number of services).
+   *
+   * @param nodes The number of nodes
+   * @param services The number of services of the policy
+   * @return The route as Prolog theory
+   */
+  static String route(int nodes, int services) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("entrynode(node0).\n");
+    for (int i = 0; i < nodes; i++) {
+      sb.append("stmt(node").append(i).append(").\n");
+      sb.append("has_action(node")
+          .append(i)
+          .append(", \"svc")
+          .append(i % services)
+          .append("://node")
+          .append(i)
+          .append("\").\n");
+      if (i > 0) {
+        sb.append("succ(node").append(i - 1).append(", node").append(i).append(").\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Generates a route graph with n nodes in the Prolog format of route verification. Node i sends
+   * messages to an endpoint of service i (modulo the number of services) and to the nodes i+1 to
+   * i+fanOut (modulo n), so the route branches at every node and the last nodes loop back to the
+   * first ones.
+   *
+   * @param nodes The number of nodes
+   * @param fanOut The number of successors of each node
+   * @param services The number of services of the policy
+   * @return The route as Prolog theory
+   */
+  static String routeGraph(int nodes, int fanOut, int services) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("entrynode(node0).\n");
+    for (int i = 0; i < nodes; i++) {
+      sb.append("stmt(node").append(i).append(").\n");
+      sb.append("has_action(node")
+          .append(i)
+          .append(", \"svc")
+          .append(i % services)
+          .append("://node")
+          .append(i)
+          .append("\").\n");
+      for (int j = 1; j <= fanOut; j++) {
+        sb.append("succ(node").append(i).append(", node").append((i + j) % nodes).append(").\n");
+      }
+    }
+    return sb.toString();
+  }
+}
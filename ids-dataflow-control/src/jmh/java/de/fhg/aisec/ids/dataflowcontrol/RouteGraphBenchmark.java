@@ -0,0 +1,64 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol;
+
+import alice.tuprolog.InvalidTheoryException;
+import de.fhg.aisec.ids.api.router.RouteVerificationProof;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEngine;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the verification of generated route graphs with branches and loops, whose number of
+ * paths grows exponentially with the number of nodes. The engine and its caches are reused across
+ * invocations, as in the PDP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class RouteGraphBenchmark {
+  @Param({"10", "100"})
+  public int rules;
+
+  @Param({"10", "50", "200"})
+  public int nodes;
+
+  @Param({"2", "4"})
+  public int fanOut;
+
+  private LuconEngine engine;
+  private String route;
+
+  @Setup
+  public void setUp() throws InvalidTheoryException {
+    engine = new LuconEngine(null);
+    engine.loadPolicy(PolicyGenerator.policy(rules));
+    route = PolicyGenerator.routeGraph(nodes, fanOut, PolicyGenerator.services(rules));
+  }
+
+  @Benchmark
+  public RouteVerificationProof proofInvalidRoute() {
+    // Limits of the PDP defaults
+    return engine.proofInvalidRoute("benchmark", route, 100, 10000);
+  }
+}
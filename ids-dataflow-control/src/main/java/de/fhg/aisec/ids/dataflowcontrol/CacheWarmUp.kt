@@ -0,0 +1,70 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol
+
+import de.fhg.aisec.ids.api.policy.CacheWarmUpProgress
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Progress counters of a single cache warm-up, updated by the warming thread and read by
+ * [snapshot].
+ *
+ * @param endpoints Number of endpoints to warm
+ * @param policyVersion Version of the policy epoch the caches are warmed for
+ */
+internal class CacheWarmUp(val endpoints: Int, val policyVersion: Long) {
+    private val startTime = System.nanoTime()
+    @Volatile
+    private var endTime = 0L
+    @Volatile
+    var labelSets = 0
+    @Volatile
+    var aborted = false
+        private set
+    /** Transformations of all endpoints, decisions are added once the label sets are known */
+    val total = AtomicLong(endpoints.toLong())
+    val completed = AtomicLong()
+
+    fun finish(aborted: Boolean) {
+        this.aborted = aborted
+        endTime = System.nanoTime()
+    }
+
+    fun snapshot(pending: Int): CacheWarmUpProgress {
+        val end = endTime
+        val result = CacheWarmUpProgress()
+        result.policyVersion = policyVersion
+        result.isRunning = end == 0L
+        result.isAborted = aborted
+        result.pending = pending
+        result.endpoints = endpoints
+        result.labelSets = labelSets
+        result.total = total.get()
+        result.completed = completed.get()
+        result.durationMillis = TimeUnit.NANOSECONDS.toMillis((if (end == 0L) System.nanoTime() else end) - startTime)
+        return result
+    }
+
+    companion object {
+        /** Progress reported before the first warm-up */
+        val NONE = CacheWarmUp(0, 0).also { it.finish(false) }
+    }
+}
@@ -0,0 +1,117 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Lock-free latency histogram with logarithmic buckets, in the style of HdrHistogram.
+ *
+ * Each power of two is divided into [SUB_BUCKETS] linear buckets, so recorded values are accurate
+ * to 1/[SUB_BUCKETS] (about 3%) regardless of their magnitude, at a fixed memory footprint. Values
+ * above [MAX_VALUE] are counted in the highest bucket.
+ */
+class LatencyHistogram {
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val recorded = LongAdder()
+    private val total = LongAdder()
+    private val max = AtomicLong()
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds, negative values are recorded as 0
+     */
+    fun record(nanos: Long) {
+        val value = nanos.coerceIn(0, MAX_VALUE)
+        buckets.incrementAndGet(bucketIndex(value))
+        recorded.increment()
+        total.add(value)
+        max.accumulateAndGet(value, Math::max)
+    }
+
+    /** Number of recorded latencies */
+    val count: Long
+        get() = recorded.sum()
+
+    /** Mean of the recorded latencies */
+    val meanNanos: Long
+        get() {
+            val n = recorded.sum()
+            return if (n == 0L) 0 else total.sum() / n
+        }
+
+    /** Maximum of the recorded latencies */
+    val maxNanos: Long
+        get() = max.get()
+
+    /**
+     * Returns a percentile of the recorded latencies.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return Upper bound of the bucket containing the percentile, or 0 if nothing has been recorded
+     */
+    fun percentile(percentile: Double): Long {
+        val counts = LongArray(BUCKET_COUNT) { buckets.get(it) }
+        val n = counts.sum()
+        if (n == 0L) {
+            return 0
+        }
+        val rank = Math.ceil(percentile / 100 * n).toLong().coerceIn(1, n)
+        var seen = 0L
+        for (i in counts.indices) {
+            seen += counts[i]
+            if (seen >= rank) {
+                return minOf(bucketUpperBound(i), max.get())
+            }
+        }
+        return max.get()
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 5
+        /** Number of linear buckets per power of two */
+        const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        /** Largest distinguishable value, about 18 minutes in nanoseconds */
+        const val MAX_VALUE = (1L shl 40) - 1
+        private const val BUCKET_COUNT = SUB_BUCKETS + (40 - SUB_BUCKET_BITS) * SUB_BUCKETS
+
+        internal fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKETS) {
+                return value.toInt()
+            }
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = magnitude - SUB_BUCKET_BITS
+            val subBucket = (value ushr shift).toInt() and (SUB_BUCKETS - 1)
+            return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket
+        }
+
+        internal fun bucketUpperBound(index: Int): Long {
+            if (index < SUB_BUCKETS) {
+                return index.toLong()
+            }
+            val shift = (index - SUB_BUCKETS) / SUB_BUCKETS
+            val subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS
+            return ((SUB_BUCKETS + subBucket + 1).toLong() shl shift) - 1
+        }
+    }
+}
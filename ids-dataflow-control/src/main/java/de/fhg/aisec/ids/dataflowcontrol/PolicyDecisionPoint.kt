@@ -21,20 +21,38 @@ package de.fhg.aisec.ids.dataflowcontrol
 
 import alice.tuprolog.*
 import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.UncheckedExecutionException
 import de.fhg.aisec.ids.api.policy.*
-import de.fhg.aisec.ids.api.policy.PolicyDecision.Decision
 import de.fhg.aisec.ids.api.router.RouteManager
 import de.fhg.aisec.ids.api.router.RouteVerificationProof
+import de.fhg.aisec.ids.dataflowcontrol.lucon.BudgetExceededException
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionEngine
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionEngines
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionSolution
+import de.fhg.aisec.ids.dataflowcontrol.lucon.EndpointTable
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconCache
 import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEngine
-import de.fhg.aisec.ids.dataflowcontrol.lucon.TuPrologHelper.escape
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEnginePool
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconTheory
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PatternCache
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PolicyEpoch
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PolicyEpochs
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PolicyModules
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PreparedGoal
+import de.fhg.aisec.ids.dataflowcontrol.lucon.QueryBudget
 import de.fhg.aisec.ids.dataflowcontrol.lucon.TuPrologHelper.listStream
 import org.osgi.service.component.ComponentContext
 import org.osgi.service.component.annotations.*
 import org.slf4j.LoggerFactory
 import java.io.File
+import java.io.IOException
+import java.lang.management.ManagementFactory
 import java.util.*
-import java.util.concurrent.ExecutionException
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
+import javax.management.JMException
+import javax.management.ObjectName
 
 /**
  * servicefactory=false is the default and actually not required. But we want to make clear that
@@ -43,12 +61,37 @@ import java.util.concurrent.TimeUnit
  *
  * @author Julian Schuette (julian.schuette@aisec.fraunhofer.de)
  */
-@Component(immediate = true, name = "ids-dataflow-control")
-class PolicyDecisionPoint : PDP, PAP {
+@Component(immediate = true, name = "ids-dataflow-control", service = [PDP::class, PAP::class])
+class PolicyDecisionPoint : PDP, PAP, PolicyDecisionPointMXBean {
 
-    // Convenience val for this thread's LuconEngine instance
-    private val engine: LuconEngine
-        get() = threadEngine.get()
+    /**
+     * The active policy epoch, shared by the LuconEngine instances of all threads. Decisions acquire
+     * an epoch and are taken against its policy, even if another policy is loaded in the meantime.
+     */
+    private val epochs = PolicyEpochs(PolicyEpoch(0, LuconTheory.EMPTY, null)) { retire(it) }
+
+    // Each thread creates a LuconEngine instance to prevent concurrency issues
+    private val threadEngine: ThreadLocal<LuconEngine> = ThreadLocal.withInitial { LuconEngine(System.out) }
+
+    /** Pool of engines shared by all threads, or null if each thread uses its own engine */
+    @Volatile
+    private var enginePool: LuconEnginePool? = null
+
+    /** Metrics of the engine pool, or null if each thread uses its own engine */
+    val enginePoolStats: LuconEnginePool.Stats?
+        get() = enginePool?.stats
+
+    /** Metrics of the process-wide cache of compiled endpoint regexes */
+    val patternCacheStats: PatternCache.Stats
+        get() = PatternCache.stats
+
+    /** Metrics of the memo tables of dominant rules, aggregated over all engines */
+    val ruleCacheStats: LuconCache.Stats
+        get() = LuconCache.stats
+
+    /** Metrics of policy swaps, including the active policy version */
+    val policySwapStats: PolicyEpochs.Stats
+        get() = epochs.stats
 
     @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
     @Volatile
@@ -57,45 +100,124 @@ class PolicyDecisionPoint : PDP, PAP {
     private val transformationCache = CacheBuilder.newBuilder()
             .maximumSize(10000)
             .expireAfterAccess(1, TimeUnit.DAYS)
-            .build<ServiceNode, TransformationDecision>()
+            .recordStats()
+            .build<TransformationCacheKey, TransformationDecision>()
+
+    /**
+     * Keys of the transformation and decision caches contain the version of the policy epoch they
+     * have been computed for, so results of an older version are never returned.
+     *
+     * Transformations of nodes with registered endpoints are not kept in this cache, but in the
+     * endpoint table of their epoch.
+     */
+    private data class TransformationCacheKey(val node: ServiceNode, val version: Long)
+
+    /** Hits and misses of the per-epoch transformation tables */
+    private val transformationTableHits = LongAdder()
+    private val transformationTableMisses = LongAdder()
+
+    /** Prolog atoms of registered endpoints, shared by all queries as atoms are never modified */
+    private val endpointAtoms = EndpointTable<Term>()
+
+    /** Endpoints without query parameters of registered endpoints, as used by latency metrics */
+    private val metricEndpoints = EndpointTable<String>()
+
+    private val decisionCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .recordStats()
+            .build<DecisionCacheKey, PolicyDecision>()
+
+    /**
+     * Key of the decision cache. Labels are compared and hashed by their bit mask. Registered
+     * endpoints are identified by their id only, the endpoint string is null then.
+     */
+    private data class DecisionCacheKey(
+            val endpointId: Int,
+            val endpoint: String?,
+            val labels: LabelSet,
+            val version: Long)
+
+    /** Limits of the evaluation of decision queries by tuProlog */
+    @Volatile
+    var queryBudget = QueryBudget(DEFAULT_QUERY_TIMEOUT, DEFAULT_QUERY_MAX_SOLUTIONS)
+
+    /** Decision taken if the evaluation of a decision query exceeds the query budget */
+    @Volatile
+    var budgetFallbackDecision = PolicyDecision.Decision.DENY
+
+    /** Number of decisions whose evaluation exceeded the query budget */
+    private val budgetExceeded = LongAdder()
+
+    /** Latencies of evaluated decisions by target endpoint (without query parameters) and outcome */
+    private val decisionLatencies = ConcurrentHashMap<LatencyKey, LatencyHistogram>()
+
+    private data class LatencyKey(val endpoint: String, val outcome: String)
+
+    /** Engine preparing loaded policies for decisions, tuProlog takes the decisions it cannot take. */
+    @Volatile
+    var decisionEngine: DecisionEngine = DecisionEngines.COMPILED
+
+    /**
+     * Route verification proofs. A proof only depends on the Prolog representation of the route and
+     * the policy theory, so it is cached by both.
+     */
+    private val proofCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build<ProofCacheKey, RouteVerificationProof>()
+
+    private data class ProofCacheKey(val routeId: String, val routePl: String, val theoryVersion: Long)
+
+    /** Maximum number of distinct counterexamples of a route verification proof */
+    @Volatile
+    var maxCounterExamples = DEFAULT_MAX_COUNTER_EXAMPLES
+
+    /** Maximum time in milliseconds for enumerating the counterexamples of a route */
+    @Volatile
+    var verificationTimeoutMillis = DEFAULT_VERIFICATION_TIMEOUT
+
+    /** Executor for parallel route verification, created on first use */
+    private val verificationExecutor: ExecutorService by lazy {
+        daemonExecutor("lucon-route-verification-",
+                Integer.getInteger(VERIFICATION_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()))
+    }
+
+    /** Executor for parsing policy modules in parallel, created on first use */
+    private val policyExecutor: ExecutorService by lazy {
+        daemonExecutor("lucon-policy-loader-", Runtime.getRuntime().availableProcessors())
+    }
+
+    /** Single thread warming the caches in the background, created on first use */
+    private val warmUpExecutor: ExecutorService by lazy { daemonExecutor("lucon-cache-warmup-", 1) }
+
+    /** Whether caches are warmed for all registered endpoints whenever a policy is loaded. */
+    @Volatile
+    var warmCachesOnLoad = false
+
+    /** Progress of the running or most recently finished cache warm-up */
+    @Volatile
+    private var warmUp = CacheWarmUp.NONE
+
+    /** Number of cache warm-ups waiting for the executor */
+    private val pendingWarmUps = AtomicInteger()
+
+    /** Policy modules of the deploy directory, or null if they have not been loaded */
+    @Volatile
+    private var policyModules: PolicyModules? = null
+
+    /** Watches the deploy directory for changed policy modules while the component is active */
+    @Volatile
+    private var policyWatcher: PolicyDirectoryWatcher? = null
 
     /**
-     * Creates a query to retrieve policy decision from Prolog knowledge base.
+     * Creates a goal to retrieve policy decision from Prolog knowledge base.
      *
      * @param target The target node of the transformation
-     * @param properties The exchange properties
+     * @param labels The labels of the exchange
      */
-    private fun createDecisionQuery(
-            target: ServiceNode, properties: MutableMap<String, Any>): String {
-        val sb = StringBuilder()
-        sb.append("rule(X), has_target(X, T), ")
-        sb.append("has_endpoint(T, EP), ")
-        sb.append("regex_match(EP, ").append(escape(target.endpoint)).append("), ")
-        // Assert labels for the duration of this query, must be done before receives_label(X)
-        @Suppress("UNCHECKED_CAST")
-        val labels = properties.computeIfAbsent(PDP.LABELS_KEY) { HashSet<String>() } as Set<String>
-        labels.forEach { k -> sb.append("assert(label(").append(k).append(")), ") }
-        sb.append("receives_label(X), ")
-        sb.append("rule_priority(X, P), ")
-        // Removed due to unclear relevance
-//        if (target.capabilties.size + target.properties.size > 0) {
-//            val capProp = LinkedList<String>()
-//            for (cap in target.capabilties) {
-//                capProp.add("has_capability(T, " + escape(cap) + ")")
-//            }
-//            for (prop in target.properties) {
-//                capProp.add("has_property(T, " + escape(prop) + ")")
-//            }
-//            sb.append("(").append(capProp.joinToString(", ")).append("), ")
-//        }
-        sb.append("(has_decision(X, D) ; (has_obligation(X, _O), has_alternativedecision(_O, Alt), ")
-        sb.append("requires_prerequisite(_O, A)))")
-        if (labels.isNotEmpty()) {
-            // Cleanup prolog VM for next run
-            sb.append(", retractall(label(_))")
-        }
-        sb.append(".")
-        return sb.toString()
+    private fun createDecisionQuery(target: ServiceNode, labels: Set<String>): Term {
+        return DECISION_GOAL.bind(endpointAtom(target) ?: PreparedGoal.atom(""), PreparedGoal.termList(labels))
     }
 
     /**
@@ -103,268 +225,666 @@ class PolicyDecisionPoint : PDP, PAP {
      * knowledge base.
      *
      *
-     * This method returns the respective query for a specific target.
+     * This method returns the respective goal for a specific target.
      *
      * @param target The ServiceNode to be processed
-     * @return The resulting Prolog query for the transformation
+     * @return The resulting Prolog goal for the transformation
      */
-    private fun createTransformationQuery(target: ServiceNode): String {
-        val sb = StringBuilder()
-        val plEndpoint: String
-        if (target.endpoint != null) {
-            plEndpoint = escape(target.endpoint)
-//            sb.append("dominant_allow_rules(").append(plEndpoint).append(", _T, _), ")
+    private fun createTransformationQuery(target: ServiceNode): Term {
+        val endpoint = endpointAtom(target) ?: throw RuntimeException("No endpoint specified!")
+        return TRANSFORMATION_GOAL.bind(endpoint)
+    }
+
+    /** Returns the Prolog atom of the endpoint of a node, or null if the node has no endpoint. */
+    private fun endpointAtom(node: ServiceNode): Term? {
+        val endpoint = node.endpoint ?: return null
+        return if (node.endpointId != EndpointRegistry.NO_ID) {
+            endpointAtoms.getOrPut(node.endpointId) { PreparedGoal.atom(endpoint) }
         } else {
-            throw RuntimeException("No endpoint specified!")
-        }
-        // Removed due to unclear relevance
-//        if (target.capabilties.size + target.properties.size > 0) {
-//            val capProp = LinkedList<String>()
-//            for (cap in target.capabilties) {
-//                capProp.add("has_capability(_T, " + escape(cap) + ")")
-//            }
-//            for (prop in target.properties) {
-//                capProp.add("has_property(_T, " + escape(prop) + ")")
-//            }
-//            sb.append('(').append(capProp.joinToString(", ")).append("),\n")
-//        }
-        sb.append("once(setof(S, action_service(")
-                .append(plEndpoint)
-                .append(", S), SC); SC = []),\n")
-                .append("collect_creates_labels(SC, ACraw), set_of(ACraw, Adds),\n")
-                .append("collect_removes_labels(SC, RCraw), set_of(RCraw, Removes).")
-        return sb.toString()
+            PreparedGoal.atom(endpoint)
+        }
     }
 
     @Activate
     @Suppress("UNUSED_PARAMETER")
     private fun activate(ignored: ComponentContext) {
-        loadPolicies()
+        configureEnginePool(Integer.getInteger(ENGINE_POOL_SIZE_PROPERTY, 0),
+                java.lang.Long.getLong(ENGINE_POOL_MAX_WAIT_PROPERTY, DEFAULT_ENGINE_POOL_MAX_WAIT))
+        warmCachesOnLoad = System.getProperty(WARM_CACHES_PROPERTY, "true")!!.toBoolean()
+        maxCounterExamples = Integer.getInteger(MAX_COUNTER_EXAMPLES_PROPERTY, DEFAULT_MAX_COUNTER_EXAMPLES)
+        queryBudget = QueryBudget(java.lang.Long.getLong(QUERY_TIMEOUT_PROPERTY, DEFAULT_QUERY_TIMEOUT),
+                Integer.getInteger(QUERY_MAX_SOLUTIONS_PROPERTY, DEFAULT_QUERY_MAX_SOLUTIONS))
+        System.getProperty(BUDGET_FALLBACK_DECISION_PROPERTY)?.let { decision ->
+            try {
+                budgetFallbackDecision = PolicyDecision.Decision.valueOf(decision.trim().toUpperCase())
+            } catch (e: IllegalArgumentException) {
+                LOG.warn("Invalid fallback decision {}, using {}", decision, budgetFallbackDecision)
+            }
+        }
+        verificationTimeoutMillis = java.lang.Long.getLong(VERIFICATION_TIMEOUT_PROPERTY, DEFAULT_VERIFICATION_TIMEOUT)
+        System.getProperty(DECISION_ENGINE_PROPERTY)?.let { name ->
+            val engine = DecisionEngines.get(name)
+            if (engine != null) {
+                decisionEngine = engine
+            } else {
+                LOG.warn("Unknown decision engine {}, using {}", name, decisionEngine.name)
+            }
+        }
+        // Load policies in the background, so bundle startup is not blocked by parsing the policy.
+        // Not on the policy executor, which is busy parsing the modules in the meantime.
+        val loader = Thread({
+            try {
+                loadPolicies()
+                watchPolicies()
+            } catch (e: Exception) {
+                LOG.error("Error while loading policies", e)
+            }
+        }, "lucon-policy-activation")
+        loader.isDaemon = true
+        loader.start()
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, ObjectName(PolicyDecisionPointMXBean.OBJECT_NAME))
+        } catch (e: JMException) {
+            LOG.warn("Could not register PDP metrics with JMX: {}", e.message)
+        }
+    }
+
+    @Deactivate
+    @Suppress("UNUSED_PARAMETER")
+    private fun deactivate(ignored: ComponentContext) {
+        closePolicyWatcher()
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(ObjectName(PolicyDecisionPointMXBean.OBJECT_NAME))
+        } catch (e: JMException) {
+            LOG.debug("Could not unregister PDP metrics from JMX: {}", e.message)
+        }
     }
 
+    /**
+     * Switches between one LuconEngine per thread and a fixed-size pool of engines shared by all
+     * threads. Pooled engines are created and loaded with the current policy immediately.
+     *
+     * @param size Number of pooled engines, or 0 to use one engine per thread
+     * @param maxWaitMillis Maximum time a thread waits for a pooled engine
+     */
+    fun configureEnginePool(size: Int, maxWaitMillis: Long) {
+        enginePool = if (size > 0) {
+            LuconEnginePool(size, maxWaitMillis) { LuconEngine(System.out).also { it.syncTheory(epochs.current.theory) } }
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Runs a function with a LuconEngine that is in sync with the policy of an epoch. The engine is
+     * taken from the engine pool, if configured, or is this thread's engine otherwise.
+     */
+    private fun <T> withEngine(epoch: PolicyEpoch, block: (LuconEngine) -> T): T {
+        val pool = enginePool
+        return if (pool != null) {
+            pool.withEngine { e ->
+                e.syncTheory(epoch.theory)
+                block(e)
+            }
+        } else {
+            val e = threadEngine.get()
+            e.syncTheory(epoch.theory)
+            block(e)
+        }
+    }
+
+    /**
+     * Runs a function with this thread's LuconEngine in sync with the policy of an epoch. Route
+     * verification uses these engines instead of the engine pool, so long proofs never hold pooled
+     * engines needed for decisions.
+     */
+    private fun <T> withVerificationEngine(epoch: PolicyEpoch, block: (LuconEngine) -> T): T {
+        val e = threadEngine.get()
+        e.syncTheory(epoch.theory)
+        return block(e)
+    }
+
+    /** Runs a function with a LuconEngine that is in sync with the active policy. */
+    private fun <T> withEngine(block: (LuconEngine) -> T): T = epochs.withEpoch { withEngine(it, block) }
+
+    /** Loads the policy modules of the karaf deploy directory. */
     fun loadPolicies() {
-        // Try to load existing policies from deploy dir at activation
-        val dir = File(System.getProperty("karaf.base") + File.separator + "deploy")
-        val directoryListing = dir.listFiles()
-        if (directoryListing == null || !dir.isDirectory) {
+        loadPolicies(File(System.getProperty("karaf.base") + File.separator + "deploy"))
+    }
+
+    /**
+     * Loads all policy modules of a directory. Modules are parsed in parallel and merged into a
+     * single policy, which replaces the active policy.
+     *
+     * @param dir The directory containing the policy modules
+     */
+    fun loadPolicies(dir: File) {
+        if (!dir.isDirectory) {
             LOG.warn("Unexpected or not running in karaf: Not a directory: " + dir.absolutePath)
             return
         }
+        val modules = PolicyModules(dir, policyExecutor)
+        policyModules = modules
+        if (modules.loadAll()) {
+            loadTheory(modules.merge())
+            LOG.info("Loaded policy modules {}", modules.names)
+        }
+    }
 
-        var loaded = false
-        for (f in directoryListing) {
-            if (f.name.endsWith(LUCON_FILE_EXTENSION)) {
-                if (!loaded) {
-                    LOG.info("Loading Lucon policy from " + f.absolutePath)
-                    loadPolicy(f.readText())
-                    loaded = true
-                } else {
-                    LOG.warn("Multiple policy files. Will load only one! " + f.absolutePath)
-                }
-            }
+    /**
+     * Reloads changed policy modules of the directory loaded by [loadPolicies]. Only the changed
+     * modules are parsed again, then all modules are merged into a new policy.
+     *
+     * @param names The file names of the changed modules, or null to reload all modules
+     */
+    fun reloadPolicies(names: Set<String>?) {
+        val modules = policyModules ?: return
+        val changed = if (names == null) modules.loadAll() else modules.reload(names)
+        if (changed) {
+            loadTheory(modules.merge())
+            LOG.info("Reloaded policy modules {}", names ?: modules.names)
         }
     }
 
-    override fun requestTranformations(lastServiceNode: ServiceNode): TransformationDecision {
+    @Synchronized
+    private fun closePolicyWatcher() {
+        policyWatcher?.close()
+        policyWatcher = null
+        policyModules = null
+    }
+
+    /** Starts watching the directory of the loaded policy modules for changes. */
+    @Synchronized
+    private fun watchPolicies() {
+        // Modules are reset on deactivation
+        val modules = policyModules ?: return
         try {
-            return transformationCache.get(
-                    lastServiceNode
-            ) {
-                // Query prolog for labels to remove or add from message
-                val query = this.createTransformationQuery(lastServiceNode)
-                if (LOG.isDebugEnabled) {
-                    LOG.debug("Query for uncached label transformation: $query")
-                }
+            policyWatcher = PolicyDirectoryWatcher(modules.dir.toPath(), POLICY_WATCH_DEBOUNCE) { reloadPolicies(it) }
+        } catch (e: IOException) {
+            LOG.warn("Cannot watch {} for policy changes: {}", modules.dir, e.message)
+        }
+    }
 
-                val result = TransformationDecision()
-                try {
-                    val solveInfo = this.engine.query(query, true)
-                    if (solveInfo.isNotEmpty()) {
-                        // Get solutions, convert label variables to string and collect in sets
-                        val labelsToAdd = result.labelsToAdd
-                        val labelsToRemove = result.labelsToRemove
-                        solveInfo.forEach { s ->
-                            try {
-                                val adds = s.getVarValue("Adds").term
-                                if (adds.isList) {
-                                    listStream(adds).forEach { labelsToAdd.add(it.toString()) }
-                                } else {
-                                    throw RuntimeException("\"Adds\" is not a prolog list!")
-                                }
-                                val removes = s.getVarValue("Removes").term
-                                if (removes.isList) {
-                                    listStream(removes).forEach { labelsToRemove.add(it.toString()) }
-                                } else {
-                                    throw RuntimeException("\"Removes\" is not a prolog list!")
-                                }
-                            } catch (ignored: NoSolutionException) {}
-                        }
-                    }
-                    LOG.debug("Transformation: {}", result)
-                } catch (e: Throwable) {
-                    LOG.error(e.message, e)
-                }
+    override fun requestTranformations(lastServiceNode: ServiceNode): TransformationDecision =
+            epochs.withEpoch { requestTransformations(it, lastServiceNode) }
 
-                result
+    /**
+     * Returns the label transformations of a node. If the policy cannot be evaluated at the moment,
+     * because the engine pool is exhausted or the evaluation budget is exceeded, no labels are
+     * transformed and the result is not cached.
+     */
+    private fun requestTransformations(epoch: PolicyEpoch, lastServiceNode: ServiceNode): TransformationDecision {
+        try {
+            return loadTransformations(epoch, lastServiceNode)
+        } catch (e: LuconEnginePool.PoolExhaustedException) {
+            LOG.warn("Transformation for {} not available: {}", lastServiceNode.endpoint, e.message)
+            return TransformationDecision()
+        } catch (e: BudgetExceededException) {
+            LOG.warn("Transformation for {} exceeded the evaluation budget: {}", lastServiceNode.endpoint, e.message)
+            budgetExceeded.increment()
+            return TransformationDecision()
+        }
+    }
+
+    /**
+     * Returns the label transformations of a node from the caches, querying the policy if necessary.
+     *
+     * @throws LuconEnginePool.PoolExhaustedException If no engine is available for the query
+     * @throws BudgetExceededException If the query exceeds the evaluation budget
+     */
+    private fun loadTransformations(epoch: PolicyEpoch, lastServiceNode: ServiceNode): TransformationDecision {
+        try {
+            // Registered endpoints without properties are looked up by id in the table of the epoch
+            val endpointId = lastServiceNode.endpointId
+            if (endpointId != EndpointRegistry.NO_ID && lastServiceNode.properties.isEmpty()
+                    && lastServiceNode.capabilties.isEmpty()) {
+                val cached = epoch.transformations[endpointId]
+                if (cached != null) {
+                    transformationTableHits.increment()
+                    return cached
+                }
+                transformationTableMisses.increment()
+                return epoch.transformations.getOrPut(endpointId) { queryTransformations(epoch, lastServiceNode) }
+            }
+            try {
+                return transformationCache.get(
+                        TransformationCacheKey(lastServiceNode, epoch.version)
+                ) { queryTransformations(epoch, lastServiceNode) }
+            } catch (ee: UncheckedExecutionException) {
+                // Failed loads are not cached, transient errors are passed on to the caller
+                throw ee.cause ?: ee
             }
         } catch (ee: ExecutionException) {
             LOG.error(ee.message, ee)
             return TransformationDecision()
         }
-
     }
 
-    override fun requestDecision(req: DecisionRequest): PolicyDecision {
-        val dec = PolicyDecision()
+    private fun queryTransformations(epoch: PolicyEpoch, lastServiceNode: ServiceNode): TransformationDecision {
+        val endpoint = lastServiceNode.endpoint
+        if (endpoint != null) {
+            epoch.preparedPolicy?.transformation(endpoint)?.let { return it }
+        }
 
-        LOG.debug(
-                "Decision requested " + req.from.endpoint + " -> " + req.to.endpoint)
+        // Query prolog for labels to remove or add from message
+        val query = this.createTransformationQuery(lastServiceNode)
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Query for uncached label transformation: $query")
+        }
 
+        val result = TransformationDecision()
         try {
-            // Query Prolog engine for a policy decision
-            val startTime = System.nanoTime()
-            val query = this.createDecisionQuery(req.to, req.properties)
-            if (LOG.isDebugEnabled) {
-                LOG.debug("Decision query: {}", query)
-            }
-            val solveInfo = this.engine.query(query, true)
-            val time = System.nanoTime() - startTime
-            if (LOG.isInfoEnabled) {
-                LOG.debug("Decision query took {} ms", time / 1e6f)
-            }
-
-            // If there is no matching rule, deny by default
-            if (solveInfo.isEmpty()) {
-                if (LOG.isDebugEnabled) {
-                    LOG.debug("No policy decision found. Returning " + dec.decision.toString())
+            val solveInfo = withEngine(epoch) { it.query(query, true) }
+            if (solveInfo.isNotEmpty()) {
+                // Get solutions, convert label variables to string and collect in sets
+                val labelsToAdd = result.labelsToAdd
+                val labelsToRemove = result.labelsToRemove
+                solveInfo.forEach { s ->
+                    try {
+                        val adds = s.getVarValue("Adds").term
+                        if (adds.isList) {
+                            listStream(adds).forEach { labelsToAdd.add(it.toString()) }
+                        } else {
+                            throw RuntimeException("\"Adds\" is not a prolog list!")
+                        }
+                        val removes = s.getVarValue("Removes").term
+                        if (removes.isList) {
+                            listStream(removes).forEach { labelsToRemove.add(it.toString()) }
+                        } else {
+                            throw RuntimeException("\"Removes\" is not a prolog list!")
+                        }
+                    } catch (ignored: NoSolutionException) {}
                 }
-                dec.reason = "No matching rule"
-                return dec
             }
+            LOG.debug("Transformation: {}", result)
+        } catch (e: LuconEnginePool.PoolExhaustedException) {
+            // Transient, must not be cached as the transformation of the node
+            throw e
+        } catch (e: BudgetExceededException) {
+            throw e
+        } catch (e: Throwable) {
+            LOG.error(e.message, e)
+        }
 
-            // Include only solveInfos with highest priority
-            var maxPrio = Integer.MIN_VALUE
-            val applicableSolveInfos = ArrayList<SolveInfo>()
-            for (si in solveInfo) {
-                try {
-                    val priority = Integer.parseInt(si.getVarValue("P").term.toString())
-                    if (priority > maxPrio) {
-                        maxPrio = priority
-                        applicableSolveInfos.clear()
-                    }
-                    if (priority == maxPrio) {
-                        applicableSolveInfos.add(si)
-                    }
-                } catch (e: NumberFormatException) {
-                    LOG.warn("Invalid rule priority: " + si.getVarValue("P"), e)
-                } catch (e: NullPointerException) {
-                    LOG.warn("Invalid rule priority: " + si.getVarValue("P"), e)
-                }
+        return result
+    }
 
+    override fun requestDecision(req: DecisionRequest): PolicyDecision =
+            epochs.withEpoch { requestDecision(it, req) }
+
+    /**
+     * Decides a request under the policy of an epoch.
+     *
+     * @param rethrowTransient Whether an exhausted engine pool or an exceeded evaluation budget is
+     * passed on to the caller instead of being answered by an uncached fallback decision
+     */
+    private fun requestDecision(epoch: PolicyEpoch, req: DecisionRequest,
+                                rethrowTransient: Boolean = false): PolicyDecision {
+        LOG.debug("Decision requested {} -> {}", req.from.endpoint, req.to.endpoint)
+
+        @Suppress("UNCHECKED_CAST")
+        val labels = LabelSet.of(req.properties[PDP.LABELS_KEY] as Collection<String>?)
+
+        // Decisions only depend on target endpoint, labels and policy
+        val endpoint = req.to.endpoint
+        val endpointId = req.to.endpointId
+        val cacheKey = if (endpoint != null) {
+            DecisionCacheKey(endpointId, if (endpointId == EndpointRegistry.NO_ID) endpoint else null,
+                    labels, epoch.version)
+        } else {
+            null
+        }
+        if (cacheKey != null) {
+            val cached = decisionCache.getIfPresent(cacheKey)
+            if (cached != null) {
+                return cached
             }
+        }
 
-            // Just for debugging
+        val startTime = System.nanoTime()
+        try {
+            // Answer from the prepared policy if possible, fall back to tuProlog otherwise
+            val prepared = epoch.preparedPolicy
+            val solutions = (if (prepared != null && endpoint != null) prepared.solutions(endpointId, endpoint, labels) else null)
+                    ?: queryDecisionSolutions(epoch, req.to, labels)
+            val time = System.nanoTime() - startTime
             if (LOG.isDebugEnabled) {
-                debug(applicableSolveInfos)
+                LOG.debug("Decision query took {} ms", time / 1e6f)
             }
 
-            // Collect obligations
-            val obligations = LinkedList<Obligation>()
-            applicableSolveInfos.forEach { s ->
-                try {
-                    val rule = s.getVarValue("X")
-                    val decision = s.getVarValue("D")
-                    if (decision !is Var) {
-                        val decString = decision.term.toString()
-                        if ("drop" == decString) {
-                            dec.reason = rule.term.toString()
-                        } else if ("allow" == decString) {
-                            dec.reason = rule.term.toString()
-                            dec.decision = Decision.ALLOW
-                        }
-                    }
-                    val action = s.getVarValue("A")
-                    val altDecision = s.getVarValue("Alt")
-                    if (action !is Var) {
-                        val o = Obligation()
-                        o.action = action.term.toString()
-                        if (altDecision !is Var) {
-                            val altDecString = altDecision.term.toString()
-                            if ("drop" == altDecString) {
-                                o.alternativeDecision = Decision.DENY
-                            } else if ("allow" == altDecString) {
-                                o.alternativeDecision = Decision.ALLOW
-                            }
-                        }
-                        obligations.add(o)
-                    }
-                } catch (e: NoSolutionException) {
-                    LOG.warn("Unexpected: solution variable not present: " + e.message)
-                    dec.reason = "Solution variable not present"
-                }
+            // Just for debugging
+            if (LOG.isTraceEnabled) {
+                solutions.forEach { LOG.trace("Decision solution: {}", it) }
+            }
+
+            val dec = DecisionSolution.toPolicyDecision(solutions)
+            recordLatency(req.to, dec.decision.name, time)
+            if (cacheKey != null) {
+                // Cached decisions are shared, so obligations must not be modified by callers
+                dec.obligations = Collections.unmodifiableList(dec.obligations)
+                decisionCache.put(cacheKey, dec)
             }
-            dec.obligations = obligations
+            return dec
         } catch (e: NoMoreSolutionException) {
             LOG.error(e.message, e)
-            dec.reason = "Error: " + e.message
-        } catch (e: MalformedGoalException) {
+            return errorDecision(e, req.to, startTime)
+        } catch (e: InvalidTermException) {
             LOG.error(e.message, e)
-            dec.reason = "Error: " + e.message
+            return errorDecision(e, req.to, startTime)
         } catch (e: NoSolutionException) {
             LOG.error(e.message, e)
-            dec.reason = "Error: " + e.message
+            return errorDecision(e, req.to, startTime)
+        } catch (e: LuconEnginePool.PoolExhaustedException) {
+            if (rethrowTransient) {
+                throw e
+            }
+            LOG.warn(e.message)
+            return errorDecision(e, req.to, startTime)
+        } catch (e: BudgetExceededException) {
+            if (rethrowTransient) {
+                throw e
+            }
+            LOG.warn("Decision for {} exceeded the evaluation budget: {}", req.to.endpoint, e.message)
+            budgetExceeded.increment()
+            recordLatency(req.to, BUDGET_EXCEEDED_OUTCOME, System.nanoTime() - startTime)
+            // Not cached, the next request evaluates the policy again
+            val dec = PolicyDecision()
+            dec.decision = budgetFallbackDecision
+            dec.reason = BUDGET_EXCEEDED_REASON
+            return dec
+        }
+    }
+
+    private fun recordLatency(target: ServiceNode, outcome: String, nanos: Long) {
+        val endpoint = target.endpoint
+        val metricEndpoint = when {
+            endpoint == null -> ""
+            target.endpointId != EndpointRegistry.NO_ID ->
+                metricEndpoints.getOrPut(target.endpointId) { endpoint.substringBefore('?') }
+            else -> endpoint.substringBefore('?')
         }
+        var key = LatencyKey(metricEndpoint, outcome)
+        // Bound the number of histograms, endpoints with dynamic URIs are aggregated
+        if (decisionLatencies.size >= MAX_LATENCY_HISTOGRAMS && !decisionLatencies.containsKey(key)) {
+            key = LatencyKey(OTHER_ENDPOINTS, outcome)
+        }
+        decisionLatencies.computeIfAbsent(key) { LatencyHistogram() }.record(nanos)
+    }
 
+    override fun requestPathDecisions(path: List<ServiceNode>, labels: Set<String>): DecisionPlan =
+            // All hops are decided against the same policy
+            epochs.withEpoch { requestPathDecisions(it, path, labels) }
+
+    private fun requestPathDecisions(epoch: PolicyEpoch, path: List<ServiceNode>, labels: Set<String>): DecisionPlan {
+        val hops = ArrayList<HopDecision>(path.size)
+        var currentLabels = LabelSet.of(labels)
+        for (i in 1 until path.size) {
+            val hop = try {
+                decideHop(epoch, path[i - 1], path[i], currentLabels)
+            } catch (e: LuconEnginePool.PoolExhaustedException) {
+                // Plans may be cached, so the plan ends before a hop that cannot be decided now
+                LOG.warn("Path decisions stopped at {}: {}", path[i].endpoint, e.message)
+                break
+            } catch (e: BudgetExceededException) {
+                LOG.warn("Path decisions stopped at {}: {}", path[i].endpoint, e.message)
+                break
+            }
+            hops.add(hop)
+            // The message will not travel any further
+            if (hop.decision.decision != PolicyDecision.Decision.ALLOW) {
+                break
+            }
+            currentLabels = hop.transformation.apply(currentLabels)
+        }
+        return DecisionPlan(hops)
+    }
+
+    /** Decides a single hop of a path, passing transient errors on to the caller. */
+    private fun decideHop(epoch: PolicyEpoch, from: ServiceNode, to: ServiceNode, labels: LabelSet): HopDecision {
+        val transformation = loadTransformations(epoch, from)
+        val properties = HashMap<String, Any>()
+        properties[PDP.LABELS_KEY] = transformation.apply(labels)
+        val decision = requestDecision(epoch, DecisionRequest(from, to, properties, null), true)
+        return HopDecision(from, to, labels, transformation, decision)
+    }
+
+    override fun canPassThrough(node: ServiceNode): Boolean = epochs.withEpoch { epoch ->
+        val endpoint = node.endpoint
+        val prepared = epoch.preparedPolicy
+        // Label independence can only be shown by a prepared policy, tuProlog queries are opaque
+        if (endpoint == null || prepared == null || !prepared.isLabelIndependent(node.endpointId, endpoint)) {
+            return@withEpoch false
+        }
+        // Transient errors are passed on, the node must not be classified from an empty transformation
+        val transformation = loadTransformations(epoch, node)
+        if (transformation.labelsToAdd.isNotEmpty() || transformation.labelsToRemove.isNotEmpty()) {
+            return@withEpoch false
+        }
+        val solutions = prepared.solutions(node.endpointId, endpoint, LabelSet.EMPTY) ?: return@withEpoch false
+        val decision = DecisionSolution.toPolicyDecision(solutions)
+        decision.decision == PolicyDecision.Decision.ALLOW && decision.obligations.isEmpty()
+    }
+
+    private fun errorDecision(e: Exception, target: ServiceNode, startTime: Long): PolicyDecision {
+        recordLatency(target, ERROR_OUTCOME, System.nanoTime() - startTime)
+        val dec = PolicyDecision()
+        dec.reason = "Error: " + e.message
         return dec
     }
 
     /**
-     * Just for debugging: Print query solution to DEBUG out.
+     * Queries the Prolog engine for the solutions of the decision query.
      *
-     * @param solveInfo A list of Prolog solutions
+     * @param epoch The policy epoch of the decision
+     * @param target The target node of the decision
+     * @param labels The labels of the exchange
+     * @return The solutions in the order they have been found by tuProlog
      */
-    private fun debug(solveInfo: List<SolveInfo>) {
-        if (!LOG.isTraceEnabled) {
-            return
+    @Throws(NoSolutionException::class)
+    private fun queryDecisionSolutions(epoch: PolicyEpoch, target: ServiceNode, labels: Set<String>): List<DecisionSolution> {
+        val query = this.createDecisionQuery(target, labels)
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Decision query: {}", query)
         }
-        try {
-            for (i in solveInfo) {
-                if (i.isSuccess) {
-                    val vars = i.bindingVars
-                    LOG.trace(vars.joinToString(", ") { v ->
-                        String.format("%s: %s (%s)", v.name, v.term,
-                                if (v.isBound) "bound" else "unbound")
-                    })
-                }
+        val budget = queryBudget
+        return withEngine(epoch) { it.query(query, true, budget) }.map { s ->
+            fun value(name: String): String? {
+                val v = s.getVarValue(name)
+                return if (v is Var) null else v.term.toString()
             }
-        } catch (nse: NoSolutionException) {
-            LOG.trace("No solution found", nse)
+            DecisionSolution(s.getVarValue("X").term.toString(), s.getVarValue("P").term.toString(),
+                    value("D"), value("A"), value("Alt"))
         }
-
     }
 
     override fun clearAllCaches() {
-        // clear Prolog cache entries
-        try {
-            engine.query("cache_clear(_).", true)
-            LOG.info("Prolog cache_clear(_) successful")
-        } catch (pe: PrologException) {
-            LOG.warn("Prolog cache_clear(_) failed", pe)
-        }
+        // clear Prolog cache entries of all engines
+        LuconCache.invalidateAll()
 
         // clear transformation cache
         transformationCache.invalidateAll()
+
+        // clear route verification proofs
+        proofCache.invalidateAll()
+
+        // clear decision cache
+        invalidateDecisions()
+    }
+
+    /** Invalidates all cached decisions by publishing the active policy as a new epoch. */
+    private fun invalidateDecisions() {
+        epochs.swap { version, previous -> PolicyEpoch(version, previous.theory, previous.preparedPolicy) }
+        decisionCache.invalidateAll()
+    }
+
+    /**
+     * Removes the cache entries of a retired epoch, which may have been added by its last readers
+     * after the caches were invalidated by the swap.
+     *
+     * Epochs are retired by the thread releasing the last reference, usually a routing thread, so
+     * the caches are scanned in the background. The entries can never be hit again, as they are
+     * keyed by the version of the epoch, they only take up space until they are evicted.
+     */
+    private fun retire(epoch: PolicyEpoch) {
+        val version = epoch.version
+        warmUpExecutor.execute {
+            transformationCache.asMap().keys.removeIf { it.version == version }
+            decisionCache.asMap().keys.removeIf { it.version == version }
+        }
+    }
+
+    override fun getDecisionCacheStats(): DecisionCacheStats {
+        val stats = decisionCache.stats()
+        val result = DecisionCacheStats()
+        result.hits = stats.hitCount()
+        result.misses = stats.missCount()
+        result.evictions = stats.evictionCount()
+        result.size = decisionCache.size()
+        result.policyVersion = epochs.current.version
+        return result
+    }
+
+    override fun getDecisionMetrics(): DecisionMetrics {
+        val decisionStats = decisionCache.stats()
+        val transformationStats = transformationCache.stats()
+        val result = DecisionMetrics()
+        result.decisionCacheHits = decisionStats.hitCount()
+        result.decisionCacheMisses = decisionStats.missCount()
+        result.transformationCacheHits = transformationStats.hitCount() + transformationTableHits.sum()
+        result.transformationCacheMisses = transformationStats.missCount() + transformationTableMisses.sum()
+        result.budgetExceeded = budgetExceeded.sum()
+        result.latencies = decisionLatencies.entries
+                .sortedWith(compareBy({ it.key.endpoint }, { it.key.outcome }))
+                .map { (key, histogram) ->
+                    val latency = DecisionLatency()
+                    latency.endpoint = key.endpoint
+                    latency.outcome = key.outcome
+                    latency.count = histogram.count
+                    latency.meanNanos = histogram.meanNanos
+                    latency.p50Nanos = histogram.percentile(50.0)
+                    latency.p90Nanos = histogram.percentile(90.0)
+                    latency.p99Nanos = histogram.percentile(99.0)
+                    latency.maxNanos = histogram.maxNanos
+                    latency
+                }
+        return result
+    }
+
+    override fun resetDecisionMetrics() {
+        decisionLatencies.clear()
     }
 
     override fun loadPolicy(theory: String?) {
-        // Load policy into engine, possibly overwriting the existing one.
-        this.engine.loadPolicy(theory ?: "")
-        LuconEngine.setDefaultPolicy(theory ?: "")
+        // Parse policy once, engines of all threads will load it before their next query
+        loadTheory(LuconTheory.parse(theory ?: ""))
+    }
+
+    /** Publishes a parsed policy as the active policy. */
+    private fun loadTheory(parsedTheory: LuconTheory) {
+        // Labels of the policy get the lowest bit indices of label sets
+        LabelRegistry.registerAll(parsedTheory.labels)
+        // Prepare policy for decisions without tuProlog, if possible
+        val preparedPolicy = decisionEngine.prepare(parsedTheory)
+        // Load policy into this thread's (or a free pooled) engine before publishing it, other
+        // engines load it before their next query
+        val pool = enginePool
+        if (pool != null) {
+            pool.tryWithEngine { it.syncTheory(parsedTheory) }
+        } else {
+            threadEngine.get().syncTheory(parsedTheory)
+        }
+        // The swap itself only publishes the prepared epoch
+        epochs.swap { version, _ -> PolicyEpoch(version, parsedTheory, preparedPolicy) }
+        // Decisions of in-flight readers of the previous epoch are removed when it is retired
+        transformationCache.invalidateAll()
+        decisionCache.invalidateAll()
+        if (warmCachesOnLoad) {
+            warmCaches((0 until EndpointRegistry.size()).mapNotNull { EndpointRegistry.getEndpoint(it) }
+                    .map { ServiceNode.register(it) })
+        }
+    }
+
+    override fun warmCaches(nodes: Collection<ServiceNode>) {
+        if (nodes.isEmpty()) {
+            return
+        }
+        val snapshot = nodes.distinct()
+        pendingWarmUps.incrementAndGet()
+        warmUpExecutor.execute {
+            epochs.withEpoch { epoch ->
+                val progress = CacheWarmUp(snapshot.size, epoch.version)
+                warmUp = progress
+                pendingWarmUps.decrementAndGet()
+                try {
+                    warmCaches(epoch, snapshot, progress)
+                } catch (e: Exception) {
+                    LOG.error("Error while warming caches", e)
+                    progress.finish(true)
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests the transformations of all nodes, then the decisions for all nodes and all label sets
+     * reachable from unlabeled messages. Stops as soon as another epoch has been published, as its
+     * caches are empty again.
+     */
+    private fun warmCaches(epoch: PolicyEpoch, nodes: List<ServiceNode>, progress: CacheWarmUp) {
+        LOG.debug("Warming caches of policy {} for {} endpoints", epoch.version, nodes.size)
+
+        val transformations = ArrayList<TransformationDecision>(nodes.size)
+        for (node in nodes) {
+            if (epochs.current !== epoch) {
+                progress.finish(true)
+                return
+            }
+            transformations.add(requestTransformations(epoch, node))
+            progress.completed.incrementAndGet()
+        }
+
+        // Breadth-first closure of the empty label set under all transformations, bounded
+        val maxLabelSets = Integer.getInteger(WARM_UP_MAX_LABEL_SETS_PROPERTY, DEFAULT_WARM_UP_MAX_LABEL_SETS)
+        val effective = transformations.filter { it.labelsToAdd.isNotEmpty() || it.labelsToRemove.isNotEmpty() }
+        val labelSets = LinkedHashSet<LabelSet>()
+        labelSets.add(LabelSet.EMPTY)
+        val queue = ArrayDeque<LabelSet>(labelSets)
+        while (queue.isNotEmpty() && labelSets.size < maxLabelSets) {
+            val labels = queue.poll()
+            for (transformation in effective) {
+                val next = transformation.apply(labels)
+                if (labelSets.size < maxLabelSets && labelSets.add(next)) {
+                    queue.add(next)
+                }
+            }
+        }
+        progress.labelSets = labelSets.size
+        progress.total.addAndGet(nodes.size.toLong() * labelSets.size)
+
+        for (node in nodes) {
+            for (labels in labelSets) {
+                if (epochs.current !== epoch) {
+                    progress.finish(true)
+                    return
+                }
+                requestDecision(epoch, DecisionRequest(node, node, mapOf(PDP.LABELS_KEY to labels), null))
+                progress.completed.incrementAndGet()
+            }
+        }
+        progress.finish(false)
+        LOG.info("Warmed caches of policy {} for {} endpoints and {} label sets in {} ms", epoch.version,
+                nodes.size, labelSets.size, progress.snapshot(0).durationMillis)
+    }
+
+    override fun getCacheWarmUpProgress(): CacheWarmUpProgress = warmUp.snapshot(pendingWarmUps.get())
+
+    override fun getPolicyVersion(): Long {
+        return epochs.current.version
     }
 
     override fun listRules(): List<String> {
         return try {
-            val rules = this.engine.query("rule(X).", true)
+            val rules = withEngine { it.query("rule(X).", true) }
             rules.map { it.getVarValue("X").toString() }.toList()
         } catch (e: PrologException) {
             LOG.error("Prolog error while retrieving rules " + e.message, e)
@@ -373,7 +893,7 @@ class PolicyDecisionPoint : PDP, PAP {
     }
 
     override fun getPolicy(): String {
-        return this.engine.theory
+        return withEngine { it.theory }
     }
 
     override fun verifyRoute(routeId: String): RouteVerificationProof? {
@@ -383,16 +903,116 @@ class PolicyDecisionPoint : PDP, PAP {
             return null
         }
 
-        val routePl = rm.getRouteAsProlog(routeId)
+        return verifyRoute(routeId, rm.getRouteAsProlog(routeId))
+    }
+
+    override fun verifyRoutes(routeIds: List<String>): Map<String, RouteVerificationProof> {
+        val rm = this.routeManager
+        if (rm == null) {
+            LOG.warn("No RouteManager. Cannot verify Camel routes $routeIds")
+            return emptyMap()
+        }
 
-        return engine.proofInvalidRoute(routeId, routePl)
+        val proofs = routeIds.distinct().map { routeId ->
+            routeId to verificationExecutor.submit(Callable { verifyRoute(routeId, rm.getRouteAsProlog(routeId)) })
+        }
+        val result = LinkedHashMap<String, RouteVerificationProof>()
+        for ((routeId, proof) in proofs) {
+            try {
+                result[routeId] = proof.get()
+            } catch (e: ExecutionException) {
+                LOG.error("Error while verifying Camel route $routeId", e.cause)
+            }
+        }
+        return result
+    }
+
+    private fun verifyRoute(routeId: String, routePl: String): RouteVerificationProof = epochs.withEpoch { epoch ->
+        val key = ProofCacheKey(routeId, routePl, epoch.theory.version)
+        val maxCount = maxCounterExamples
+        proofCache.getIfPresent(key) ?: withVerificationEngine(epoch) {
+            it.proofInvalidRoute(routeId, routePl, maxCount, verificationTimeoutMillis)
+        }.also {
+            // Invalid proofs without counterexamples are the result of errors and are not cached,
+            // neither are proofs truncated by the timeout, which depend on the load of the system
+            if (it.isValid || it.counterExamples.isNotEmpty()
+                    && (!it.isTruncated || it.counterExamples.size >= maxCount)) {
+                proofCache.put(key, it)
+            }
+        }
     }
 
     companion object {
         private val LOG = LoggerFactory.getLogger(PolicyDecisionPoint::class.java)
-        private const val LUCON_FILE_EXTENSION = ".pl"
 
-        // Each thread creates a LuconEngine instance to prevent concurrency issues
-        val threadEngine: ThreadLocal<LuconEngine> = ThreadLocal.withInitial { LuconEngine(System.out) }
+        /** Creates a pool of daemon threads that terminate when idle. */
+        private fun daemonExecutor(namePrefix: String, threads: Int): ExecutorService {
+            val threadCount = AtomicInteger()
+            val executor = ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(),
+                    ThreadFactory {
+                        val t = Thread(it, namePrefix + threadCount.incrementAndGet())
+                        t.isDaemon = true
+                        t
+                    })
+            executor.allowCoreThreadTimeOut(true)
+            return executor
+        }
+        /** Time the deploy directory must be quiet before changed policy modules are reloaded */
+        private const val POLICY_WATCH_DEBOUNCE = 500L
+
+        /** Goal to retrieve policy decisions for a target endpoint and the labels of an exchange */
+        private val DECISION_GOAL = PreparedGoal(
+                "rule(X), has_target(X, T), has_endpoint(T, EP), regex_match(EP, Endpoint), " +
+                        // Evaluate receives_label(X) against the labels list, the knowledge base is not modified
+                        "receives_label(X, Labels), rule_priority(X, P), " +
+                        "(has_decision(X, D) ; (has_obligation(X, _O), has_alternativedecision(_O, Alt), " +
+                        "requires_prerequisite(_O, A)))",
+                "Endpoint", "Labels")
+
+        /** Goal to retrieve the labels to add and to remove for a target endpoint */
+        private val TRANSFORMATION_GOAL = PreparedGoal(
+                "once(setof(S, action_service(Endpoint, S), SC) ; SC = []), " +
+                        "collect_creates_labels(SC, ACraw), set_of(ACraw, Adds), " +
+                        "collect_removes_labels(SC, RCraw), set_of(RCraw, Removes)",
+                "Endpoint")
+
+        /** System property for the number of pooled LuconEngines, one engine per thread if not set */
+        const val ENGINE_POOL_SIZE_PROPERTY = "ids.pdp.enginePoolSize"
+        /** System property for the maximum time in milliseconds to wait for a pooled LuconEngine */
+        const val ENGINE_POOL_MAX_WAIT_PROPERTY = "ids.pdp.enginePoolMaxWait"
+        private const val DEFAULT_ENGINE_POOL_MAX_WAIT = 5000L
+        /** System property for the number of threads verifying routes, number of processors if not set */
+        const val VERIFICATION_THREADS_PROPERTY = "ids.pdp.verificationThreads"
+        /** System property selecting the decision engine by name (prolog, compiled or datalog) */
+        const val DECISION_ENGINE_PROPERTY = "ids.pdp.decisionEngine"
+        /** System property for the maximum time in milliseconds of a decision query, 0 for no limit */
+        const val QUERY_TIMEOUT_PROPERTY = "ids.pdp.queryTimeout"
+        private const val DEFAULT_QUERY_TIMEOUT = 2000L
+        /** System property for the maximum number of solutions of a decision query, 0 for no limit */
+        const val QUERY_MAX_SOLUTIONS_PROPERTY = "ids.pdp.queryMaxSolutions"
+        private const val DEFAULT_QUERY_MAX_SOLUTIONS = 100000
+        /** System property for the decision taken if the query budget is exceeded (ALLOW or DENY) */
+        const val BUDGET_FALLBACK_DECISION_PROPERTY = "ids.pdp.budgetFallbackDecision"
+        /** System property for the maximum number of counterexamples of a route verification proof */
+        const val MAX_COUNTER_EXAMPLES_PROPERTY = "ids.pdp.maxCounterExamples"
+        private const val DEFAULT_MAX_COUNTER_EXAMPLES = 100
+        /** System property for the maximum time in milliseconds for verifying a route */
+        const val VERIFICATION_TIMEOUT_PROPERTY = "ids.pdp.verificationTimeout"
+        private const val DEFAULT_VERIFICATION_TIMEOUT = 10000L
+        /** System property disabling cache warm-up at policy load, enabled if not set */
+        const val WARM_CACHES_PROPERTY = "ids.pdp.warmCaches"
+        /** System property for the maximum number of label sets decisions are warmed for */
+        const val WARM_UP_MAX_LABEL_SETS_PROPERTY = "ids.pdp.warmUpMaxLabelSets"
+        private const val DEFAULT_WARM_UP_MAX_LABEL_SETS = 64
+        /** Maximum number of latency histograms, i.e. of distinct endpoints and outcomes */
+        const val MAX_LATENCY_HISTOGRAMS = 1000
+        /** Endpoint of the latency histograms aggregating endpoints beyond the maximum */
+        const val OTHER_ENDPOINTS = "*"
+        /** Outcome of decisions that failed with an error */
+        const val ERROR_OUTCOME = "ERROR"
+        /** Outcome of decisions whose evaluation exceeded the query budget */
+        const val BUDGET_EXCEEDED_OUTCOME = "BUDGET_EXCEEDED"
+        /** Reason of the fallback decision taken if the query budget is exceeded */
+        const val BUDGET_EXCEEDED_REASON = "evaluation budget exceeded"
     }
 }
@@ -0,0 +1,40 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol;
+
+import de.fhg.aisec.ids.api.policy.CacheWarmUpProgress;
+import de.fhg.aisec.ids.api.policy.DecisionCacheStats;
+import de.fhg.aisec.ids.api.policy.DecisionMetrics;
+
+/** JMX management interface of the {@link PolicyDecisionPoint}. */
+public interface PolicyDecisionPointMXBean {
+  String OBJECT_NAME = "de.fhg.aisec.ids:type=PolicyDecisionPoint";
+
+  DecisionMetrics getDecisionMetrics();
+
+  DecisionCacheStats getDecisionCacheStats();
+
+  long getPolicyVersion();
+
+  CacheWarmUpProgress getCacheWarmUpProgress();
+
+  /** Discards all recorded decision latencies. */
+  void resetDecisionMetrics();
+}
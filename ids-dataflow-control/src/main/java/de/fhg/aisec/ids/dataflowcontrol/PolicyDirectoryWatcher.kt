@@ -0,0 +1,101 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol
+
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.io.IOException
+import java.nio.file.ClosedWatchServiceException
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Watches a directory and reports the names of created, modified and deleted files.
+ *
+ * Events are collected until the directory has been quiet for [debounceMillis], so a file that is
+ * written in several steps is reported once. The listener is called on the watcher's own daemon
+ * thread.
+ *
+ * @param dir The directory to watch
+ * @param debounceMillis Time without further events before changes are reported
+ * @param listener Receives the names of the changed files, or null if events have been lost and
+ *     the whole directory must be read again
+ */
+class PolicyDirectoryWatcher(
+        private val dir: Path,
+        private val debounceMillis: Long,
+        private val listener: (Set<String>?) -> Unit) : Closeable {
+    private val watchService: WatchService = FileSystems.getDefault().newWatchService()
+    private val thread = Thread(this::run, "lucon-policy-watcher")
+
+    init {
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE)
+        thread.isDaemon = true
+        thread.start()
+        LOG.info("Watching {} for policy changes", dir)
+    }
+
+    private fun run() {
+        try {
+            while (true) {
+                var key = watchService.take()
+                val changed = HashSet<String>()
+                var overflow = false
+                while (key != null) {
+                    for (event in key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true
+                        } else {
+                            changed.add((event.context() as Path).toString())
+                        }
+                    }
+                    key.reset()
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)
+                }
+                try {
+                    listener(if (overflow) null else changed)
+                } catch (e: RuntimeException) {
+                    LOG.error("Error while processing changes of $dir", e)
+                }
+            }
+        } catch (e: InterruptedException) {
+            // closed
+        } catch (e: ClosedWatchServiceException) {
+            // closed
+        }
+    }
+
+    override fun close() {
+        try {
+            watchService.close()
+        } catch (e: IOException) {
+            LOG.debug("Error closing watch service of {}: {}", dir, e.message)
+        }
+        thread.interrupt()
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(PolicyDirectoryWatcher::class.java)
+    }
+}
@@ -0,0 +1,181 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Term
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheLoader
+import de.fhg.aisec.ids.api.policy.EndpointRegistry
+import java.util.concurrent.ConcurrentHashMap
+import java.util.regex.Pattern
+
+/**
+ * Immutable decision index of a policy, created by [LuconPolicyCompiler].
+ *
+ * Targets are kept in the order in which tuProlog would enumerate them, so the solutions returned
+ * by [solutions] are identical to the solutions of the Prolog decision query.
+ */
+class CompiledPolicy internal constructor(private val targets: List<CompiledTarget>) : PreparedPolicy {
+
+    private val endpointIndex = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build(object : CacheLoader<String, List<CompiledTarget>>() {
+                override fun load(endpoint: String): List<CompiledTarget> {
+                    return targets.filter { it.pattern.matcher(endpoint).matches() }
+                }
+            })
+
+    /** Matching targets of registered endpoints, looked up by endpoint id */
+    private val endpointIdIndex = EndpointTable<List<CompiledTarget>>()
+
+    /**
+     * Computes the decision query solutions for a target endpoint and a set of labels.
+     *
+     * @param endpoint The target endpoint
+     * @param labels The labels of the message
+     * @return The solutions or null, if the labels cannot be evaluated by the compiled policy
+     */
+    fun solutions(endpoint: String, labels: Set<String>): List<DecisionSolution>? =
+            solutions(EndpointRegistry.NO_ID, endpoint, labels)
+
+    /**
+     * Computes the decision query solutions for a target endpoint and a set of labels.
+     *
+     * @param endpointId The id of the target endpoint, or [EndpointRegistry.NO_ID]
+     * @param endpoint The target endpoint
+     * @param labels The labels of the message
+     * @return The solutions or null, if the labels cannot be evaluated by the compiled policy
+     */
+    override fun solutions(endpointId: Int, endpoint: String, labels: Set<String>): List<DecisionSolution>? {
+        val matchingTargets = matchingTargets(endpointId, endpoint)
+        if (matchingTargets.isEmpty()) {
+            return emptyList()
+        }
+        val canonicalLabels = canonicalize(labels) ?: return null
+        val result = ArrayList<DecisionSolution>()
+        for (target in matchingTargets) {
+            val count = target.condition.solutions(canonicalLabels)
+            for (i in 0 until count) {
+                result.addAll(target.solutions)
+            }
+        }
+        return result
+    }
+
+    override fun isLabelIndependent(endpointId: Int, endpoint: String) =
+            matchingTargets(endpointId, endpoint).all { it.condition.isConstant }
+
+    private fun matchingTargets(endpointId: Int, endpoint: String): List<CompiledTarget> =
+            if (endpointId != EndpointRegistry.NO_ID) {
+                endpointIdIndex.getOrPut(endpointId) { endpointIndex.getUnchecked(endpoint) }
+            } else {
+                endpointIndex.getUnchecked(endpoint)
+            }
+
+    companion object {
+        private val canonicalLabelCache = ConcurrentHashMap<String, String>()
+        private const val NOT_CANONICAL = ""
+        private const val MAX_CANONICAL_LABELS = 10000
+
+        /**
+         * Transforms labels to the representation tuProlog uses when they are asserted as label/1
+         * facts. Returns null if any label does not round-trip to a unique ground term.
+         */
+        private fun canonicalize(labels: Set<String>): Set<String>? {
+            if (labels.isEmpty()) {
+                return labels
+            }
+            val result = HashSet<String>(labels.size * 2)
+            for (label in labels) {
+                val canonical = canonicalLabelCache[label] ?: canonicalize(label).also {
+                    if (canonicalLabelCache.size >= MAX_CANONICAL_LABELS) {
+                        canonicalLabelCache.clear()
+                    }
+                    canonicalLabelCache[label] = it
+                }
+                if (canonical == NOT_CANONICAL || !result.add(canonical)) {
+                    return null
+                }
+            }
+            return result
+        }
+
+        private fun canonicalize(label: String): String {
+            return try {
+                val term = Term.createTerm(label)
+                if (term.isGround) term.toString() else NOT_CANONICAL
+            } catch (e: Exception) {
+                NOT_CANONICAL
+            }
+        }
+    }
+}
+
+/** A (rule, service endpoint) combination of a compiled policy. */
+internal class CompiledTarget(
+        val rule: String,
+        val pattern: Pattern,
+        val condition: LabelCondition,
+        val solutions: List<DecisionSolution>)
+
+/**
+ * Compiled body of receives_label/1 clauses. Evaluation returns the number of Prolog solutions the
+ * body would have for the given labels.
+ */
+internal sealed class LabelCondition {
+    abstract fun solutions(labels: Set<String>): Int
+
+    /** Whether the number of solutions is the same for all labels */
+    abstract val isConstant: Boolean
+
+    object TRUE : LabelCondition() {
+        override fun solutions(labels: Set<String>) = 1
+        override val isConstant = true
+    }
+
+    object FALSE : LabelCondition() {
+        override fun solutions(labels: Set<String>) = 0
+        override val isConstant = true
+    }
+
+    class Label(private val label: String) : LabelCondition() {
+        override fun solutions(labels: Set<String>) = if (labels.contains(label)) 1 else 0
+        override val isConstant = false
+    }
+
+    class And(private val left: LabelCondition, private val right: LabelCondition) : LabelCondition() {
+        override fun solutions(labels: Set<String>): Int {
+            val l = left.solutions(labels)
+            return if (l == 0) 0 else l * right.solutions(labels)
+        }
+
+        override val isConstant = left.isConstant && right.isConstant
+    }
+
+    class Or(private val conditions: List<LabelCondition>) : LabelCondition() {
+        override fun solutions(labels: Set<String>) = conditions.sumBy { it.solutions(labels) }
+        override val isConstant = conditions.all { it.isConstant }
+    }
+
+    class Not(private val condition: LabelCondition) : LabelCondition() {
+        override fun solutions(labels: Set<String>) = if (condition.solutions(labels) == 0) 1 else 0
+        override val isConstant = condition.isConstant
+    }
+}
@@ -0,0 +1,313 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import alice.tuprolog.Var
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheLoader
+import de.fhg.aisec.ids.api.policy.TransformationDecision
+import org.slf4j.LoggerFactory
+import java.util.ArrayDeque
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Decision engine materializing the decision-relevant relations of a policy bottom-up.
+ *
+ * In contrast to [LuconPolicyCompiler], rule/1, has_target/2, has_endpoint/2 and the other
+ * predicates of the decision and transformation queries may be defined by rules, including
+ * recursive rules and stratified negation, as long as they form a Datalog program: arguments are
+ * variables or ground terms, and bodies consist of user-defined predicates, negations of those and
+ * comparisons. The policy parts of receives_label/1 bodies are evaluated the same way, their
+ * label/1 goals are compiled into label conditions per rule.
+ *
+ * Policies outside of this fragment are left to tuProlog.
+ */
+object DatalogEngine : DecisionEngine {
+    private val LOG = LoggerFactory.getLogger(DatalogEngine::class.java)
+
+    override val name = "datalog"
+
+    /** Predicates read by the decision and transformation queries */
+    private val QUERY_PREDICATES = listOf("rule/1", "has_target/2", "has_endpoint/2", "rule_priority/2",
+            "has_decision/2", "has_obligation/2", "has_alternativedecision/2", "requires_prerequisite/2",
+            "creates_label/2", "removes_label/2")
+
+    override fun prepare(theory: LuconTheory): PreparedPolicy? {
+        if (theory.hasDirectives) {
+            LOG.info("Policy contains directives, decisions will be taken by tuProlog")
+            return null
+        }
+        return try {
+            materialize(theory.clauses)
+        } catch (e: NotDatalogException) {
+            LOG.info("Policy is not a Datalog program, decisions will be taken by tuProlog: {}", e.message)
+            null
+        }
+    }
+
+    private fun materialize(clauses: List<Struct>): DatalogPolicy {
+        val constants = HashMap<String, Term>()
+        val rulesByPredicate = LinkedHashMap<String, MutableList<Rule>>()
+        // Reasons why predicates cannot be evaluated, only relevant if the queries depend on them
+        val unsupported = HashMap<String, String>()
+        val labelClauses = ArrayList<LabelClause>()
+
+        for (clause in clauses) {
+            val head: Struct
+            val body: Term
+            if (clause.name == ":-" && clause.arity == 2) {
+                head = clause.getTerm(0) as? Struct ?: throw NotDatalogException("Invalid clause $clause")
+                body = clause.getTerm(1)
+            } else {
+                head = clause
+                body = Term.TRUE
+            }
+            val indicator = head.name + "/" + head.arity
+            val predicateRules = rulesByPredicate.getOrPut(indicator) { ArrayList() }
+            when (indicator) {
+                "receives_label/1" -> labelClauses.add(LabelClause.translate(head, body, constants))
+                "label/1" -> throw NotDatalogException("Static label/1 clause $clause")
+                else -> try {
+                    predicateRules.addAll(ClauseTranslator(constants).rules(head, body))
+                } catch (e: NotDatalogException) {
+                    unsupported.putIfAbsent(indicator, e.message ?: indicator)
+                }
+            }
+        }
+
+        // Only evaluate the predicates the queries depend on
+        val required = LinkedHashSet<String>()
+        val pending = ArrayDeque<String>(QUERY_PREDICATES)
+        labelClauses.flatMap { it.conjunctions }.forEach { r -> pending.addAll(r.body.mapNotNull { predicate(it) }) }
+        while (pending.isNotEmpty()) {
+            val predicate = pending.removeFirst()
+            if (!required.add(predicate)) {
+                continue
+            }
+            unsupported[predicate]?.let { throw NotDatalogException(it) }
+            val rules = rulesByPredicate[predicate]
+            if (rules == null && !QUERY_PREDICATES.contains(predicate)) {
+                throw NotDatalogException("Undefined or built-in predicate $predicate")
+            }
+            rules?.forEach { r -> pending.addAll(r.body.mapNotNull { predicate(it) }) }
+        }
+        val model = DatalogProgram(required.flatMap { rulesByPredicate[it] ?: emptyList<Rule>() }).evaluate()
+
+        // Instantiate receives_label/1 clauses for each solution of their policy goals
+        val labelConditions = HashMap<String, MutableList<LabelCondition>>()
+        for (labelClause in labelClauses) {
+            for (conjunction in labelClause.conjunctions) {
+                model.solve(conjunction, -1, null) { binding ->
+                    val rule = labelClause.instantiate(labelClause.rule, binding, constants).toString()
+                    val goals = labelClause.labelGoals.map {
+                        LuconPolicyCompiler.compileLabelCondition(labelClause.instantiate(it, binding, constants))
+                                ?: throw NotDatalogException("Unsupported label goal $it")
+                    }
+                    val condition = if (goals.isEmpty()) {
+                        LabelCondition.TRUE
+                    } else {
+                        goals.reduce<LabelCondition, LabelCondition> { l, r -> LabelCondition.And(l, r) }
+                    }
+                    labelConditions.getOrPut(rule) { ArrayList() }.add(condition)
+                }
+            }
+        }
+
+        // Evaluate the decision query as far as it is independent of endpoint and labels
+        val patterns = HashMap<String, Pattern?>()
+        fun endpointPattern(endpoint: String) = patterns.getOrPut(endpoint) {
+            // regex_match/2 fails for complex terms, so such endpoints will never match
+            if (LuconLibrary.isComplex(constants[endpoint]!!)) {
+                null
+            } else {
+                try {
+                    PatternCache.get(TuPrologHelper.unquote(endpoint))
+                } catch (e: PatternSyntaxException) {
+                    throw NotDatalogException("Invalid endpoint regex $endpoint")
+                }
+            }
+        }
+        // Enumerate the rules in the order of the rule/1 clauses deriving them, as tuProlog does,
+        // instead of the derivation order, since the reason of a decision is the last deciding rule
+        val ruleOrder = HashMap<String, Int>()
+        for (ruleClause in rulesByPredicate["rule/1"] ?: emptyList<Rule>()) {
+            model.solve(ruleClause, -1, null) { binding ->
+                val arg = ruleClause.head.args[0]
+                val rule = arg.constant ?: binding[arg.variable]
+                if (rule != null) {
+                    ruleOrder.putIfAbsent(rule, ruleOrder.size)
+                }
+            }
+        }
+        val rules = model.tuples("rule/1").map { it[0] }.sortedBy { ruleOrder[it] ?: Int.MAX_VALUE }
+        val targets = ArrayList<CompiledTarget>()
+        for (rule in rules) {
+            val conditions = labelConditions[rule] ?: continue
+            val priorities = model.lookup("rule_priority/2", 0, rule)
+            val outcomes = ArrayList<Outcome>()
+            for ((_, decision) in model.lookup("has_decision/2", 0, rule)) {
+                outcomes.add(Outcome(decision, null, null))
+            }
+            for ((_, obligation) in model.lookup("has_obligation/2", 0, rule)) {
+                for ((_, alternative) in model.lookup("has_alternativedecision/2", 0, obligation)) {
+                    for ((_, action) in model.lookup("requires_prerequisite/2", 0, obligation)) {
+                        outcomes.add(Outcome(null, action, alternative))
+                    }
+                }
+            }
+            if (priorities.isEmpty() || outcomes.isEmpty()) {
+                continue
+            }
+            val solutions = priorities.flatMap { (_, p) ->
+                outcomes.map { DecisionSolution(rule, p, it.decision, it.action, it.alternativeDecision) }
+            }
+            val condition = LabelCondition.Or(conditions)
+            for ((_, target) in model.lookup("has_target/2", 0, rule)) {
+                for ((_, endpoint) in model.lookup("has_endpoint/2", 0, target)) {
+                    val pattern = endpointPattern(endpoint) ?: continue
+                    targets.add(CompiledTarget(rule, pattern, condition, solutions))
+                }
+            }
+        }
+
+        // Services and their label transformations
+        val services = model.tuples("has_endpoint/2").mapNotNull { (service, endpoint) ->
+            endpointPattern(endpoint)?.let { ServiceEndpoint(service, it) }
+        }
+        val creates = model.tuples("creates_label/2").groupBy({ it[0] }, { it[1] })
+        val removes = model.tuples("removes_label/2").groupBy({ it[0] }, { it[1] })
+        LOG.debug("Materialized policy into {} decision targets and {} service endpoints", targets.size, services.size)
+        return DatalogPolicy(CompiledPolicy(targets), services, creates, removes)
+    }
+
+    private fun predicate(literal: Literal) = when (literal) {
+        is Literal.Positive -> literal.atom.predicate
+        is Literal.Negative -> literal.atom.predicate
+        is Literal.Comparison -> null
+    }
+
+    /**
+     * A receives_label/1 clause, split into the goals on policy predicates, in disjunctive normal
+     * form, and the label/1 goals, which are evaluated against the labels of a message.
+     */
+    private class LabelClause(
+            private val translator: ClauseTranslator,
+            val rule: Term,
+            val conjunctions: List<Rule>,
+            val labelGoals: List<Term>) {
+
+        /** Replaces the variables of a term of this clause by their values in a binding. */
+        fun instantiate(t: Term, binding: Array<String?>, constants: Map<String, Term>): Term {
+            val term = t.term
+            return when {
+                term is Var -> {
+                    val value = translator.variableIndex(term)?.let { binding[it] }
+                            ?: throw NotDatalogException("Unbound variable $term in receives_label/1 clause")
+                    constants[value]!!
+                }
+                term is Struct && !term.isGround ->
+                    Struct(term.name, Array(term.arity) { instantiate(term.getTerm(it), binding, constants) })
+                else -> term
+            }
+        }
+
+        companion object {
+            fun translate(head: Struct, body: Term, constants: MutableMap<String, Term>): LabelClause {
+                val translator = ClauseTranslator(constants)
+                val goals = ArrayList<Term>()
+                flatten(body, goals)
+                val (labelGoals, policyGoals) = goals.partition { isLabelGoal(it) }
+                val policyBody = if (policyGoals.isEmpty()) {
+                    Term.TRUE
+                } else {
+                    policyGoals.reduce { l, r -> Struct(",", l, r) }
+                }
+                // Variables of the head must be bound by the policy goals
+                val headAtom = Atom("receives_label/1", listOf(translator.arg(head.getTerm(0))))
+                val conjunctions = translator.body(policyBody).map { translator.plan(headAtom, it) }
+                return LabelClause(translator, head.getTerm(0), conjunctions, labelGoals)
+            }
+
+            private fun flatten(t: Term, goals: MutableList<Term>) {
+                val term = t.term
+                if (term is Struct && term.name == "," && term.arity == 2) {
+                    flatten(term.getTerm(0), goals)
+                    flatten(term.getTerm(1), goals)
+                } else {
+                    goals.add(term)
+                }
+            }
+
+            /** Whether a goal only depends on the labels of the message */
+            private fun isLabelGoal(t: Term): Boolean {
+                val term = t.term as? Struct ?: return false
+                return when {
+                    term.name == "label" && term.arity == 1 -> true
+                    term.arity == 0 -> term.name == "true" || term.name == "fail" || term.name == "false"
+                    (term.name == "," || term.name == ";") && term.arity == 2 ->
+                        isLabelGoal(term.getTerm(0)) && isLabelGoal(term.getTerm(1))
+                    (term.name == "\\+" || term.name == "not") && term.arity == 1 -> isLabelGoal(term.getTerm(0))
+                    else -> false
+                }
+            }
+        }
+    }
+
+    private class Outcome(val decision: String?, val action: String?, val alternativeDecision: String?)
+
+    private class ServiceEndpoint(val service: String, val pattern: Pattern)
+
+    /**
+     * Policy materialized by the [DatalogEngine]. Decisions are taken by a decision index over the
+     * materialized targets, transformations are computed from the materialized services once per
+     * endpoint.
+     */
+    private class DatalogPolicy(
+            private val decisions: CompiledPolicy,
+            private val services: List<ServiceEndpoint>,
+            private val creates: Map<String, List<String>>,
+            private val removes: Map<String, List<String>>) : PreparedPolicy {
+
+        private val transformations = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .build(object : CacheLoader<String, TransformationDecision>() {
+                    override fun load(endpoint: String): TransformationDecision {
+                        val result = TransformationDecision()
+                        services.filter { it.pattern.matcher(endpoint).matches() }.map { it.service }.distinct()
+                                .forEach { service ->
+                                    creates[service]?.let { result.labelsToAdd.addAll(it) }
+                                    removes[service]?.let { result.labelsToRemove.addAll(it) }
+                                }
+                        return result
+                    }
+                })
+
+        override fun solutions(endpointId: Int, endpoint: String, labels: Set<String>) =
+                decisions.solutions(endpointId, endpoint, labels)
+
+        override fun transformation(endpoint: String): TransformationDecision = transformations.getUnchecked(endpoint)
+
+        override fun isLabelIndependent(endpointId: Int, endpoint: String) =
+                decisions.isLabelIndependent(endpointId, endpoint)
+    }
+}
@@ -0,0 +1,461 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import alice.tuprolog.Var
+import java.util.*
+
+/** Thrown if a clause is not within the Datalog subset evaluated by [DatalogProgram]. */
+internal class NotDatalogException(message: String) : Exception(message)
+
+/**
+ * Argument of an atom, either a constant (a ground term in its canonical text form) or a variable,
+ * identified by its index within the rule.
+ */
+internal class Arg private constructor(val variable: Int, val constant: String?) {
+    val isVariable: Boolean
+        get() = constant == null
+
+    override fun toString() = constant ?: "_V$variable"
+
+    companion object {
+        fun variable(index: Int) = Arg(index, null)
+        fun constant(value: String) = Arg(-1, value)
+    }
+}
+
+/** An atom p(a1, ..., an). Predicates are identified by their indicator name/arity. */
+internal class Atom(val predicate: String, val args: List<Arg>) {
+    val variables: List<Int>
+        get() = args.filter { it.isVariable }.map { it.variable }
+
+    override fun toString() = predicate.substringBeforeLast('/') + args.joinToString(", ", "(", ")")
+}
+
+/** A literal of a rule body. */
+internal sealed class Literal {
+    class Positive(val atom: Atom) : Literal()
+
+    /** Negation as failure, the atom must be ground when it is evaluated */
+    class Negative(val atom: Atom) : Literal()
+
+    /** Comparison of two terms by one of the [COMPARISONS] operators */
+    class Comparison(val operator: String, val left: Arg, val right: Arg) : Literal()
+}
+
+/**
+ * A rule (or fact, if the body is empty) whose body literals have been ordered for evaluation:
+ * negations and comparisons are evaluated as soon as their variables are bound.
+ */
+internal class Rule(val head: Atom, val body: List<Literal>, val variableCount: Int)
+
+/** Comparison operators supported in rule bodies */
+internal val COMPARISONS = setOf("=", "\\=", "==", "\\==", "<", ">", "=<", ">=")
+
+/**
+ * Translates the clauses of a policy into Datalog rules. Variables are numbered per clause, so a
+ * translator must only be used for a single clause.
+ *
+ * @param constants Receives the term of each constant, by its canonical text form
+ */
+internal class ClauseTranslator(private val constants: MutableMap<String, Term>) {
+    private val variables = IdentityHashMap<Var, Int>()
+
+    val variableCount: Int
+        get() = variables.size
+
+    /**
+     * Translates a clause into one rule for each disjunct of its body.
+     *
+     * @param head The head of the clause
+     * @param body The body of the clause, true for facts
+     * @return The rules
+     */
+    fun rules(head: Struct, body: Term): List<Rule> {
+        val headAtom = atom(head)
+        return body(body).map { plan(headAtom, it) }
+    }
+
+    /**
+     * Orders the literals of a conjunction for evaluation and checks that the rule is safe, i.e.
+     * that all variables of the head, negations and comparisons are bound by positive literals.
+     */
+    fun plan(head: Atom, literals: List<Literal>): Rule {
+        val pending = literals.toMutableList()
+        val bound = HashSet<Int>()
+        val ordered = ArrayList<Literal>(literals.size)
+        while (pending.isNotEmpty()) {
+            val next = pending.firstOrNull { it !is Literal.Positive && isReady(it, bound) }
+                    ?: pending.firstOrNull { it is Literal.Positive }
+                    ?: throw NotDatalogException("Unsafe variables in body of $head")
+            pending.remove(next)
+            ordered.add(next)
+            when (next) {
+                is Literal.Positive -> bound.addAll(next.atom.variables)
+                is Literal.Comparison -> if (next.operator == "=") {
+                    listOf(next.left, next.right).filter { it.isVariable }.forEach { bound.add(it.variable) }
+                }
+            }
+        }
+        if (!bound.containsAll(head.variables)) {
+            throw NotDatalogException("Unsafe variables in head $head")
+        }
+        return Rule(head, ordered, variableCount)
+    }
+
+    private fun isReady(literal: Literal, bound: Set<Int>): Boolean {
+        fun isBound(arg: Arg) = !arg.isVariable || bound.contains(arg.variable)
+        return when (literal) {
+            is Literal.Negative -> literal.atom.args.all { isBound(it) }
+            is Literal.Comparison -> if (literal.operator == "=") {
+                isBound(literal.left) || isBound(literal.right)
+            } else {
+                isBound(literal.left) && isBound(literal.right)
+            }
+            is Literal.Positive -> true
+        }
+    }
+
+    fun arg(t: Term): Arg {
+        val term = t.term
+        if (term is Var) {
+            return Arg.variable(variables.getOrPut(term) { variables.size })
+        }
+        if (!term.isGround) {
+            throw NotDatalogException("Compound term with variables $term")
+        }
+        val constant = term.toString()
+        constants.putIfAbsent(constant, term)
+        return Arg.constant(constant)
+    }
+
+    fun atom(s: Struct) = Atom(s.name + "/" + s.arity, (0 until s.arity).map { arg(s.getTerm(it)) })
+
+    /** Returns the variable index of a term, or null if it is not a variable of this clause. */
+    fun variableIndex(t: Term): Int? = (t.term as? Var)?.let { variables[it] }
+
+    /**
+     * Translates a body into disjunctive normal form.
+     *
+     * @param t The body
+     * @return The conjunctions of the body, empty if it always fails
+     */
+    fun body(t: Term): List<List<Literal>> {
+        val term = t.term
+        if (term !is Struct) {
+            throw NotDatalogException("Unsupported goal $term")
+        }
+        return when {
+            term.name == "true" && term.arity == 0 -> listOf(emptyList())
+            (term.name == "fail" || term.name == "false") && term.arity == 0 -> emptyList()
+            term.name == "," && term.arity == 2 -> {
+                val right = body(term.getTerm(1))
+                body(term.getTerm(0)).flatMap { l -> right.map { r -> l + r } }
+            }
+            term.name == ";" && term.arity == 2 -> {
+                val left = term.getTerm(0).term
+                if (left is Struct && left.name == "->" && left.arity == 2) {
+                    throw NotDatalogException("If-then-else $term")
+                }
+                body(left) + body(term.getTerm(1))
+            }
+            (term.name == "\\+" || term.name == "not") && term.arity == 1 -> {
+                val goal = term.getTerm(0).term
+                if (goal !is Struct || !isAtom(goal)) {
+                    throw NotDatalogException("Negation of complex goal $term")
+                }
+                listOf(listOf(Literal.Negative(atom(goal))))
+            }
+            COMPARISONS.contains(term.name) && term.arity == 2 ->
+                listOf(listOf(Literal.Comparison(term.name, arg(term.getTerm(0)), arg(term.getTerm(1)))))
+            isAtom(term) -> listOf(listOf(Literal.Positive(atom(term))))
+            else -> throw NotDatalogException("Unsupported goal $term")
+        }
+    }
+
+    companion object {
+        private val CONTROL = setOf(",", ";", "->", "\\+", "not", "!", "call", "findall", "setof", "bagof",
+                "assert", "asserta", "assertz", "retract", "is")
+
+        /** Whether a goal may be a user-defined predicate, i.e. no control construct or comparison */
+        fun isAtom(goal: Struct) = !CONTROL.contains(goal.name) && !COMPARISONS.contains(goal.name)
+                && !(goal.arity == 0 && (goal.name == "true" || goal.name == "fail" || goal.name == "false"))
+    }
+}
+
+/**
+ * A set of Datalog rules with stratified negation, evaluated bottom-up.
+ *
+ * Predicates are evaluated strongly connected component by component, in dependency order, so
+ * negated predicates are complete before they are used. Within a component, rules are evaluated
+ * semi-naively: after the first round, only derivations using at least one tuple that is new in
+ * the previous round are computed, until no more tuples are derived.
+ *
+ * @param rules The rules, all predicates used in bodies must be defined by rules
+ */
+internal class DatalogProgram(private val rules: List<Rule>) {
+
+    /**
+     * Materializes all predicates of the program.
+     *
+     * @return The model, i.e. all derivable tuples
+     * @throws NotDatalogException If the program uses negation within a recursive component
+     */
+    fun evaluate(): DatalogModel {
+        val model = DatalogModel()
+        val rulesByHead = rules.groupBy { it.head.predicate }
+        for (component in components(rulesByHead)) {
+            val componentRules = component.flatMap { rulesByHead[it] ?: emptyList() }
+            for (rule in componentRules) {
+                rule.body.filterIsInstance<Literal.Negative>().firstOrNull { component.contains(it.atom.predicate) }
+                        ?.let { throw NotDatalogException("Negation of ${it.atom} is not stratified") }
+            }
+            evaluate(model, component, componentRules)
+        }
+        return model
+    }
+
+    private fun evaluate(model: DatalogModel, component: Set<String>, componentRules: List<Rule>) {
+        component.forEach { model.relation(it) }
+        // First round: all rules against the complete relations of lower components
+        var delta = HashMap<String, Relation>()
+        for (rule in componentRules) {
+            model.solve(rule, -1, null) { addNew(model, delta, rule.head, it) }
+        }
+        delta.forEach { (predicate, tuples) -> tuples.forEach { model.relation(predicate).add(it) } }
+        // Further rounds: only derivations with a tuple of the last round
+        val recursiveRules = componentRules.filter { r ->
+            r.body.any { it is Literal.Positive && component.contains(it.atom.predicate) }
+        }
+        while (delta.isNotEmpty()) {
+            val next = HashMap<String, Relation>()
+            for (rule in recursiveRules) {
+                rule.body.forEachIndexed { i, literal ->
+                    val tuples = if (literal is Literal.Positive) delta[literal.atom.predicate] else null
+                    if (tuples != null) {
+                        model.solve(rule, i, tuples) { addNew(model, next, rule.head, it) }
+                    }
+                }
+            }
+            next.forEach { (predicate, tuples) -> tuples.forEach { model.relation(predicate).add(it) } }
+            delta = next
+        }
+    }
+
+    private fun addNew(model: DatalogModel, delta: MutableMap<String, Relation>, head: Atom, binding: Array<String?>) {
+        val tuple = head.args.map { it.constant ?: binding[it.variable]!! }
+        if (!model.relation(head.predicate).contains(tuple)) {
+            delta.getOrPut(head.predicate) { Relation(head.args.size) }.add(tuple)
+        }
+    }
+
+    /** Strongly connected components of the predicate dependency graph, dependencies first (Tarjan). */
+    private fun components(rulesByHead: Map<String, List<Rule>>): List<Set<String>> {
+        val dependencies = rulesByHead.mapValues { (_, rules) ->
+            rules.flatMap { r ->
+                r.body.mapNotNull {
+                    when (it) {
+                        is Literal.Positive -> it.atom.predicate
+                        is Literal.Negative -> it.atom.predicate
+                        else -> null
+                    }
+                }
+            }.distinct()
+        }
+        val index = HashMap<String, Int>()
+        val lowLink = HashMap<String, Int>()
+        val stack = ArrayDeque<String>()
+        val onStack = HashSet<String>()
+        val result = ArrayList<Set<String>>()
+
+        fun connect(predicate: String) {
+            index[predicate] = index.size
+            lowLink[predicate] = index[predicate]!!
+            stack.push(predicate)
+            onStack.add(predicate)
+            for (dependency in dependencies[predicate] ?: emptyList()) {
+                if (!index.containsKey(dependency)) {
+                    connect(dependency)
+                    lowLink[predicate] = minOf(lowLink[predicate]!!, lowLink[dependency]!!)
+                } else if (onStack.contains(dependency)) {
+                    lowLink[predicate] = minOf(lowLink[predicate]!!, index[dependency]!!)
+                }
+            }
+            if (lowLink[predicate] == index[predicate]) {
+                val component = LinkedHashSet<String>()
+                do {
+                    val member = stack.pop()
+                    onStack.remove(member)
+                    component.add(member)
+                } while (member != predicate)
+                result.add(component)
+            }
+        }
+
+        rulesByHead.keys.forEach { if (!index.containsKey(it)) connect(it) }
+        return result
+    }
+}
+
+/** Tuples of a predicate in the order of their derivation, indexed by column on demand. */
+internal class Relation(private val arity: Int) : Iterable<List<String>> {
+    private val tuples = ArrayList<List<String>>()
+    private val set = HashSet<List<String>>()
+    private val indexes = arrayOfNulls<HashMap<String, MutableList<List<String>>>>(arity)
+
+    val size: Int
+        get() = tuples.size
+
+    operator fun contains(tuple: List<String>) = set.contains(tuple)
+
+    fun add(tuple: List<String>): Boolean {
+        if (!set.add(tuple)) {
+            return false
+        }
+        tuples.add(tuple)
+        indexes.forEachIndexed { column, index -> index?.getOrPut(tuple[column]) { ArrayList() }?.add(tuple) }
+        return true
+    }
+
+    /** Returns the tuples with a value in a column, in derivation order. */
+    fun lookup(column: Int, value: String): List<List<String>> {
+        val index = indexes[column] ?: HashMap<String, MutableList<List<String>>>().also { index ->
+            tuples.forEach { index.getOrPut(it[column]) { ArrayList() }.add(it) }
+            indexes[column] = index
+        }
+        return index[value] ?: emptyList()
+    }
+
+    override fun iterator() = tuples.iterator()
+}
+
+/** The materialized relations of a [DatalogProgram]. Relations of undefined predicates are empty. */
+internal class DatalogModel {
+    private val relations = HashMap<String, Relation>()
+
+    fun relation(predicate: String): Relation =
+            relations.getOrPut(predicate) { Relation(predicate.substringAfterLast('/').toInt()) }
+
+    /** Returns the tuples of a predicate with a value in a column, in derivation order. */
+    fun lookup(predicate: String, column: Int, value: String): List<List<String>> =
+            relations[predicate]?.lookup(column, value) ?: emptyList()
+
+    /** Returns all tuples of a predicate, in derivation order. */
+    fun tuples(predicate: String): Iterable<List<String>> = relations[predicate] ?: emptyList<List<String>>()
+
+    /**
+     * Computes all variable bindings satisfying the body of a rule.
+     *
+     * @param rule The rule
+     * @param deltaIndex Index of the body literal to evaluate against the delta tuples, or -1
+     * @param delta Tuples of the last round for the literal at deltaIndex
+     * @param emit Receives each binding, which is only valid during the call
+     */
+    fun solve(rule: Rule, deltaIndex: Int, delta: Relation?, emit: (Array<String?>) -> Unit) {
+        join(rule.body, 0, arrayOfNulls(rule.variableCount), deltaIndex, delta, emit)
+    }
+
+    private fun join(body: List<Literal>, k: Int, binding: Array<String?>, deltaIndex: Int, delta: Relation?,
+                     emit: (Array<String?>) -> Unit) {
+        if (k == body.size) {
+            emit(binding)
+            return
+        }
+        when (val literal = body[k]) {
+            is Literal.Positive -> {
+                val args = literal.atom.args
+                val relation = if (k == deltaIndex) delta!! else relations[literal.atom.predicate] ?: return
+                // Use the index of the first bound argument, if any
+                val boundColumn = args.indices.firstOrNull { value(args[it], binding) != null }
+                val candidates = if (boundColumn != null) {
+                    relation.lookup(boundColumn, value(args[boundColumn], binding)!!)
+                } else {
+                    relation
+                }
+                val newlyBound = IntArray(args.size)
+                for (tuple in candidates) {
+                    var bound = 0
+                    var matches = true
+                    for (i in args.indices) {
+                        val arg = args[i]
+                        val current = value(arg, binding)
+                        if (current == null) {
+                            binding[arg.variable] = tuple[i]
+                            newlyBound[bound++] = arg.variable
+                        } else if (current != tuple[i]) {
+                            matches = false
+                            break
+                        }
+                    }
+                    if (matches) {
+                        join(body, k + 1, binding, deltaIndex, delta, emit)
+                    }
+                    for (i in 0 until bound) {
+                        binding[newlyBound[i]] = null
+                    }
+                }
+            }
+            is Literal.Negative -> {
+                val tuple = literal.atom.args.map { value(it, binding)!! }
+                if (relations[literal.atom.predicate]?.contains(tuple) != true) {
+                    join(body, k + 1, binding, deltaIndex, delta, emit)
+                }
+            }
+            is Literal.Comparison -> {
+                val left = value(literal.left, binding)
+                val right = value(literal.right, binding)
+                if (left == null || right == null) {
+                    // Unification of an unbound variable with a bound term
+                    val variable = if (left == null) literal.left.variable else literal.right.variable
+                    binding[variable] = left ?: right
+                    join(body, k + 1, binding, deltaIndex, delta, emit)
+                    binding[variable] = null
+                } else if (compare(literal.operator, left, right)) {
+                    join(body, k + 1, binding, deltaIndex, delta, emit)
+                }
+            }
+        }
+    }
+
+    private fun value(arg: Arg, binding: Array<String?>) = arg.constant ?: binding[arg.variable]
+
+    /**
+     * Compares two ground terms. Terms are equal if their canonical text forms are equal, arithmetic
+     * comparisons fail for terms that are not numbers.
+     */
+    private fun compare(operator: String, left: String, right: String): Boolean {
+        return when (operator) {
+            "=", "==" -> left == right
+            "\\=", "\\==" -> left != right
+            else -> {
+                val l = left.toDoubleOrNull() ?: return false
+                val r = right.toDoubleOrNull() ?: return false
+                when (operator) {
+                    "<" -> l < r
+                    ">" -> l > r
+                    "=<" -> l <= r
+                    else -> l >= r
+                }
+            }
+        }
+    }
+}
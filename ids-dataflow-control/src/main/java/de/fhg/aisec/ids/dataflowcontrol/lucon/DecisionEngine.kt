@@ -0,0 +1,108 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import de.fhg.aisec.ids.api.policy.TransformationDecision
+
+/**
+ * Service provider interface of the backends evaluating policy decisions.
+ *
+ * A backend prepares each policy version once, before it is published, e.g. by compiling or
+ * materializing its decision relations. Whatever a backend cannot answer is answered by tuProlog,
+ * which remains the reference semantics of LUCON policies and is also used for route verification.
+ */
+interface DecisionEngine {
+    /** Name of the backend, used to select it by configuration */
+    val name: String
+
+    /**
+     * Prepares a policy for decisions.
+     *
+     * @param theory The parsed policy
+     * @return The prepared policy, or null if the backend does not support the policy and all
+     * decisions must be taken by tuProlog
+     */
+    fun prepare(theory: LuconTheory): PreparedPolicy?
+}
+
+/**
+ * A policy prepared by a [DecisionEngine]. Prepared policies are immutable and shared by all
+ * threads taking decisions against the same policy version.
+ */
+interface PreparedPolicy {
+    /**
+     * Computes the decision query solutions for a target endpoint and a set of labels, in the order
+     * tuProlog would find them.
+     *
+     * @param endpointId The id of the target endpoint, or [de.fhg.aisec.ids.api.policy.EndpointRegistry.NO_ID]
+     * @param endpoint The target endpoint
+     * @param labels The labels of the message
+     * @return The solutions or null, if the decision must be taken by tuProlog
+     */
+    fun solutions(endpointId: Int, endpoint: String, labels: Set<String>): List<DecisionSolution>?
+
+    /**
+     * Computes the label transformation of a node.
+     *
+     * @param endpoint The endpoint of the node
+     * @return The transformation or null, if it must be computed by tuProlog
+     */
+    fun transformation(endpoint: String): TransformationDecision? = null
+
+    /**
+     * Returns whether the decision query solutions for a target endpoint are the same for all
+     * labels.
+     *
+     * @param endpointId The id of the target endpoint, or [de.fhg.aisec.ids.api.policy.EndpointRegistry.NO_ID]
+     * @param endpoint The target endpoint
+     * @return True if the solutions do not depend on labels, false if they may or if this is unknown
+     */
+    fun isLabelIndependent(endpointId: Int, endpoint: String): Boolean = false
+}
+
+/** The available decision engines. */
+object DecisionEngines {
+    /** Takes all decisions by tuProlog, i.e. prepares no policy at all */
+    @JvmField
+    val PROLOG: DecisionEngine = object : DecisionEngine {
+        override val name = "prolog"
+
+        override fun prepare(theory: LuconTheory): PreparedPolicy? = null
+    }
+
+    /** Compiles policies consisting of facts and label conditions into a decision index */
+    @JvmField
+    val COMPILED: DecisionEngine = LuconPolicyCompiler
+
+    /** Materializes policies that are Datalog programs bottom-up */
+    @JvmField
+    val DATALOG: DecisionEngine = DatalogEngine
+
+    val ALL = listOf(PROLOG, COMPILED, DATALOG)
+
+    /**
+     * Returns a decision engine by its name.
+     *
+     * @param name The name of the engine
+     * @return The engine, or null if there is no engine with this name
+     */
+    @JvmStatic
+    fun get(name: String): DecisionEngine? = ALL.firstOrNull { it.name.equals(name.trim(), true) }
+}
@@ -0,0 +1,112 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import de.fhg.aisec.ids.api.policy.Obligation
+import de.fhg.aisec.ids.api.policy.PolicyDecision
+import de.fhg.aisec.ids.api.policy.PolicyDecision.Decision
+import org.slf4j.LoggerFactory
+import java.util.*
+
+/**
+ * A single solution of the policy decision query, independent of the engine that produced it.
+ *
+ * Fields correspond to the variables of the decision query: rule X, priority P, decision D,
+ * obligation action A and alternative decision Alt. Unbound variables are represented by null.
+ */
+class DecisionSolution(
+        val rule: String,
+        val priority: String,
+        val decision: String?,
+        val action: String?,
+        val alternativeDecision: String?) {
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(DecisionSolution::class.java)
+
+        /**
+         * Reduces a list of decision query solutions to a PolicyDecision.
+         *
+         * Only solutions with the highest rule priority are considered. Any "allow" among them
+         * allows the flow, the reason is the last rule that took a decision.
+         *
+         * @param solutions Solutions in the order in which tuProlog enumerates the rules, engines
+         *     must keep this order so the reason is the same for all engines
+         * @return The resulting policy decision, deny if there is no solution
+         */
+        fun toPolicyDecision(solutions: List<DecisionSolution>): PolicyDecision {
+            val dec = PolicyDecision()
+
+            // If there is no matching rule, deny by default
+            if (solutions.isEmpty()) {
+                if (LOG.isDebugEnabled) {
+                    LOG.debug("No policy decision found. Returning " + dec.decision.toString())
+                }
+                dec.reason = "No matching rule"
+                return dec
+            }
+
+            // Include only solutions with highest priority
+            var maxPrio = Integer.MIN_VALUE
+            val applicableSolutions = ArrayList<DecisionSolution>()
+            for (s in solutions) {
+                try {
+                    val priority = Integer.parseInt(s.priority)
+                    if (priority > maxPrio) {
+                        maxPrio = priority
+                        applicableSolutions.clear()
+                    }
+                    if (priority == maxPrio) {
+                        applicableSolutions.add(s)
+                    }
+                } catch (e: NumberFormatException) {
+                    LOG.warn("Invalid rule priority: " + s.priority, e)
+                }
+            }
+
+            // Collect obligations
+            val obligations = LinkedList<Obligation>()
+            applicableSolutions.forEach { s ->
+                if ("drop" == s.decision) {
+                    dec.reason = s.rule
+                } else if ("allow" == s.decision) {
+                    dec.reason = s.rule
+                    dec.decision = Decision.ALLOW
+                }
+                if (s.action != null) {
+                    val o = Obligation()
+                    o.action = s.action
+                    if ("drop" == s.alternativeDecision) {
+                        o.alternativeDecision = Decision.DENY
+                    } else if ("allow" == s.alternativeDecision) {
+                        o.alternativeDecision = Decision.ALLOW
+                    }
+                    obligations.add(o)
+                }
+            }
+            dec.obligations = obligations
+            return dec
+        }
+    }
+
+    override fun toString(): String {
+        return "[$rule, $priority, $decision, $action, $alternativeDecision]"
+    }
+}
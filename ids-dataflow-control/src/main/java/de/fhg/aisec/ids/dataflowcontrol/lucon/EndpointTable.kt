@@ -0,0 +1,78 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import de.fhg.aisec.ids.api.policy.EndpointRegistry
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Lock-free table of values indexed by the endpoint ids of the [EndpointRegistry].
+ *
+ * Lookups are two array accesses, no endpoint string is hashed or compared. Pages of the table are
+ * allocated on first use, so a table of a few endpoints stays small although ids range up to
+ * [EndpointRegistry.MAX_ENDPOINTS].
+ */
+class EndpointTable<V : Any> {
+    private val pages = AtomicReferenceArray<AtomicReferenceArray<V>?>(EndpointRegistry.MAX_ENDPOINTS / PAGE_SIZE)
+
+    /**
+     * Returns the value of an endpoint.
+     *
+     * @param id The endpoint id, must not be [EndpointRegistry.NO_ID]
+     * @return The value, or null if there is none
+     */
+    operator fun get(id: Int): V? {
+        val page = pages[id ushr PAGE_BITS] ?: return null
+        return page[id and PAGE_MASK]
+    }
+
+    /**
+     * Returns the value of an endpoint, computing it if there is none. If several threads compute
+     * the value concurrently, all of them return the value stored first.
+     *
+     * @param id The endpoint id, must not be [EndpointRegistry.NO_ID]
+     * @param compute Computes the value
+     * @return The value
+     */
+    fun getOrPut(id: Int, compute: () -> V): V {
+        get(id)?.let { return it }
+        val value = compute()
+        val pageIndex = id ushr PAGE_BITS
+        var page = pages[pageIndex]
+        if (page == null) {
+            val newPage = AtomicReferenceArray<V>(PAGE_SIZE)
+            page = if (pages.compareAndSet(pageIndex, null, newPage)) newPage else pages[pageIndex]!!
+        }
+        return if (page.compareAndSet(id and PAGE_MASK, null, value)) value else page[id and PAGE_MASK]
+    }
+
+    /** Removes all values. */
+    fun clear() {
+        for (i in 0 until pages.length()) {
+            pages[i] = null
+        }
+    }
+
+    companion object {
+        private const val PAGE_BITS = 8
+        private const val PAGE_SIZE = 1 shl PAGE_BITS
+        private const val PAGE_MASK = PAGE_SIZE - 1
+    }
+}
@@ -0,0 +1,149 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Term
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Size-bounded LRU memo table behind the cache_* predicates of [LuconLibrary].
+ *
+ * Entries are keyed by ground key lists and hold any number of values. Each engine has its own
+ * instance, which is not thread-safe, as an engine is only used by one thread at a time. All
+ * instances can be cleared at once by [invalidateAll], which only increments a generation counter;
+ * each instance drops its entries when it notices the new generation.
+ *
+ * @param maxEntries Maximum number of keys, the least recently used key is evicted first
+ */
+class LuconCache(private val maxEntries: Int = DEFAULT_MAX_ENTRIES) {
+
+    private class CacheEntry(val key: Term, val values: MutableList<Term>)
+
+    private var generation = globalGeneration.get()
+    private var entries = newMap()
+
+    /** Number of keys in this cache */
+    val size: Int
+        get() = currentEntries().size
+
+    /**
+     * Returns the values cached for a key.
+     *
+     * @param key The ground key term
+     * @return The cached values or null, if the key is not cached
+     */
+    fun get(key: Term): List<Term>? {
+        val entry = currentEntries()[key.toString()]
+        if (entry == null) {
+            misses.increment()
+            return null
+        }
+        hits.increment()
+        return entry.values
+    }
+
+    /**
+     * Adds values for a key. Values are copied, so later bindings of their variables do not
+     * affect the cache.
+     *
+     * @param key The ground key term
+     * @param values The values to add
+     */
+    fun addAll(key: Term, values: List<Term>) {
+        val map = currentEntries()
+        val entry = map.getOrPut(key.toString()) {
+            occupancy.incrementAndGet()
+            CacheEntry(key.copyGoal(HashMap(), 0), ArrayList(values.size))
+        }
+        values.mapTo(entry.values) { it.copyGoal(HashMap(), 0) }
+    }
+
+    /**
+     * Removes all keys which unify with the given term.
+     *
+     * @param key The key pattern, e.g. a partially bound key list
+     */
+    fun removeMatching(key: Term) {
+        val iterator = currentEntries().values.iterator()
+        while (iterator.hasNext()) {
+            if (key.match(iterator.next().key)) {
+                iterator.remove()
+                occupancy.decrementAndGet()
+            }
+        }
+    }
+
+    /** Removes all keys in O(1). */
+    fun clear() {
+        occupancy.addAndGet(-entries.size.toLong())
+        entries = newMap()
+    }
+
+    private fun currentEntries(): LinkedHashMap<String, CacheEntry> {
+        val current = globalGeneration.get()
+        if (generation != current) {
+            clear()
+            generation = current
+        }
+        return entries
+    }
+
+    private fun newMap() = object : LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CacheEntry>): Boolean {
+            if (size > maxEntries) {
+                occupancy.decrementAndGet()
+                evictions.increment()
+                return true
+            }
+            return false
+        }
+    }
+
+    /** Statistics of all cache instances */
+    data class Stats(val entries: Long, val hits: Long, val misses: Long, val evictions: Long) {
+        /** Share of lookups answered from the cache */
+        val hitRate: Double
+            get() = if (hits + misses == 0L) 1.0 else hits.toDouble() / (hits + misses)
+    }
+
+    companion object {
+        /** Maximum number of keys per engine */
+        const val DEFAULT_MAX_ENTRIES = 10000
+
+        private val globalGeneration = AtomicLong()
+        private val occupancy = AtomicLong()
+        private val hits = LongAdder()
+        private val misses = LongAdder()
+        private val evictions = LongAdder()
+
+        /** Clears the caches of all engines in O(1). */
+        fun invalidateAll() {
+            globalGeneration.incrementAndGet()
+        }
+
+        /**
+         * Statistics of all cache instances. Entries of invalidated caches are counted until their
+         * engines access them for the next time.
+         */
+        val stats: Stats
+            get() = Stats(occupancy.get(), hits.sum(), misses.sum(), evictions.sum())
+    }
+}
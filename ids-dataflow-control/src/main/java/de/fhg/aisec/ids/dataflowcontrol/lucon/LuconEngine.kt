@@ -22,12 +22,16 @@ package de.fhg.aisec.ids.dataflowcontrol.lucon
 import alice.tuprolog.*
 import alice.tuprolog.event.LibraryEvent
 import alice.tuprolog.event.LibraryListener
+import com.google.common.base.Suppliers
 import de.fhg.aisec.ids.api.router.CounterExample
 import de.fhg.aisec.ids.api.router.RouteVerificationProof
 import org.slf4j.LoggerFactory
 import java.io.OutputStream
 import java.nio.charset.StandardCharsets
 import java.util.*
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
 import java.util.regex.Pattern
 
 /**
@@ -48,6 +52,14 @@ class LuconEngine
  */
 (out: OutputStream?) {
     private val p: Prolog = Prolog()
+    private val library = LuconLibrary()
+
+    /**
+     * Version of the shared [LuconTheory] loaded by this engine, or [LOCAL_THEORY] if the theory
+     * has been loaded by [loadPolicy].
+     */
+    var theoryVersion = LOCAL_THEORY
+        private set
 
     val theory: String
         get() {
@@ -106,7 +118,7 @@ class LuconEngine
         }
 
         try {
-            p.loadLibrary(LuconLibrary())
+            p.loadLibrary(library)
         } catch (e: InvalidLibraryException) {
             // should never happen
             throw RuntimeException("Error loading " + LuconLibrary::class.java.name, e)
@@ -131,6 +143,44 @@ class LuconEngine
         val t = Theory(theory)
         LOG.debug("Loading theory:\n$t")
         p.theory = t
+        library.clearCache()
+        library.setServiceMatcher(Suppliers.memoize {
+            try {
+                LuconTheory.parse(theory).serviceMatcher
+            } catch (e: InvalidTheoryException) {
+                null
+            }
+        })
+        theoryVersion = LOCAL_THEORY
+    }
+
+    /**
+     * Loads a shared theory, unless this engine has already loaded the same version of it.
+     *
+     *
+     * Existing policies will be overwritten. The clauses of the shared theory are asserted directly,
+     * without parsing the policy text again.
+     *
+     * @param theory The shared theory to load
+     */
+    @Throws(InvalidTheoryException::class)
+    fun syncTheory(theory: LuconTheory) {
+        if (theoryVersion == theory.version) {
+            return
+        }
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Loading shared theory version {} ({} clauses)", theory.version, theory.clauses.size)
+        }
+        if (theory.hasDirectives) {
+            p.theory = Theory(theory.source)
+        } else {
+            val theoryManager = p.theoryManager
+            theoryManager.clear()
+            theory.clauses.forEach { theoryManager.assertZ(it, true, null, true) }
+        }
+        library.clearCache()
+        library.setServiceMatcher { theory.serviceMatcher }
+        theoryVersion = theory.version
     }
 
     @Throws(MalformedGoalException::class)
@@ -152,21 +202,70 @@ class LuconEngine
         return result
     }
 
+    /**
+     * Solves a goal term, e.g. a bound [PreparedGoal], without parsing any Prolog text.
+     *
+     * @param goal The goal to solve
+     * @param findAll Whether to collect all solutions or only the first one
+     * @return The solutions found
+     */
+    fun query(goal: Term, findAll: Boolean): List<SolveInfo> = query(goal, findAll, QueryBudget.UNLIMITED)
+
+    /**
+     * Solves a goal term within a budget. A computation exceeding the time limit is halted.
+     *
+     * @param goal The goal to solve
+     * @param findAll Whether to collect all solutions or only the first one
+     * @param budget The limits of the evaluation
+     * @return The solutions found
+     * @throws BudgetExceededException If the evaluation has exceeded the budget
+     */
+    fun query(goal: Term, findAll: Boolean, budget: QueryBudget): List<SolveInfo> {
+        if (LOG.isTraceEnabled) {
+            LOG.trace("Running Prolog goal: $goal")
+        }
+        val deadline = if (budget.timeoutMillis > 0) {
+            SolveDeadline(p, TimeUnit.MILLISECONDS.toNanos(budget.timeoutMillis))
+        } else {
+            null
+        }
+        try {
+            val result = solutions(p, p.solve(goal), findAll, budget.maxSolutions)
+            if (deadline?.isHalted == true) {
+                throw BudgetExceededException("Query exceeded ${budget.timeoutMillis} ms")
+            }
+            return result
+        } finally {
+            deadline?.cancel()
+        }
+    }
+
     private fun query(engine: Prolog, query: String?, findAll: Boolean): List<SolveInfo> {
-        val result = ArrayList<SolveInfo>()
         if (query == null) {
-            return result
+            return ArrayList()
         }
-        var solution = engine.solve(query)
-        while (solution.isSuccess) {
-            result.add(solution)
-            if (findAll && engine.hasOpenAlternatives()) {
-                solution = engine.solveNext()
-            } else {
-                break
+        return solutions(engine, engine.solve(query), findAll)
+    }
+
+    private fun solutions(engine: Prolog, firstSolution: SolveInfo, findAll: Boolean,
+                          maxSolutions: Int = 0): List<SolveInfo> {
+        val result = ArrayList<SolveInfo>()
+        var solution = firstSolution
+        try {
+            while (solution.isSuccess) {
+                result.add(solution)
+                if (findAll && engine.hasOpenAlternatives()) {
+                    if (maxSolutions > 0 && result.size >= maxSolutions) {
+                        throw BudgetExceededException("Query has more than $maxSolutions solutions")
+                    }
+                    solution = engine.solveNext()
+                } else {
+                    break
+                }
             }
+        } finally {
+            engine.solveEnd()
         }
-        engine.solveEnd()
         return result
     }
 
@@ -179,54 +278,221 @@ class LuconEngine
      * @return A list of counterexamples which violate the rule or empty, if no route violates the
      * policy.
      */
-    fun proofInvalidRoute(id: String, routePl: String): RouteVerificationProof {
+    fun proofInvalidRoute(id: String, routePl: String): RouteVerificationProof =
+            proofInvalidRoute(id, routePl, Int.MAX_VALUE, Long.MAX_VALUE)
+
+    /**
+     * Returns "true" if the given route is valid under all policies or returns a set of
+     * counterexamples.
+     *
+     * Counterexamples are enumerated one by one instead of collecting all paths of the route first.
+     * Paths ending in the same node with the same labels are reported once. Enumeration stops when
+     * enough counterexamples have been found or the time is up, the proof is truncated then.
+     *
+     * If the predicates of the route are not defined by the loaded policy, the route facts are
+     * asserted into this engine and removed after the proof, so the loaded policy and its cached
+     * intermediate results are reused. Otherwise, a new Prolog engine with the combined theory is
+     * created for the proof.
+     *
+     * @param id Route id
+     * @param routePl The route, represented as Prolog
+     * @param maxCounterExamples Maximum number of counterexamples
+     * @param timeoutMillis Maximum time for enumerating counterexamples
+     * @return A list of counterexamples which violate the rule or empty, if no route violates the
+     * policy.
+     */
+    fun proofInvalidRoute(id: String, routePl: String, maxCounterExamples: Int, timeoutMillis: Long): RouteVerificationProof {
         // The proof object we will return
         val proof = RouteVerificationProof(id)
 
         // Just for information: save the query we used to generate the proof
         proof.query = QUERY_ROUTE_VERIFICATION
 
+        val start = System.nanoTime()
+        val timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+        val counterExamples = ArrayList<CounterExample>()
+        val violations = HashSet<String>()
+        // Collects distinct counterexamples until there are enough of them
+        val collect = { s: SolveInfo ->
+            val trace = s.getVarValue("T")
+            if (violations.add(violationState(trace))) {
+                counterExamples.add(CounterExampleImpl(trace))
+            }
+            counterExamples.size < maxCounterExamples
+        }
         try {
-            // Get policy as prolog, add Camel route and init new Prolog engine with combined theory
-            val t = p.theory
-            t.append(Theory(routePl))
-            val newP = Prolog()
-            newP.loadLibrary(LuconLibrary())
-            newP.theory = t
-
-            // Generate the proof (=run query)
-            val result = query(newP, QUERY_ROUTE_VERIFICATION, true)
+            val route = LuconTheory.parse(routePl)
+            val routePredicates = route.clauses.mapTo(HashSet()) { predicateIndicator(it) }
+            val theoryManager = p.theoryManager
+            val complete = if (!route.hasDirectives && !routePredicates.contains("has_endpoint/2")
+                    && routePredicates.none { theoryManager.checkExistance(it) }) {
+                // Add route facts to the loaded policy and remove them afterwards
+                try {
+                    route.clauses.forEach { theoryManager.assertZ(it, true, null, true) }
+                    solveBounded(p, QUERY_ROUTE_VERIFICATION, start, timeoutNanos, collect)
+                } finally {
+                    routePredicates.forEach {
+                        val pi = it.split('/')
+                        theoryManager.abolish(Struct("/", Struct(pi[0]), alice.tuprolog.Int(pi[1].toInt())))
+                    }
+                    // A proof stopped early leaves the labels of the path it was walking asserted
+                    retractLabels()
+                }
+            } else {
+                // Get policy as prolog, add Camel route and init new Prolog engine with combined theory
+                val t = p.theory
+                t.append(Theory(routePl))
+                val newP = Prolog()
+                newP.loadLibrary(LuconLibrary())
+                newP.theory = t
+                solveBounded(newP, QUERY_ROUTE_VERIFICATION, start, timeoutNanos, collect)
+            }
 
             // If a result has been found, this means there is at least one counterexample of a path in a
             // route that violates a policy
-            if (result.isNotEmpty()) {
-                val ces = ArrayList<CounterExample>(result.size)
-                result.forEach { s ->
-                    try {
-                        ces.add(CounterExampleImpl(s.getVarValue("T")))
-                    } catch (nse: NoSolutionException) {
-                        // This cannot happen if our code wasn't badly screwed up!
-                        throw RuntimeException(nse)
-                    }
-                }
-                proof.counterExamples = ces
+            if (counterExamples.isNotEmpty()) {
+                proof.counterExamples = counterExamples
+                proof.isValid = false
+            }
+            if (!complete) {
+                LOG.info("Verification of route {} stopped after {} counterexamples", id, counterExamples.size)
+                // Without a complete proof, the route must not be considered valid
+                proof.counterExamples = counterExamples
+                proof.isTruncated = true
                 proof.isValid = false
             }
         } catch (e: Exception) {
             LOG.error(e.message, e)
+            // Without a complete proof, the route must not be considered valid
+            proof.isValid = false
         }
+        proof.proofTimeNanos = System.nanoTime() - start
 
         return proof
     }
 
+    /**
+     * Enumerates the solutions of a query one by one, until the consumer does not want any more
+     * solutions or the time is up. A computation exceeding the time is halted.
+     *
+     * @param engine The engine to solve the query with
+     * @param query The query
+     * @param start Start time of the timeout in nanoseconds
+     * @param timeoutNanos The timeout, or Long.MAX_VALUE
+     * @param consumer Receives the solutions, returns whether to continue
+     * @return Whether all solutions have been enumerated
+     */
+    private fun solveBounded(engine: Prolog, query: String, start: Long, timeoutNanos: Long,
+                             consumer: (SolveInfo) -> Boolean): Boolean {
+        val deadline = if (timeoutNanos != Long.MAX_VALUE) {
+            SolveDeadline(engine, timeoutNanos - (System.nanoTime() - start))
+        } else {
+            null
+        }
+        try {
+            var solution = engine.solve(query)
+            while (solution.isSuccess) {
+                if (!consumer(solution)) {
+                    return !engine.hasOpenAlternatives()
+                }
+                if (!engine.hasOpenAlternatives()) {
+                    return true
+                }
+                if (System.nanoTime() - start >= timeoutNanos) {
+                    return false
+                }
+                solution = engine.solveNext()
+            }
+            return !solution.isHalted && deadline?.isHalted != true
+        } finally {
+            deadline?.cancel()
+            engine.solveEnd()
+        }
+    }
+
+    /** Removes all label/1 facts asserted by path/3 from the engine of the loaded policy. */
+    private fun retractLabels() {
+        try {
+            p.solve(RETRACT_LABELS)
+        } finally {
+            p.solveEnd()
+        }
+    }
+
+    /**
+     * Returns the state in which a counterexample violates the policy, i.e. the last node of its
+     * trace and the (sorted) labels of the message in that node.
+     */
+    private fun violationState(trace: Term): String {
+        val steps = (trace.term as Struct).listIterator()
+        // Skip explanation
+        steps.next()
+        val last = steps.next().term as Struct
+        val labels = last.listTail().listHead().term
+        val labelSet = if (labels.isList) {
+            (labels as Struct).listIterator().asSequence().map { it.toString() }.toSortedSet()
+        } else {
+            sortedSetOf(labels.toString())
+        }
+        return last.listHead().toString() + labelSet
+    }
+
+    /** Halts the computation of a Prolog engine after a delay, unless it is cancelled before. */
+    private class SolveDeadline(private val engine: Prolog, delayNanos: Long) {
+        private var active = true
+        private val future = HALT_SCHEDULER.schedule(Runnable { halt() }, maxOf(delayNanos, 0L), TimeUnit.NANOSECONDS)
+
+        /** Whether the computation has been halted, a halted computation just ends without solutions */
+        @Volatile
+        var isHalted = false
+            private set
+
+        @Synchronized
+        private fun halt() {
+            if (active) {
+                LOG.debug("Halting Prolog computation after timeout")
+                isHalted = true
+                engine.solveHalt()
+            }
+        }
+
+        /** Cancels the deadline, the engine is never halted after this method returns. */
+        @Synchronized
+        fun cancel() {
+            active = false
+            future.cancel(false)
+        }
+    }
+
+    private fun predicateIndicator(clause: Struct): String {
+        val head = if (clause.name == ":-" && clause.arity == 2) clause.getTerm(0) as Struct else clause
+        return head.name + "/" + head.arity
+    }
+
     companion object {
         private val LOG = LoggerFactory.getLogger(LuconEngine::class.java)
         private var defaultPolicy = ""
 
+        /** Theory version of engines whose theory has not been loaded from a shared theory */
+        const val LOCAL_THEORY = -1L
+
         // A Prolog query to compute a path from X to Y in a graph of statements (= a route)
         private const val QUERY_ROUTE_VERIFICATION = "entrynode(X), stmt(Y), path(X, Y, T)."
+        private const val RETRACT_LABELS = "retractall(label(_))."
         private val WARNING_FILTER = Pattern.compile("^WARNING: The predicate .* is unknown\\.$")
 
+        /** Halts Prolog computations exceeding their time limit */
+        private val HALT_SCHEDULER: ScheduledThreadPoolExecutor by lazy {
+            val scheduler = ScheduledThreadPoolExecutor(1, ThreadFactory {
+                val t = Thread(it, "lucon-solve-deadline")
+                t.isDaemon = true
+                t
+            })
+            // Most deadlines are cancelled, they must not pile up in the queue
+            scheduler.removeOnCancelPolicy = true
+            scheduler
+        }
+
         fun setDefaultPolicy(theory: String) {
             defaultPolicy = theory
         }
@@ -0,0 +1,139 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Fixed-size pool of pre-warmed [LuconEngine] instances.
+ *
+ * In contrast to one engine per thread, the number of engines (and tuProlog knowledge bases) does
+ * not grow with the number of threads, which makes the pool suitable for large or virtual thread
+ * pools. Engines are handed out in FIFO order of the waiting threads.
+ *
+ * @param size Number of engines in the pool
+ * @param maxWaitMillis Maximum time to wait for a free engine
+ * @param engineFactory Creates the engines of the pool, called [size] times by the constructor
+ */
+class LuconEnginePool(val size: Int, val maxWaitMillis: Long, engineFactory: () -> LuconEngine) {
+    private val engines = ArrayBlockingQueue<LuconEngine>(size, true)
+    private val inUse = AtomicInteger()
+    private val checkouts = LongAdder()
+    private val timeouts = LongAdder()
+    private val totalWaitNanos = LongAdder()
+    private val maxWaitNanos = AtomicLong()
+
+    init {
+        require(size > 0) { "Engine pool size must be positive" }
+        repeat(size) { engines.add(engineFactory()) }
+        LOG.info("Created LuconEngine pool with {} engines", size)
+    }
+
+    /** Thrown if no engine becomes available within the maximum wait time. */
+    class PoolExhaustedException(message: String) : RuntimeException(message)
+
+    /** Snapshot of the pool metrics. Wait times are in nanoseconds. */
+    data class Stats(
+            val size: Int,
+            val inUse: Int,
+            val checkouts: Long,
+            val timeouts: Long,
+            val totalWaitNanos: Long,
+            val maxWaitNanos: Long) {
+        /** Share of engines currently in use */
+        val utilization: Double
+            get() = inUse.toDouble() / size
+
+        /** Mean time waited for an engine */
+        val meanWaitNanos: Long
+            get() = if (checkouts + timeouts == 0L) 0 else totalWaitNanos / (checkouts + timeouts)
+    }
+
+    /**
+     * Runs a function with an engine checked out from the pool and returns the engine afterwards.
+     *
+     * @param block Function to run, must not keep a reference to the engine
+     * @return The result of the function
+     * @throws PoolExhaustedException if no engine becomes available in time
+     */
+    fun <T> withEngine(block: (LuconEngine) -> T): T {
+        val engine = checkout()
+        try {
+            return block(engine)
+        } finally {
+            checkin(engine)
+        }
+    }
+
+    /**
+     * Runs a function with an engine of the pool, if one is available without waiting.
+     *
+     * @param block Function to run, must not keep a reference to the engine
+     * @return The result of the function, or null if all engines are in use
+     */
+    fun <T> tryWithEngine(block: (LuconEngine) -> T): T? {
+        val engine = engines.poll() ?: return null
+        checkouts.increment()
+        inUse.incrementAndGet()
+        try {
+            return block(engine)
+        } finally {
+            checkin(engine)
+        }
+    }
+
+    private fun checkout(): LuconEngine {
+        val start = System.nanoTime()
+        val engine = engines.poll() ?: try {
+            engines.poll(maxWaitMillis, TimeUnit.MILLISECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            null
+        }
+        val wait = System.nanoTime() - start
+        totalWaitNanos.add(wait)
+        maxWaitNanos.accumulateAndGet(wait, Math::max)
+        if (engine == null) {
+            timeouts.increment()
+            throw PoolExhaustedException("No LuconEngine available after $maxWaitMillis ms")
+        }
+        checkouts.increment()
+        inUse.incrementAndGet()
+        return engine
+    }
+
+    private fun checkin(engine: LuconEngine) {
+        inUse.decrementAndGet()
+        engines.add(engine)
+    }
+
+    val stats: Stats
+        get() = Stats(size, inUse.get(), checkouts.sum(), timeouts.sum(), totalWaitNanos.sum(),
+                maxWaitNanos.get())
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(LuconEnginePool::class.java)
+    }
+}
@@ -21,15 +21,17 @@ package de.fhg.aisec.ids.dataflowcontrol.lucon;
 
 import alice.tuprolog.Library;
 import alice.tuprolog.Number;
+import alice.tuprolog.Struct;
 import alice.tuprolog.Term;
 import alice.tuprolog.Var;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,17 +44,33 @@ public class LuconLibrary extends Library {
   private static final long serialVersionUID = 1L;
   private static final Logger LOG = LoggerFactory.getLogger(LuconLibrary.class);
 
-  private transient LoadingCache<String, Pattern> regexCache =
-      CacheBuilder.newBuilder()
-          .expireAfterAccess(1, TimeUnit.DAYS)
-          .maximumWeight((long) 1e6)
-          .weigher((k, v) -> ((String) k).length())
-          .build(
-              new CacheLoader<String, Pattern>() {
-                public Pattern load(String key) {
-                  return Pattern.compile(key);
-                }
-              });
+  /** Provides the matcher for action_services/2, compiled from the loaded policy on first use. */
+  @Nullable private transient volatile Supplier<ServiceMatcher> serviceMatcher;
+
+  /** Memo table of the cache_* predicates, used by dominant_rules/5. */
+  private final transient LuconCache cache = new LuconCache();
+
+  /**
+   * Table of the states (node and labels) explored by the current path/3 query. trace_walk/5 expands
+   * each state once, so loops and shared sub-paths of a route are not walked again.
+   */
+  private final transient Set<String> walkTable = new HashSet<>();
+
+  /**
+   * Sets the matcher for the has_endpoint/2 facts of the loaded policy. Must be called whenever
+   * another policy is loaded.
+   *
+   * @param serviceMatcher Supplier of the matcher, or null if action_services/2 must not be used
+   */
+  void setServiceMatcher(@Nullable Supplier<ServiceMatcher> serviceMatcher) {
+    this.serviceMatcher = serviceMatcher;
+  }
+
+  /** Clears the memo table of the cache_* predicates. Must be called whenever the theory changes. */
+  void clearCache() {
+    cache.clear();
+    walkTable.clear();
+  }
 
   @Override
   public String getTheory() {
@@ -73,26 +91,30 @@ public class LuconLibrary extends Library {
         + "retract_labels([L|Tail], Rr, R) :- retract(label(L)), retract_labels(Tail, Rr, [L|R]), !.\n"
         + "retract_labels([L|Tail], Rr, R) :- retract_labels(Tail, Rr, R).\n"
         + "\n"
-        + "all_ground([]).\n"
-        + "all_ground([Head|Tail]) :- ground(Head), all_ground(Tail).\n"
-        + "\n"
-        + "cache_put_all_unsafe(KL, []).\n"
-        + "cache_put_all_unsafe(KL, [V|T]) :- cache_put_unsafe(KL, V), cache_put_all_unsafe(KL, T).\n"
-        + "cache_put_unsafe(KL, V) :-\n"
-        + "  %print([\"CACHE PUT: \"|[KL, V]]), nl,\n"
-        + "  assertz(cache_entry(KL, V)).\n"
+        + "receives_label(R, Labels) :-  % evaluate receives_label(R) against a list of labels instead of asserted labels\n"
+        + "  clause(receives_label(R), Body),\n"
+        + "  label_goal(Body, Labels).\n"
         + "\n"
-        + "cache_put_all(KL, VL) :- all_ground(KL), cache_put_all_unsafe(KL, VL).\n"
-        + "cache_put(KL, V) :- cache_put_check(KL, V); true.\n"
-        + "cache_put_check(KL, V) :- all_ground(KL), cache_put_unsafe(KL, V).\n"
+        + "label_goal(true, _) :- !.\n"
+        + "label_goal((A, B), Ls) :- !, label_goal(A, Ls), label_goal(B, Ls).\n"
+        + "label_goal((C -> T ; E), Ls) :- !, (label_goal(C, Ls) -> label_goal(T, Ls) ; label_goal(E, Ls)).\n"
+        + "label_goal((A ; B), Ls) :- !, (label_goal(A, Ls) ; label_goal(B, Ls)).\n"
+        + "label_goal((C -> T), Ls) :- !, (label_goal(C, Ls) -> label_goal(T, Ls)).\n"
+        + "label_goal(\\+(G), Ls) :- !, \\+(label_goal(G, Ls)).\n"
+        + "label_goal(not(G), Ls) :- !, \\+(label_goal(G, Ls)).\n"
+        + "label_goal(label(L), Ls) :- !, member(L, Ls).\n"
+        + "label_goal(G, _) :- call(G).  % any other goal does not depend on labels\n"
         + "\n"
-        + "cache_get(KL, V) :-\n"
-        + "  cache_entry(KL, V).\n"
-        + "  %-> print([\"CACHE HIT: \", KL, V]), nl\n"
-        + "  %; print([\"CACHE MISS: \", KL]), nl, fail.\n"
+        + "cache_get(KL, V) :-  % values cached for the ground key list KL  [ assume O(1) ]\n"
+        + "  cache_values(KL, VL),\n"
+        + "  member(V, VL).\n"
         + "\n"
-        + "cache_clear(KL) :- retractall(cache_entry(KL, _)).\n"
+        + "cache_put_all(KL, VL) :- cache_add_all(KL, VL).\n"
+        + "cache_put(KL, V) :- cache_add_all(KL, [V]) ; true.\n"
         + "\n"
+        + "action_service(Action, S) :-  % Finds services S matching endpoints of N  [ O(|S(Action)|) ]\n"
+        + "  action_services(Action, SL),  % all matching services, if the policy has been compiled  [ assume O(1) ]\n"
+        + "  !, member(S, SL).\n"
         + "action_service(Action, S) :-  % Finds services S matching endpoints of N  [ O(|Ep_S|) ]\n"
         + "  has_endpoint(S, Regex),       % a service S exists such that  [ O(|Ep_S|) ]\n"
         + "  regex_match(Regex, Action).   % the action of A matches the endpoint of S  [ assume O(1) ]\n"
@@ -118,33 +140,31 @@ public class LuconLibrary extends Library {
         + "  %print([Act, \"=>\", SC, \"added:\", Aout, \"removed:\", Rout]),nl,\n"
         + "  get_labels(Out).                                                                 % collect and return asserted labels\n"
         + "\n"
-        + "dominant_rules(Act, Req, DC, S, R) :-  % Find the dominant rule R for action Act (from cache)\n"
-        + "  get_labels(LC),                        % Collect currently asserted labels\n"
-        + "  cache_get([dr, Act, Req, DC, LC], V),  % CACHE GET entry\n"
-        + "  list(V), V = [S, R].                   % unpack result\n"
-        + "\n"
         + "dominant_rules(Act, Req, DC, S, R) :-  % Find the dominant rule R for action Act  [ O(|Ep_S| x |S -- R|) ]\n"
         + "  get_labels(LC),                            % Collect currently asserted labels\n"
-        + "  \\+(cache_get([dr, Act, Req, DC, LC], V)),  % CACHE GET entry\n"
-        + "  (setof(DomRule, (\n"
-        + "    action_service(Act, Si),                   % Action Act is matched by a service Si  [ O(|Ep_S|) ]\n"
-        + "    rule(Ri), receives_label(Ri),              % There is a VALID rule Ri\n"
-        + "    has_target(Ri, Si),                        % targeting by service Si  [ O(|S -- R|) ]\n"
-        + "    has_decision(Ri, Req),                     % with a decision that unifies with Require  [ O(1) ]\n"
-        + "    rule_priority(Ri, PR),                     % that has priority PR, then  [ O(1) ]\n"
-        + "    \\+(                                        % there MUST NOT exist  [ O(|Ep_S| x |S -- R|) ]\n"
-        + "      action_service(Act, S2),                   % a service S2  [ O(|Ep_S|) ]\n"
-        + "      rule(R2), Ri \\= R2, receives_label(R2),    % with another VALID rule R2\n"
-        + "      has_target(R2, S2),                        % that is targeting S2  [ O(|S -- R|) ]\n"
-        + "      has_decision(R2, D2), D2 \\= Req,           % which enforces a different decision,  [ O(1) ]\n"
-        + "      rule_priority(R2, PR2),                    % and has priority PR2  [ O(1) ]\n"
-        + "      G =.. [DC, PR2, PR], call(G)               % such that 'DC'(PR, PR2) is fulfilled  [ O(1) ]\n"
-        + "    ), DomRule = [Si, Ri]                      % compose the result\n"
-        + "  ), RL)\n"
-        + "  -> cache_put_all([dr, Act, Req, DC, LC], RL)   % IF successful, CACHE PUT ALL results\n"
-        + "  ; cache_put([dr, Act, Req, DC, LC], none)      % ELSE CACHE PUT 'none'\n"
+        + "  (cache_values([dr, Act, Req, DC, LC], VL)  % CACHE GET entry, looked up once\n"
+        + "  -> true\n"
+        + "  ; (setof(DomRule, (\n"
+        + "      action_service(Act, Si),                   % Action Act is matched by a service Si  [ O(|Ep_S|) ]\n"
+        + "      rule(Ri), receives_label(Ri),              % There is a VALID rule Ri\n"
+        + "      has_target(Ri, Si),                        % targeting by service Si  [ O(|S -- R|) ]\n"
+        + "      has_decision(Ri, Req),                     % with a decision that unifies with Require  [ O(1) ]\n"
+        + "      rule_priority(Ri, PR),                     % that has priority PR, then  [ O(1) ]\n"
+        + "      \\+(                                        % there MUST NOT exist  [ O(|Ep_S| x |S -- R|) ]\n"
+        + "        action_service(Act, S2),                   % a service S2  [ O(|Ep_S|) ]\n"
+        + "        rule(R2), Ri \\= R2, receives_label(R2),    % with another VALID rule R2\n"
+        + "        has_target(R2, S2),                        % that is targeting S2  [ O(|S -- R|) ]\n"
+        + "        has_decision(R2, D2), D2 \\= Req,           % which enforces a different decision,  [ O(1) ]\n"
+        + "        rule_priority(R2, PR2),                    % and has priority PR2  [ O(1) ]\n"
+        + "        G =.. [DC, PR2, PR], call(G)               % such that 'DC'(PR, PR2) is fulfilled  [ O(1) ]\n"
+        + "      ), DomRule = [Si, Ri]                      % compose the result\n"
+        + "    ), RL)\n"
+        + "    -> VL = RL                                 % IF successful, the results\n"
+        + "    ; VL = [none]                              % ELSE 'none'\n"
+        + "    ),\n"
+        + "    cache_put_all([dr, Act, Req, DC, LC], VL)  % CACHE PUT ALL values\n"
         + "  ), !,                                      % don't backtrack into the caching logic\n"
-        + "  dominant_rules(Act, Req, DC, S, R).        % delegate to cache handler\n"
+        + "  member(V, VL), list(V), V = [S, R].        % unpack result\n"
         + "\n"
         + "dominant_drop_rules(Act, S, R) :- dominant_rules(Act, drop, '>', S, R).\n"
         + "dominant_allow_rules(Act, S, R) :- dominant_rules(Act, allow, '>=', S, R).\n"
@@ -153,10 +173,20 @@ public class LuconLibrary extends Library {
         + "%\n"
         + "%   path(stmt_1, stmt_5, Trace).\n"
         + "%\n"
+        + "% The walk is tabled: each node is explored once per set of labels, so paths reaching a state\n"
+        + "% that has been explored before are cut off. This terminates on cyclic routes and reports\n"
+        + "% each violating state once, in O(|stmt| x |labelsets|) steps instead of O(|paths|).\n"
+        + "%\n"
         + "path(A,B,T) :-                              % Two nodes are connected if we can walk from A to B,\n"
+        + "  walk_table_clear,                         % [start with an empty table of explored states]\n"
         + "  trace_walk(A, B, [], [[A, []]], T).       % starting with empty label list\n"
         + "\n"
-        + "trace_walk(A, B, L, Log, T) :-              % We have walked from A to B and verify  [ O(|Ep_S| x |S -- R|) ]\n"
+        + "trace_walk(A, B, L, Log, T) :-              % We walk from A to B if  [ tabled ]\n"
+        + "  get_labels(LC),                           %   the current labels at A  [ O(L_a), assume O(1) ]\n"
+        + "  walk_visit(A, LC),                        %   have not been seen at A before  [ assume O(1) ]\n"
+        + "  trace_step(A, B, L, Log, T).              %   and we can step from A to B\n"
+        + "\n"
+        + "trace_step(A, B, L, Log, T) :-              % We have walked from A to B and verify  [ O(|Ep_S| x |S -- R|) ]\n"
         + "  A = B,                                    %   A is the desired destination with  [ O(1) ]\n"
         + "  has_action(A, Act),                       %   an action Act and there is  [ O(1) ]\n"
         + "  dominant_drop_rules(Act, S, R),           %   a dominant drop rule R and service S for Act [ O(|Ep_S| x |S -- R|) ]\n"
@@ -165,7 +195,7 @@ public class LuconLibrary extends Library {
         + "  T = [[S, LC, R]|Log].                     %     [unify the recursion result with Out]  [ O(1) ]\n"
         + "  %print(\"finished (END): \"), print(A), nl.\n"
         + "\n"
-        + "trace_walk(A, B, L, Log, T) :-              % We can walk from A to B if  [ O(|Ep_S| x |S -- R|) ]\n"
+        + "trace_step(A, B, L, Log, T) :-              % We can walk from A to B if  [ O(|Ep_S| x |S -- R|) ]\n"
         + "  succ(A, X),                               %   A is connected to X and there is  [ O(|succ(A, _)|), assume O(1) ]\n"
         + "  has_action(A, Act),                       %   an action Action and there is  [ O(1) ]\n"
         + "  dominant_allow_rules(Act, S, _),          %   a dominant allow rule and service S for Act  [ O(|Ep_S| x |S -- R|) ]\n"
@@ -182,16 +212,102 @@ public class LuconLibrary extends Library {
         + "  ground(T).                                %   If T is bound, recursion returned successfully, no result otherwise!\n";
   }
 
-  private static boolean isComplex(@NonNull Term t) {
+  static boolean isComplex(@NonNull Term t) {
     if (t instanceof Var) {
       t = t.getTerm();
     }
     return (!t.isAtom() || t.isList()) && !(t instanceof Number);
   }
 
+  /**
+   * Unifies services with the list of all services whose endpoint regex matches the action. Fails
+   * if the has_endpoint/2 facts of the loaded policy have not been compiled, so action_service/2
+   * falls back to evaluating them one by one.
+   */
+  @SuppressWarnings("unused")
+  public boolean action_services_2(Term action, Term services) {
+    Supplier<ServiceMatcher> supplier = serviceMatcher;
+    ServiceMatcher matcher = supplier != null ? supplier.get() : null;
+    if (matcher == null) {
+      return false;
+    }
+    // Like regex_match/2, complex actions never match
+    if (isComplex(action)) {
+      return unify(services, new Struct());
+    }
+    String actionString = TuPrologHelper.unquote(action.getTerm().toString());
+    return unify(services, matcher.services(actionString));
+  }
+
+  /** Unifies values with the list of values cached for a ground key list, fails if there is none. */
+  @SuppressWarnings("unused")
+  public boolean cache_values_2(Term keys, Term values) {
+    Term key = keys.getTerm();
+    if (!key.isGround()) {
+      return false;
+    }
+    List<Term> cached = cache.get(key);
+    if (cached == null) {
+      return false;
+    }
+    Struct list = new Struct();
+    for (int i = cached.size() - 1; i >= 0; i--) {
+      list = new Struct(cached.get(i), list);
+    }
+    return unify(values, list);
+  }
+
+  /** Adds a list of values for a ground key list, fails if the keys are not ground. */
+  @SuppressWarnings("unused")
+  public boolean cache_add_all_2(Term keys, Term values) {
+    Term key = keys.getTerm();
+    Term list = values.getTerm();
+    if (!key.isGround() || !list.isList()) {
+      return false;
+    }
+    List<Term> valueList = new ArrayList<>();
+    ((Struct) list).listIterator().forEachRemaining(valueList::add);
+    cache.addAll(key, valueList);
+    return true;
+  }
+
+  /** Removes all cached keys unifying with the given key list, clears the cache if it is unbound. */
+  @SuppressWarnings("unused")
+  public boolean cache_clear_1(Term keys) {
+    Term key = keys.getTerm();
+    if (key instanceof Var) {
+      cache.clear();
+    } else {
+      cache.removeMatching(key);
+    }
+    return true;
+  }
+
+  /** Clears the table of states explored by trace_walk/5, called at the start of path/3. */
+  @SuppressWarnings("unused")
+  public boolean walk_table_clear_0() {
+    walkTable.clear();
+    return true;
+  }
+
+  /**
+   * Records a state of trace_walk/5, i.e. a node and the sorted list of labels at this node. Fails
+   * if the state has been recorded before, so it is explored only once. States that are not ground
+   * are not tabled.
+   */
+  @SuppressWarnings("unused")
+  public boolean walk_visit_2(Term node, Term labels) {
+    Term n = node.getTerm();
+    Term l = labels.getTerm();
+    if (!n.isGround() || !l.isGround()) {
+      return true;
+    }
+    return walkTable.add(n + "/" + l);
+  }
+
   @SuppressWarnings("unused")
   public boolean regex_match_2(Term regex, Term input) {
-    LOG.trace("regex_match/2 called with " + regex + " " + input);
+    LOG.trace("regex_match/2 called with {} {}", regex, input);
     // Both regex and input string must be ground
     if (isComplex(regex) || isComplex(input)) {
       return false;
@@ -199,10 +315,12 @@ public class LuconLibrary extends Library {
     try {
       String regexString = TuPrologHelper.unquote(regex.getTerm().toString());
       String inputString = TuPrologHelper.unquote(input.getTerm().toString());
-      boolean match = regexCache.get(regexString).matcher(inputString).matches();
-      LOG.trace("regex_match: " + regexString + " , " + inputString + ": " + match);
+      boolean match = PatternCache.get(regexString).matcher(inputString).matches();
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("regex_match: " + regexString + " , " + inputString + ": " + match);
+      }
       return match;
-    } catch (ExecutionException e) {
+    } catch (PatternSyntaxException e) {
       LOG.warn(e.getMessage(), e);
       return false;
     }
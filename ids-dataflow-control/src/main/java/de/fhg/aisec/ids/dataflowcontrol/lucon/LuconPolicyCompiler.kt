@@ -0,0 +1,227 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.InvalidTheoryException
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import alice.tuprolog.Var
+import org.slf4j.LoggerFactory
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Compiles the decision-relevant facts of a LUCON policy into a [CompiledPolicy].
+ *
+ * The compiler understands policies in which rule/1, has_target/2, has_endpoint/2,
+ * rule_priority/2, has_decision/2, has_obligation/2, has_alternativedecision/2 and
+ * requires_prerequisite/2 are ground facts, and receives_label/1 is defined by clauses whose bodies
+ * only consist of label/1 goals with ground arguments, combined by conjunction, disjunction and
+ * negation. For any other construct, compilation fails and decisions must be taken by tuProlog.
+ */
+object LuconPolicyCompiler : DecisionEngine {
+    private val LOG = LoggerFactory.getLogger(LuconPolicyCompiler::class.java)
+
+    override val name = "compiled"
+
+    /** Predicates which must consist of ground facts only. */
+    private val FACT_PREDICATES = setOf("rule/1", "has_target/2", "has_endpoint/2", "rule_priority/2",
+            "has_decision/2", "has_obligation/2", "has_alternativedecision/2", "requires_prerequisite/2")
+
+    private class UncompilableException(message: String) : Exception(message)
+
+    /**
+     * Compiles a policy.
+     *
+     * @param theory The policy as Prolog theory
+     * @return The compiled policy or null, if the policy uses constructs not supported by the compiler
+     */
+    fun compile(theory: String): CompiledPolicy? {
+        return try {
+            compile(LuconTheory.parse(theory))
+        } catch (e: InvalidTheoryException) {
+            LOG.info("Policy cannot be parsed by compiler, decisions will be taken by tuProlog: {}",
+                    e.message)
+            null
+        }
+    }
+
+    /**
+     * Compiles a parsed policy.
+     *
+     * @param theory The parsed policy
+     * @return The compiled policy or null, if the policy uses constructs not supported by the compiler
+     */
+    fun compile(theory: LuconTheory): CompiledPolicy? {
+        return try {
+            compileClauses(theory.clauses)
+        } catch (e: UncompilableException) {
+            LOG.info("Policy cannot be compiled, decisions will be taken by tuProlog: {}", e.message)
+            null
+        }
+    }
+
+    override fun prepare(theory: LuconTheory): PreparedPolicy? = compile(theory)
+
+    /**
+     * Compiles the body of a receives_label/1 clause that only consists of label/1 goals.
+     *
+     * @param body The body of the clause
+     * @return The compiled condition, or null if the body contains other goals
+     */
+    internal fun compileLabelCondition(body: Term): LabelCondition? {
+        return try {
+            compileCondition(body)
+        } catch (e: UncompilableException) {
+            null
+        }
+    }
+
+    private fun compileClauses(clauses: List<Struct>): CompiledPolicy {
+        val facts = HashMap<String, MutableList<Struct>>()
+        val labelConditions = HashMap<String, MutableList<LabelCondition>>()
+
+        for (clause in clauses) {
+            val head: Struct
+            val body: Term
+            if (clause.name == ":-" && clause.arity == 2) {
+                head = clause.getTerm(0) as? Struct ?: throw UncompilableException("Invalid clause $clause")
+                body = clause.getTerm(1)
+            } else if (clause.name == ":-" && clause.arity == 1) {
+                throw UncompilableException("Directive $clause")
+            } else {
+                head = clause
+                body = Term.TRUE
+            }
+            val indicator = head.name + "/" + head.arity
+            when {
+                indicator == "receives_label/1" -> {
+                    val rule = head.getTerm(0)
+                    if (!rule.isGround) {
+                        throw UncompilableException("Non-ground receives_label/1 head $head")
+                    }
+                    labelConditions.computeIfAbsent(rule.toString()) { ArrayList() }
+                            .add(compileCondition(body))
+                }
+                indicator == "label/1" ->
+                    throw UncompilableException("Static label/1 clause $clause")
+                FACT_PREDICATES.contains(indicator) -> {
+                    if (body != Term.TRUE && !(body is Struct && body.name == "true" && body.arity == 0)) {
+                        throw UncompilableException("$indicator is not a fact: $clause")
+                    }
+                    if (!head.isGround) {
+                        throw UncompilableException("$indicator is not ground: $clause")
+                    }
+                    facts.computeIfAbsent(indicator) { ArrayList() }.add(head)
+                }
+            }
+        }
+
+        val hasTarget = groupByFirst(facts["has_target/2"])
+        val hasEndpoint = groupByFirst(facts["has_endpoint/2"])
+        val rulePriority = groupByFirst(facts["rule_priority/2"])
+        val hasDecision = groupByFirst(facts["has_decision/2"])
+        val hasObligation = groupByFirst(facts["has_obligation/2"])
+        val hasAltDecision = groupByFirst(facts["has_alternativedecision/2"])
+        val requiresPrerequisite = groupByFirst(facts["requires_prerequisite/2"])
+
+        // Evaluate the decision query as far as it is independent of endpoint and labels
+        val targets = ArrayList<CompiledTarget>()
+        for (ruleFact in facts["rule/1"] ?: emptyList<Struct>()) {
+            val rule = ruleFact.getTerm(0).toString()
+            val conditions = labelConditions[rule] ?: continue
+            val priorities = rulePriority[rule] ?: continue
+            val outcomes = ArrayList<CompiledOutcome>()
+            hasDecision[rule]?.forEach { outcomes.add(CompiledOutcome(it.toString(), null, null)) }
+            hasObligation[rule]?.forEach { o ->
+                val obligation = o.toString()
+                hasAltDecision[obligation]?.forEach { alt ->
+                    requiresPrerequisite[obligation]?.forEach { action ->
+                        outcomes.add(CompiledOutcome(null, action.toString(), alt.toString()))
+                    }
+                }
+            }
+            if (outcomes.isEmpty()) {
+                continue
+            }
+            val solutions = ArrayList<DecisionSolution>(priorities.size * outcomes.size)
+            priorities.forEach { p ->
+                outcomes.forEach { o ->
+                    solutions.add(DecisionSolution(rule, p.toString(), o.decision, o.action, o.alternativeDecision))
+                }
+            }
+            val condition = LabelCondition.Or(conditions)
+            for (target in hasTarget[rule] ?: emptyList<Term>()) {
+                for (endpoint in hasEndpoint[target.toString()] ?: emptyList<Term>()) {
+                    // regex_match/2 fails for complex terms, so such targets will never match
+                    if (LuconLibrary.isComplex(endpoint)) {
+                        continue
+                    }
+                    val pattern = try {
+                        PatternCache.get(TuPrologHelper.unquote(endpoint.toString()))
+                    } catch (e: PatternSyntaxException) {
+                        throw UncompilableException("Invalid endpoint regex $endpoint")
+                    }
+                    targets.add(CompiledTarget(rule, pattern, condition, solutions))
+                }
+            }
+        }
+        LOG.debug("Compiled policy into {} decision targets", targets.size)
+        return CompiledPolicy(targets)
+    }
+
+    private fun groupByFirst(facts: List<Struct>?): Map<String, List<Term>> {
+        val result = HashMap<String, MutableList<Term>>()
+        facts?.forEach { result.computeIfAbsent(it.getTerm(0).toString()) { ArrayList() }.add(it.getTerm(1)) }
+        return result
+    }
+
+    private fun compileCondition(body: Term): LabelCondition {
+        val t = body.term
+        if (t !is Struct) {
+            throw UncompilableException("Unsupported receives_label/1 body $t")
+        }
+        return when {
+            t.name == "true" && t.arity == 0 -> LabelCondition.TRUE
+            (t.name == "fail" || t.name == "false") && t.arity == 0 -> LabelCondition.FALSE
+            t.name == "," && t.arity == 2 ->
+                LabelCondition.And(compileCondition(t.getTerm(0)), compileCondition(t.getTerm(1)))
+            t.name == ";" && t.arity == 2 -> {
+                val left = t.getTerm(0)
+                if (left is Struct && left.name == "->" && left.arity == 2) {
+                    throw UncompilableException("If-then-else in receives_label/1 body $t")
+                }
+                LabelCondition.Or(listOf(compileCondition(left), compileCondition(t.getTerm(1))))
+            }
+            (t.name == "\\+" || t.name == "not") && t.arity == 1 ->
+                LabelCondition.Not(compileCondition(t.getTerm(0)))
+            t.name == "label" && t.arity == 1 -> {
+                val label = t.getTerm(0)
+                if (label is Var || !label.isGround) {
+                    throw UncompilableException("Non-ground label in receives_label/1 body $t")
+                }
+                LabelCondition.Label(label.toString())
+            }
+            else -> throw UncompilableException("Unsupported goal in receives_label/1 body $t")
+        }
+    }
+
+    private class CompiledOutcome(val decision: String?, val action: String?, val alternativeDecision: String?)
+}
@@ -0,0 +1,143 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.InvalidTermException
+import alice.tuprolog.InvalidTheoryException
+import alice.tuprolog.Prolog
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import alice.tuprolog.Theory
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Immutable, versioned policy theory that is shared by all [LuconEngine] instances of a PDP.
+ *
+ * The policy text is parsed only once. Engines reference the shared theory and load its clauses
+ * when they notice a version they have not loaded yet (see [LuconEngine.syncTheory]), so replacing
+ * the shared theory propagates a policy update to all engines at once.
+ */
+class LuconTheory private constructor(
+        /** Version of this theory, unique within the JVM */
+        val version: Long,
+        /** The policy as Prolog text */
+        val source: String,
+        /** The parsed clauses of the policy, shared by all engines and never modified */
+        val clauses: List<Struct>,
+        /**
+         * Whether the policy contains directives. Directives might assert clauses or run goals when
+         * the policy is consulted, so such policies must be consulted as text by each engine.
+         */
+        val hasDirectives: Boolean) {
+
+    /**
+     * Matcher for the has_endpoint/2 facts, or null if they cannot be compiled. Directives might
+     * add facts when the policy is consulted, so policies with directives are never compiled.
+     */
+    val serviceMatcher: ServiceMatcher? by lazy { if (hasDirectives) null else ServiceMatcher.compile(clauses) }
+
+    /**
+     * The ground labels defined by the policy, i.e. the arguments of label/1 goals and the labels of
+     * creates_label/2 and removes_label/2 facts, in the order of their first occurrence.
+     */
+    val labels: Set<String> by lazy {
+        val result = LinkedHashSet<String>()
+        clauses.forEach { collectLabels(it, result) }
+        result
+    }
+
+    private fun collectLabels(t: Term, labels: MutableSet<String>) {
+        if (t !is Struct) {
+            return
+        }
+        val label = when {
+            t.name == "label" && t.arity == 1 -> t.getTerm(0)
+            (t.name == "creates_label" || t.name == "removes_label") && t.arity == 2 -> t.getTerm(1)
+            else -> null
+        }
+        if (label != null) {
+            if (label.isGround) {
+                labels.add(label.toString())
+            }
+            return
+        }
+        for (i in 0 until t.arity) {
+            collectLabels(t.getArg(i), labels)
+        }
+    }
+
+    companion object {
+        private val versionCounter = AtomicLong()
+
+        /** Engine providing the operators for parsing policies, its knowledge base is never used. */
+        private val parserEngine by lazy { Prolog() }
+
+        /** The empty theory */
+        val EMPTY = LuconTheory(versionCounter.incrementAndGet(), "", emptyList(), false)
+
+        /**
+         * Parses a policy into a new version of a shared theory.
+         *
+         * Operator directives (op/3) are rejected: all clauses are parsed with the operators of the
+         * shared parser engine, which must not be changed by a single policy, so an operator
+         * defined by the policy would silently be ignored for the clauses that follow it.
+         *
+         * @param source The policy as Prolog text
+         * @return The parsed theory
+         * @throws InvalidTheoryException If the policy is not valid or contains an op/3 directive
+         */
+        @Throws(InvalidTheoryException::class)
+        fun parse(source: String): LuconTheory {
+            val clauses = ArrayList<Struct>()
+            var hasDirectives = false
+            try {
+                Theory(source).iterator(parserEngine).forEach { t ->
+                    val clause = t.term as? Struct ?: throw InvalidTheoryException("Not a clause: $t")
+                    if (clause.name == ":-" && clause.arity == 1) {
+                        val goal = clause.getTerm(0)
+                        if (goal is Struct && goal.name == "op" && goal.arity == 3) {
+                            throw InvalidTheoryException(
+                                    "Operator directives are not supported: $clause (clause ${clauses.size + 1})")
+                        }
+                        hasDirectives = true
+                    }
+                    clauses.add(clause)
+                }
+            } catch (e: InvalidTermException) {
+                throw InvalidTheoryException(e.message, clauses.size + 1, e.line, e.pos)
+            }
+            return LuconTheory(versionCounter.incrementAndGet(), source, clauses, hasDirectives)
+        }
+
+        /**
+         * Merges separately parsed policy modules into a new version of a shared theory, without
+         * parsing them again. Clauses are kept in the order of the modules.
+         *
+         * @param modules The parsed modules
+         * @return The merged theory
+         */
+        fun merge(modules: Collection<LuconTheory>): LuconTheory {
+            return LuconTheory(versionCounter.incrementAndGet(),
+                    modules.joinToString("\n") { it.source },
+                    modules.flatMap { it.clauses },
+                    modules.any { it.hasDirectives })
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Process-wide cache of compiled regular expressions, shared by all engines and policies.
+ *
+ * Lookups of cached patterns neither lock nor allocate. The cache is bounded by the total length of
+ * the cached regexes. When the bound is exceeded, arbitrary entries are evicted until a quarter of
+ * the capacity is free again.
+ */
+object PatternCache {
+    /** Maximum total length of cached regexes */
+    const val MAX_WEIGHT = 1_000_000L
+
+    private val patterns = ConcurrentHashMap<String, Pattern>()
+    private val weight = AtomicLong()
+    private val hits = LongAdder()
+    private val misses = LongAdder()
+    private val evictions = LongAdder()
+    private val totalCompileNanos = LongAdder()
+
+    /** Statistics of the pattern cache */
+    data class Stats(
+            val size: Int,
+            val weight: Long,
+            val hits: Long,
+            val misses: Long,
+            val evictions: Long,
+            val totalCompileNanos: Long) {
+        /** Share of lookups answered from the cache */
+        val hitRate: Double
+            get() = if (hits + misses == 0L) 1.0 else hits.toDouble() / (hits + misses)
+
+        /** Mean time to compile a regex that was not cached */
+        val meanCompileNanos: Long
+            get() = if (misses == 0L) 0 else totalCompileNanos / misses
+    }
+
+    /**
+     * Returns the compiled pattern for a regex, compiling it if it is not cached.
+     *
+     * @param regex The regular expression
+     * @return The compiled pattern
+     * @throws PatternSyntaxException If the regex is invalid
+     */
+    @JvmStatic
+    fun get(regex: String): Pattern {
+        val cached = patterns[regex]
+        if (cached != null) {
+            hits.increment()
+            return cached
+        }
+        misses.increment()
+        val start = System.nanoTime()
+        val pattern = Pattern.compile(regex)
+        totalCompileNanos.add(System.nanoTime() - start)
+        if (patterns.putIfAbsent(regex, pattern) == null && weight.addAndGet(weigh(regex)) > MAX_WEIGHT) {
+            evict()
+        }
+        return pattern
+    }
+
+    val stats: Stats
+        get() = Stats(patterns.size, weight.get(), hits.sum(), misses.sum(), evictions.sum(),
+                totalCompileNanos.sum())
+
+    @Synchronized
+    private fun evict() {
+        val regexes = patterns.keys.iterator()
+        while (weight.get() > MAX_WEIGHT * 3 / 4 && regexes.hasNext()) {
+            val regex = regexes.next()
+            if (patterns.remove(regex) != null) {
+                weight.addAndGet(-weigh(regex))
+                evictions.increment()
+            }
+        }
+    }
+
+    private fun weigh(regex: String) = maxOf(regex.length, 1).toLong()
+}
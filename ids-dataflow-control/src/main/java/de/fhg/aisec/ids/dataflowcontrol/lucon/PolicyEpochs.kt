@@ -0,0 +1,194 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import de.fhg.aisec.ids.api.policy.TransformationDecision
+import org.slf4j.LoggerFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Immutable snapshot of everything a policy decision depends on.
+ *
+ * Readers [acquire][PolicyEpochs.acquire] an epoch before taking decisions and release it
+ * afterwards, so all decisions of a reader are taken against the same policy, even if another
+ * policy is published in the meantime. An epoch is retired as soon as it has been superseded and
+ * the last reader has released it.
+ *
+ * @param version Version of the epoch, increases with each published epoch
+ * @param theory The parsed policy theory
+ * @param preparedPolicy The policy as prepared by the decision engine, or null if decisions are taken
+ * by tuProlog
+ */
+class PolicyEpoch(val version: Long, val theory: LuconTheory, val preparedPolicy: PreparedPolicy?) {
+    /**
+     * Label transformations of registered endpoints under this epoch's policy. The table is
+     * discarded along with the epoch, so it never needs to be invalidated.
+     */
+    val transformations = EndpointTable<TransformationDecision>()
+
+    /** Number of readers, or -1 once the epoch is retired */
+    private val readers = AtomicInteger()
+    @Volatile
+    private var supersededAt = 0L
+    @Volatile
+    private var onRetire: ((PolicyEpoch, Long) -> Unit)? = null
+
+    /** Whether the epoch has been superseded and all of its readers are done */
+    val isRetired: Boolean
+        get() = readers.get() < 0
+
+    internal fun tryAcquire(): Boolean {
+        while (true) {
+            val count = readers.get()
+            if (count < 0) {
+                return false
+            }
+            if (readers.compareAndSet(count, count + 1)) {
+                return true
+            }
+        }
+    }
+
+    /** Releases the epoch after it has been acquired by [PolicyEpochs.acquire]. */
+    fun release() {
+        if (readers.decrementAndGet() == 0 && onRetire != null) {
+            tryRetire()
+        }
+    }
+
+    internal fun supersede(onRetire: (PolicyEpoch, Long) -> Unit) {
+        supersededAt = System.nanoTime()
+        this.onRetire = onRetire
+        tryRetire()
+    }
+
+    private fun tryRetire() {
+        // Exactly one of the last reader and the superseding thread wins
+        if (readers.compareAndSet(0, -1)) {
+            onRetire?.invoke(this, System.nanoTime() - supersededAt)
+        }
+    }
+}
+
+/**
+ * Publishes policy epochs. The active epoch is replaced by a single reference swap, readers never
+ * block and finish on the epoch they have acquired.
+ *
+ * @param initial The initially active epoch
+ * @param onRetire Called once for each superseded epoch, as soon as its last reader is done
+ */
+class PolicyEpochs(initial: PolicyEpoch, private val onRetire: (PolicyEpoch) -> Unit = {}) {
+    @Volatile
+    var current = initial
+        private set
+
+    private val swaps = LongAdder()
+    private val retirements = LongAdder()
+    private val lastSwapNanos = AtomicLong()
+    private val totalSwapNanos = LongAdder()
+    private val lastDrainNanos = AtomicLong()
+
+    /** Snapshot of the swap metrics. Times are in nanoseconds. */
+    data class Stats(
+            val version: Long,
+            val swaps: Long,
+            val retirements: Long,
+            val lastSwapNanos: Long,
+            val totalSwapNanos: Long,
+            val lastDrainNanos: Long) {
+        /** Number of superseded epochs still in use by readers */
+        val draining: Long
+            get() = swaps - retirements
+
+        /** Mean time from the start of a swap until the new epoch was published */
+        val meanSwapNanos: Long
+            get() = if (swaps == 0L) 0 else totalSwapNanos / swaps
+    }
+
+    /**
+     * Acquires the active epoch. The epoch must be released by the caller.
+     *
+     * @return The acquired epoch
+     */
+    fun acquire(): PolicyEpoch {
+        while (true) {
+            val epoch = current
+            if (epoch.tryAcquire()) {
+                return epoch
+            }
+            // The epoch has been retired after it was read, a newer one has already been published
+        }
+    }
+
+    /**
+     * Runs a function with the active epoch acquired.
+     *
+     * @param block Function to run, must not keep a reference to the epoch
+     * @return The result of the function
+     */
+    fun <T> withEpoch(block: (PolicyEpoch) -> T): T {
+        val epoch = acquire()
+        try {
+            return block(epoch)
+        } finally {
+            epoch.release()
+        }
+    }
+
+    /**
+     * Builds a new epoch and publishes it. The epoch is built while the previous epoch stays active,
+     * and swaps are serialized, so versions increase in publishing order.
+     *
+     * @param build Builds the new epoch from its version and the previous epoch
+     * @return The published epoch
+     */
+    @Synchronized
+    fun swap(build: (version: Long, previous: PolicyEpoch) -> PolicyEpoch): PolicyEpoch {
+        val start = System.nanoTime()
+        val previous = current
+        val next = build(previous.version + 1, previous)
+        require(next.version > previous.version) { "Epoch versions must increase" }
+        current = next
+        val time = System.nanoTime() - start
+        swaps.increment()
+        lastSwapNanos.set(time)
+        totalSwapNanos.add(time)
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Published policy epoch {} after {} ms", next.version, time / 1e6f)
+        }
+        previous.supersede { epoch, drainNanos ->
+            retirements.increment()
+            lastDrainNanos.set(drainNanos)
+            LOG.debug("Retired policy epoch {}", epoch.version)
+            onRetire(epoch)
+        }
+        return next
+    }
+
+    val stats: Stats
+        get() = Stats(current.version, swaps.sum(), retirements.sum(), lastSwapNanos.get(),
+                totalSwapNanos.sum(), lastDrainNanos.get())
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(PolicyEpochs::class.java)
+    }
+}
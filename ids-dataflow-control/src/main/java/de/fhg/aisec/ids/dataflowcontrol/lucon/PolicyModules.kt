@@ -0,0 +1,135 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.InvalidTheoryException
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+
+/**
+ * The Lucon policy modules of a directory, i.e. its files with the extension [EXTENSION].
+ *
+ * Each module is parsed on its own, so modules are parsed concurrently and a changed module is
+ * parsed again without touching the others. The policy is the [merge] of all modules in the order
+ * of their file names. A module that fails to parse keeps its previously parsed version.
+ *
+ * @param dir The directory containing the modules
+ * @param executor Executor parsing the modules
+ */
+class PolicyModules(val dir: File, private val executor: ExecutorService) {
+    private val modules = ConcurrentSkipListMap<String, LuconTheory>()
+
+    /** Names of the loaded modules, in merge order */
+    val names: List<String>
+        get() = modules.keys.toList()
+
+    /**
+     * Parses all modules of the directory concurrently.
+     *
+     * @return Whether any module has been loaded or removed
+     */
+    @Synchronized
+    fun loadAll(): Boolean {
+        val files = dir.listFiles { f -> isModule(f.name) }?.sortedBy { it.name } ?: emptyList()
+        val parsed = files.map { f -> f.name to executor.submit<LuconTheory?> { parse(f) } }
+        var changed = modules.keys.retainAll(files.map { it.name })
+        for ((name, future) in parsed) {
+            val theory = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                LOG.error("Error while loading policy module $name", e.cause)
+                null
+            }
+            if (theory != null) {
+                modules[name] = theory
+                changed = true
+            }
+        }
+        return changed
+    }
+
+    /**
+     * Parses the modules with the given file names again, removing modules whose files have been
+     * deleted. All other modules are left untouched.
+     *
+     * @param names File names of changed modules, other files are ignored
+     * @return Whether any module has been loaded or removed
+     */
+    @Synchronized
+    fun reload(names: Collection<String>): Boolean {
+        val parsed = names.filter { isModule(it) }.distinct().map { name ->
+            val f = File(dir, name)
+            name to if (f.isFile) executor.submit<LuconTheory?> { parse(f) } else null
+        }
+        var changed = false
+        for ((name, future) in parsed) {
+            if (future == null) {
+                if (modules.remove(name) != null) {
+                    LOG.info("Removed policy module {}", name)
+                    changed = true
+                }
+                continue
+            }
+            val theory = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                LOG.error("Error while reloading policy module $name", e.cause)
+                null
+            }
+            if (theory != null) {
+                modules[name] = theory
+                changed = true
+            }
+        }
+        return changed
+    }
+
+    /**
+     * Merges the loaded modules into a single theory.
+     *
+     * @return The merged theory, with a new version
+     */
+    fun merge(): LuconTheory = LuconTheory.merge(modules.values)
+
+    private fun parse(f: File): LuconTheory? {
+        return try {
+            LOG.info("Loading Lucon policy module from {}", f.absolutePath)
+            LuconTheory.parse(f.readText())
+        } catch (e: IOException) {
+            LOG.error("Cannot read policy module ${f.absolutePath}: ${e.message}")
+            null
+        } catch (e: InvalidTheoryException) {
+            LOG.error("Invalid policy module ${f.absolutePath}: ${e.message}")
+            null
+        }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(PolicyModules::class.java)
+        /** File extension of Lucon policy modules */
+        const val EXTENSION = ".pl"
+
+        fun isModule(name: String) = name.endsWith(EXTENSION)
+    }
+}
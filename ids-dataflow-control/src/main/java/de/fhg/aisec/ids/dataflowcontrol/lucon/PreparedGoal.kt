@@ -0,0 +1,107 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import alice.tuprolog.Var
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A Prolog goal that is parsed once and solved many times with different parameters.
+ *
+ * Parameters are named variables of the goal. For each call, [bind] creates a copy of the parsed
+ * goal in which the parameters are replaced by the given terms and all other variables are fresh,
+ * so the same prepared goal can be used by any number of engines concurrently.
+ *
+ * @param goal The goal as Prolog text, e.g. "regex_match(EP, Endpoint)."
+ * @param parameters Names of the variables to be replaced by [bind]
+ */
+class PreparedGoal(goal: String, private vararg val parameters: String) {
+    private val template: Term = Term.createTerm(goal)
+
+    init {
+        val names = HashSet<String>()
+        collectVariableNames(template, names)
+        parameters.forEach { require(names.contains(it)) { "Goal has no variable $it: $goal" } }
+    }
+
+    /**
+     * Creates a goal term ready to be solved.
+     *
+     * @param values The values of the parameters, in the order of the parameter names
+     * @return A copy of the goal with bound parameters
+     */
+    fun bind(vararg values: Term): Term {
+        require(values.size == parameters.size) { "Expected ${parameters.size} parameters" }
+        val bindings = HashMap<String, Term>(parameters.size * 4)
+        parameters.forEachIndexed { i, name -> bindings[name] = values[i] }
+        return copy(template, bindings)
+    }
+
+    override fun toString(): String {
+        return template.toString()
+    }
+
+    companion object {
+        private val groundTerms = ConcurrentHashMap<String, Term>()
+        private const val MAX_GROUND_TERMS = 10000
+
+        /** Creates an atom, equivalent to parsing the quoted string. */
+        fun atom(s: String): Term = Struct(s)
+
+        /**
+         * Creates a Prolog list of terms given in Prolog syntax. Ground terms are parsed once and
+         * shared, as tuProlog never modifies them during resolution.
+         */
+        fun termList(terms: Collection<String>): Term {
+            val parsed = terms.map { s ->
+                groundTerms[s] ?: Term.createTerm(s).also {
+                    if (it.isGround) {
+                        if (groundTerms.size >= MAX_GROUND_TERMS) {
+                            groundTerms.clear()
+                        }
+                        groundTerms[s] = it
+                    }
+                }
+            }
+            return parsed.asReversed().fold(Struct()) { list, t -> Struct(t, list) }
+        }
+
+        private fun collectVariableNames(t: Term, names: MutableSet<String>) {
+            when (t) {
+                is Var -> if (!t.isAnonymous) names.add(t.originalName)
+                is Struct -> for (i in 0 until t.arity) collectVariableNames(t.getArg(i), names)
+            }
+        }
+
+        private fun copy(t: Term, vars: MutableMap<String, Term>): Term {
+            return when (t) {
+                is Var -> if (t.isAnonymous) Var() else vars.getOrPut(t.originalName) { Var(t.originalName) }
+                is Struct -> if (t.arity == 0) {
+                    t
+                } else {
+                    Struct(t.name, Array(t.arity) { copy(t.getArg(it), vars) })
+                }
+                else -> t
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2018 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+/**
+ * Limits of the evaluation of a single Prolog query.
+ *
+ * tuProlog does not count inferences outside of spy mode, which would slow down every query, so
+ * the steps of a query are bounded by the number of solutions it may enumerate. The deadline also
+ * bounds queries that do not find any solution.
+ *
+ * @param timeoutMillis Maximum evaluation time in milliseconds, 0 for no limit
+ * @param maxSolutions Maximum number of solutions the query may enumerate, 0 for no limit
+ */
+class QueryBudget(val timeoutMillis: Long, val maxSolutions: Int) {
+
+    override fun toString() = "QueryBudget(timeoutMillis=$timeoutMillis, maxSolutions=$maxSolutions)"
+
+    companion object {
+        /** Budget without any limits */
+        @JvmField
+        val UNLIMITED = QueryBudget(0, 0)
+    }
+}
+
+/** Thrown if the evaluation of a query has exceeded its [QueryBudget]. */
+class BudgetExceededException(message: String) : RuntimeException(message)
@@ -0,0 +1,151 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol.lucon
+
+import alice.tuprolog.Struct
+import alice.tuprolog.Term
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheLoader
+import org.slf4j.LoggerFactory
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Matches actions against the endpoint regexes of all has_endpoint/2 facts of a policy at once.
+ *
+ * Regexes are partitioned by their literal prefix, so for an action only the regexes whose prefix
+ * is a prefix of the action are evaluated. Results are cached per action, as the matcher is
+ * immutable and actions (i.e. Camel endpoints) repeat.
+ */
+class ServiceMatcher private constructor(endpoints: List<Endpoint>) {
+
+    private class Endpoint(val index: Int, val service: Term, val pattern: Pattern)
+
+    /** Endpoints by literal prefix of their regex, in order of the has_endpoint/2 facts */
+    private val byPrefix: Map<String, List<Endpoint>> = endpoints.groupBy { literalPrefix(it.pattern.pattern()) }
+    private val prefixLengths = byPrefix.keys.map { it.length }.distinct().sorted().toIntArray()
+
+    private val resultCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build(object : CacheLoader<String, Term>() {
+                override fun load(action: String) = match(action)
+            })
+
+    /**
+     * Returns the services with an endpoint matching the given action.
+     *
+     * @param action The action, e.g. a Camel endpoint URI
+     * @return Prolog list of the matching services, in order (and with the multiplicity) of the
+     * has_endpoint/2 facts
+     */
+    fun services(action: String): Term = resultCache.getUnchecked(action)
+
+    private fun match(action: String): Term {
+        var candidates: List<Endpoint> = emptyList()
+        for (length in prefixLengths) {
+            if (length > action.length) {
+                break
+            }
+            val group = byPrefix[action.substring(0, length)] ?: continue
+            candidates = if (candidates.isEmpty()) group else candidates + group
+        }
+        return candidates
+                .sortedBy { it.index }
+                .filter { it.pattern.matcher(action).matches() }
+                .asReversed()
+                .fold(Struct()) { list, e -> Struct(e.service, list) }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(ServiceMatcher::class.java)
+        private const val META_CHARACTERS = "\\^$.|?*+()[]{}"
+
+        /**
+         * Compiles the has_endpoint/2 facts of a policy.
+         *
+         * @param clauses The clauses of the policy
+         * @return The matcher or null, if has_endpoint/2 is not defined by ground facts only
+         */
+        fun compile(clauses: List<Struct>): ServiceMatcher? {
+            val endpoints = ArrayList<Endpoint>()
+            for (clause in clauses) {
+                val isRule = clause.name == ":-" && clause.arity == 2
+                val head = if (isRule) clause.getTerm(0) else clause
+                if (head !is Struct || head.name != "has_endpoint" || head.arity != 2) {
+                    continue
+                }
+                if (isRule || !head.isGround) {
+                    LOG.debug("has_endpoint/2 is not defined by ground facts, cannot compile {}", clause)
+                    return null
+                }
+                // regex_match/2 fails for complex terms, so such endpoints never match
+                val regex = head.getTerm(1)
+                if (LuconLibrary.isComplex(regex)) {
+                    continue
+                }
+                val pattern = try {
+                    PatternCache.get(TuPrologHelper.unquote(regex.toString()))
+                } catch (e: PatternSyntaxException) {
+                    LOG.warn("Invalid endpoint regex {}, it will never match", regex)
+                    continue
+                }
+                endpoints.add(Endpoint(endpoints.size, head.getTerm(0), pattern))
+            }
+            return ServiceMatcher(endpoints)
+        }
+
+        /**
+         * Returns a string that is a prefix of every string matched by the given regex. The prefix
+         * is computed conservatively and may be shorter than possible, in particular it is empty
+         * for regexes with alternatives.
+         */
+        internal fun literalPrefix(regex: String): String {
+            if (regex.contains('|')) {
+                return ""
+            }
+            val prefix = StringBuilder()
+            var i = if (regex.startsWith("^")) 1 else 0
+            while (i < regex.length) {
+                var c = regex[i]
+                var next = i + 1
+                if (c == '\\') {
+                    // Escaped punctuation is literal, other escapes denote classes or quoting
+                    if (next >= regex.length || regex[next].isLetterOrDigit()) {
+                        break
+                    }
+                    c = regex[next]
+                    next++
+                } else if (META_CHARACTERS.indexOf(c) >= 0) {
+                    break
+                }
+                // A quantified character is optional or repeated
+                if (next < regex.length && "?*{".indexOf(regex[next]) >= 0) {
+                    break
+                }
+                prefix.append(c)
+                if (next < regex.length && regex[next] == '+') {
+                    break
+                }
+                i = next
+            }
+            return prefix.toString()
+        }
+    }
+}
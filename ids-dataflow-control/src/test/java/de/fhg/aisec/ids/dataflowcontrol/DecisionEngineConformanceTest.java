@@ -0,0 +1,318 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-dataflow-control
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.dataflowcontrol;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Sets;
+import de.fhg.aisec.ids.api.policy.*;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionEngine;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionEngines;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconTheory;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Conformance tests for the decision engines: Decisions and label transformations taken from a
+ * prepared policy must be identical to the ones taken by tuProlog.
+ */
+@RunWith(Parameterized.class)
+public class DecisionEngineConformanceTest {
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> engines() {
+    return Arrays.asList(
+        new Object[][] {{DecisionEngines.COMPILED.getName()}, {DecisionEngines.DATALOG.getName()}});
+  }
+
+  private final DecisionEngine engine;
+
+  public DecisionEngineConformanceTest(String engineName) {
+    this.engine = Objects.requireNonNull(DecisionEngines.get(engineName));
+  }
+
+  // Uses constructs the compiler does not support and must be evaluated by tuProlog
+  private static final String UNCOMPILABLE_POLICY =
+      "rule(allowNonPrivate).\n"
+          + "rule_priority(allowNonPrivate, 1).\n"
+          + "has_decision(allowNonPrivate, allow).\n"
+          + "receives_label(allowNonPrivate) :- \\+ (label(L), L == private).\n"
+          + "has_target(allowNonPrivate, serviceAll).\n"
+          + "service(serviceAll).\n"
+          + "has_endpoint(serviceAll, '.*').\n";
+
+  // Rules with conjunctions, disjunctions, negations and obligations
+  private static final String LABEL_LOGIC_POLICY =
+      "rule(denyAll).\n"
+          + "rule_priority(denyAll, 0).\n"
+          + "has_decision(denyAll, drop).\n"
+          + "receives_label(denyAll).\n"
+          + "has_target(denyAll, serviceAll).\n"
+          + "\n"
+          + "rule(allowPublic).\n"
+          + "rule_priority(allowPublic, 1).\n"
+          + "has_decision(allowPublic, allow).\n"
+          + "receives_label(allowPublic) :- label(public), \\+ label(private).\n"
+          + "receives_label(allowPublic) :- label(anonymized) ; label(purpose(green)).\n"
+          + "has_target(allowPublic, hadoop).\n"
+          + "has_target(allowPublic, logger).\n"
+          + "\n"
+          + "rule(deletePrivate).\n"
+          + "rule_priority(deletePrivate, 2).\n"
+          + "receives_label(deletePrivate) :- label(private), not(label(public)).\n"
+          + "has_target(deletePrivate, hadoop).\n"
+          + "has_obligation(deletePrivate, oblDelete).\n"
+          + "requires_prerequisite(oblDelete, delete_after_days(30)).\n"
+          + "has_alternativedecision(oblDelete, drop).\n"
+          + "\n"
+          + "service(serviceAll).\n"
+          + "has_endpoint(serviceAll, '.*').\n"
+          + "service(hadoop).\n"
+          + "has_endpoint(hadoop, \"^hdfs://.*\").\n"
+          + "service(logger).\n"
+          + "has_endpoint(logger, \"^log:.*\").\n";
+
+  // Targets and rules derived by (recursive) rules and negation, only supported by Datalog
+  private static final String RECURSIVE_POLICY =
+      "rule(denyAll).\n"
+          + "rule_priority(denyAll, 0).\n"
+          + "has_decision(denyAll, drop).\n"
+          + "receives_label(denyAll).\n"
+          + "has_target(denyAll, serviceAll).\n"
+          + "\n"
+          + "rule(allowStorage).\n"
+          + "rule_priority(allowStorage, 1).\n"
+          + "has_decision(allowStorage, allow).\n"
+          + "rule_group(allowStorage, storage).\n"
+          + "receives_label(allowStorage) :- label(public), \\+ label(private).\n"
+          + "receives_label(allowStorage) :- \\+ sensitive_rule(allowStorage), label(anonymized).\n"
+          + "\n"
+          + "rule(deleteSensitive).\n"
+          + "rule_priority(deleteSensitive, 2).\n"
+          + "rule_group(deleteSensitive, storage).\n"
+          + "receives_label(R) :- sensitive_rule(R), label(private).\n"
+          + "has_obligation(deleteSensitive, oblDelete).\n"
+          + "requires_prerequisite(oblDelete, delete_after_days(30)).\n"
+          + "has_alternativedecision(oblDelete, drop).\n"
+          + "\n"
+          + "has_target(R, S) :- rule_group(R, G), contains_service(G, S).\n"
+          + "sensitive_rule(R) :- rule_group(R, G), contains_service(G, hadoop).\n"
+          + "contains_service(G, S) :- member_of(S, G).\n"
+          + "contains_service(G, S) :- subgroup(G, G2), contains_service(G2, S).\n"
+          + "subgroup(storage, hdfs_storage).\n"
+          + "subgroup(hdfs_storage, archive).\n"
+          + "member_of(hadoop, hdfs_storage).\n"
+          + "member_of(logger, archive).\n"
+          + "\n"
+          + "service(serviceAll).\n"
+          + "has_endpoint(serviceAll, '.*').\n"
+          + "service(hadoop).\n"
+          + "has_endpoint(hadoop, \"^hdfs://.*\").\n"
+          + "creates_label(hadoop, stored).\n"
+          + "service(logger).\n"
+          + "has_endpoint(logger, \"^log:.*\").\n"
+          + "creates_label(S, logged) :- contains_service(storage, S), S \\== hadoop.\n"
+          + "removes_label(logger, private).\n";
+
+  // Two matching rules with different reasons, the first rule/1 clause is derived after the second
+  private static final String RULE_ORDER_POLICY =
+      "rule(allowLogged) :- rule(dropArchived).\n"
+          + "rule_priority(allowLogged, 1).\n"
+          + "has_decision(allowLogged, allow).\n"
+          + "receives_label(allowLogged).\n"
+          + "has_target(allowLogged, serviceAll).\n"
+          + "\n"
+          + "rule(dropArchived).\n"
+          + "rule_priority(dropArchived, 1).\n"
+          + "has_decision(dropArchived, drop).\n"
+          + "receives_label(dropArchived).\n"
+          + "has_target(dropArchived, serviceAll).\n"
+          + "\n"
+          + "service(serviceAll).\n"
+          + "has_endpoint(serviceAll, '.*').\n";
+
+  private static final List<String> ENDPOINTS =
+      Arrays.asList(
+          "hdfs://some_url",
+          "hdfs://IAmMatchedByBothRules",
+          "ahc://some_url",
+          "log:info",
+          "paho:tcp://broker.hivemq.com:1883/blablubb",
+          "amqp:testQueue:test",
+          "hello_anonymizer_world",
+          "bean://SanitizerBean",
+          "someendpointwhichisnotmatchedbypolicy");
+
+  private static final List<String> LABELS =
+      Arrays.asList(
+          "private", "public", "filtered", "unfiltered", "anonymized", "purpose(green)", "other");
+
+  @Test
+  public void testSupportedSamplePolicies() {
+    assertNotNull(prepare(LuconEngineTest.EXAMPLE_POLICY));
+    assertNotNull(prepare(LuconEngineTest.EXTENDED_LABELS_POLICY));
+    assertNotNull(prepare(LABEL_LOGIC_POLICY));
+    assertNotNull(prepare(loadExamplePolicy()));
+    assertNull(prepare(UNCOMPILABLE_POLICY));
+    // Only Datalog evaluates rules
+    assertEquals(engine == DecisionEngines.DATALOG, prepare(RECURSIVE_POLICY) != null);
+  }
+
+  @Test
+  public void testExamplePolicyConformance() {
+    assertConformance(LuconEngineTest.EXAMPLE_POLICY);
+  }
+
+  @Test
+  public void testExtendedLabelsPolicyConformance() {
+    assertConformance(LuconEngineTest.EXTENDED_LABELS_POLICY);
+  }
+
+  @Test
+  public void testRulePrioritiesConformance() {
+    assertConformance(loadExamplePolicy());
+  }
+
+  @Test
+  public void testLabelLogicConformance() {
+    assertConformance(LABEL_LOGIC_POLICY);
+  }
+
+  @Test
+  public void testRecursiveRulesConformance() {
+    assertConformance(RECURSIVE_POLICY);
+  }
+
+  @Test
+  public void testRuleOrderConformance() {
+    assertConformance(RULE_ORDER_POLICY);
+    // The reason is the last deciding rule in the order of the rule/1 clauses
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.setDecisionEngine(engine);
+    pdp.loadPolicy(RULE_ORDER_POLICY);
+    PolicyDecision decision = decide(pdp, "hdfs://some_url", Collections.emptySet());
+    assertEquals(PolicyDecision.Decision.ALLOW, decision.getDecision());
+    assertEquals("dropArchived", decision.getReason());
+  }
+
+  @Test
+  public void testUncompilableFallback() {
+    assertConformance(UNCOMPILABLE_POLICY);
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.setDecisionEngine(engine);
+    pdp.loadPolicy(UNCOMPILABLE_POLICY);
+    assertEquals(
+        PolicyDecision.Decision.ALLOW,
+        decide(pdp, "hdfs://some_url", Sets.newHashSet("public")).getDecision());
+    assertEquals(
+        PolicyDecision.Decision.DENY,
+        decide(pdp, "hdfs://some_url", Sets.newHashSet("private")).getDecision());
+  }
+
+  private Object prepare(String policy) {
+    try {
+      return engine.prepare(LuconTheory.Companion.parse(policy));
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Compares decisions of the prepared policy with decisions taken by tuProlog for all
+   * combinations of sample endpoints and up to two sample labels, and the label transformations of
+   * the sample endpoints.
+   */
+  private void assertConformance(String policy) {
+    PolicyDecisionPoint compiled = new PolicyDecisionPoint();
+    compiled.setDecisionEngine(engine);
+    compiled.loadPolicy(policy);
+    PolicyDecisionPoint prolog = new PolicyDecisionPoint();
+    prolog.setDecisionEngine(DecisionEngines.PROLOG);
+    prolog.loadPolicy(policy);
+
+    for (String endpoint : ENDPOINTS) {
+      ServiceNode node = new ServiceNode(endpoint, null, null);
+      TransformationDecision expectedTransformation = prolog.requestTranformations(node);
+      TransformationDecision actualTransformation = compiled.requestTranformations(node);
+      assertEquals(
+          endpoint,
+          expectedTransformation.getLabelsToAdd(),
+          actualTransformation.getLabelsToAdd());
+      assertEquals(
+          endpoint,
+          expectedTransformation.getLabelsToRemove(),
+          actualTransformation.getLabelsToRemove());
+      for (Set<String> labels : labelCombinations()) {
+        PolicyDecision expected = decide(prolog, endpoint, labels);
+        PolicyDecision actual = decide(compiled, endpoint, labels);
+        String msg = endpoint + " " + labels;
+        assertEquals(msg, expected.getDecision(), actual.getDecision());
+        assertEquals(msg, expected.getReason(), actual.getReason());
+        assertEquals(msg, obligationActions(expected), obligationActions(actual));
+      }
+    }
+  }
+
+  private static PolicyDecision decide(PolicyDecisionPoint pdp, String endpoint, Set<String> labels) {
+    Map<String, Object> msgCtx = new HashMap<>();
+    msgCtx.put(PDP.LABELS_KEY, new HashSet<>(labels));
+    return pdp.requestDecision(
+        new DecisionRequest(
+            new ServiceNode("seda:test_source", null, null),
+            new ServiceNode(endpoint, null, null),
+            msgCtx,
+            null));
+  }
+
+  /**
+   * tuProlog may return the same obligation multiple times, because labels are asserted once per
+   * matching target. We only compare distinct obligations in order of occurrence.
+   */
+  private static List<String> obligationActions(PolicyDecision dec) {
+    return dec.getObligations()
+        .stream()
+        .map(o -> o.getAction() + "/" + o.getAlternativeDecision())
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  private static List<Set<String>> labelCombinations() {
+    List<Set<String>> result = new ArrayList<>();
+    result.add(Collections.emptySet());
+    for (int i = 0; i < LABELS.size(); i++) {
+      result.add(Collections.singleton(LABELS.get(i)));
+      for (int j = i + 1; j < LABELS.size(); j++) {
+        result.add(Sets.newHashSet(LABELS.get(i), LABELS.get(j)));
+      }
+    }
+    return result;
+  }
+
+  private String loadExamplePolicy() {
+    InputStream policy = this.getClass().getClassLoader().getResourceAsStream("policy-example.pl");
+    assertNotNull(policy);
+    return new Scanner(policy, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next();
+  }
+}
@@ -28,19 +28,47 @@ import alice.tuprolog.InvalidTheoryException;
 import alice.tuprolog.MalformedGoalException;
 import alice.tuprolog.NoSolutionException;
 import alice.tuprolog.SolveInfo;
+import alice.tuprolog.Term;
 import com.google.common.collect.Sets;
 import de.fhg.aisec.ids.api.policy.*;
 import de.fhg.aisec.ids.api.policy.PolicyDecision.Decision;
+import de.fhg.aisec.ids.api.router.CounterExample;
 import de.fhg.aisec.ids.api.router.RouteManager;
 import de.fhg.aisec.ids.api.router.RouteVerificationProof;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.DecisionEngines;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconCache;
 import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEngine;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconEnginePool;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.LuconTheory;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PatternCache;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PolicyEpoch;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PolicyEpochs;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.PreparedGoal;
+import de.fhg.aisec.ids.dataflowcontrol.lucon.QueryBudget;
+import java.io.File;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import kotlin.Unit;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -57,7 +85,7 @@ public class LuconEngineTest {
           + "move(N,X,Y,Z) :- N>1, M is N-1, move(M,X,Z,Y), move(1,X,Y,_), move(M,Z,Y,X). ";
 
   // A random but syntactically correct policy.
-  private static final String EXAMPLE_POLICY =
+  static final String EXAMPLE_POLICY =
       "\n"
           + "%%%%%%%% Rules %%%%%%%%%%%%\n"
           + "rule(denyAll).\n"
@@ -122,7 +150,7 @@ public class LuconEngineTest {
           + "has_endpoint(testQueueService, \"^amqp:.*?:test\").";
 
   // Policy with extended labels, i.e. "purpose(green)"
-  private static final String EXTENDED_LABELS_POLICY =
+  static final String EXTENDED_LABELS_POLICY =
       ""
           + "%%%%%%%% Rules %%%%%%%%%%%%\n"
           + "rule(denyAll).\n"
@@ -212,6 +240,19 @@ public class LuconEngineTest {
     fail("Could load invalid theory without exception");
   }
 
+  /** Operator directives would be ignored by the shared parser, so they are rejected. */
+  @Test
+  public void testOperatorDirectiveRejected() throws InvalidTheoryException {
+    try {
+      LuconTheory.Companion.parse(":- op(700, xfx, flows_to).\nrule(r1).\nr1 flows_to hdfs.");
+      fail("Could parse a theory with an operator directive");
+    } catch (InvalidTheoryException ex) {
+      assertTrue(ex.getMessage().contains("op(700,xfx,flows_to)"));
+    }
+    // Other directives are still accepted
+    assertTrue(LuconTheory.Companion.parse(":- dynamic(label/1).\nrule(r1).").getHasDirectives());
+  }
+
   /**
    * Solve a simple Prolog puzzle.
    *
@@ -261,6 +302,26 @@ public class LuconEngineTest {
     }
   }
 
+  @Test
+  public void testPreparedGoal() throws InvalidTheoryException, NoSolutionException {
+    LuconEngine e = new LuconEngine(System.out);
+    e.loadPolicy(EXAMPLE_POLICY);
+    PreparedGoal goal =
+        new PreparedGoal("has_endpoint(X, Y), regex_match(Y, Endpoint), member(X, Services)",
+            "Endpoint", "Services");
+    Term services =
+        PreparedGoal.Companion.termList(Arrays.asList("serviceAll", "hadoopClustersService"));
+
+    // The same prepared goal must be usable repeatedly with different parameters
+    List<SolveInfo> solutions =
+        e.query(goal.bind(PreparedGoal.Companion.atom("hdfs://myendpoint"), services), true);
+    assertEquals(2, solutions.size());
+    assertEquals("hadoopClustersService", solutions.get(1).getVarValue("X").toString());
+    solutions = e.query(goal.bind(PreparedGoal.Companion.atom("ahc://myendpoint"), services), true);
+    assertEquals(1, solutions.size());
+    assertEquals("serviceAll", solutions.get(0).getVarValue("X").toString());
+  }
+
   /**
    * Test if the correct policy decisions are taken for a (very) simple route and an example policy.
    */
@@ -313,6 +374,473 @@ public class LuconEngineTest {
     assertEquals(0, dec.getObligations().size());
   }
 
+  /** Test that path decisions equal the decisions and transformations of the single hops. */
+  @Test
+  public void testPathDecisions() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicies();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+
+    List<ServiceNode> path =
+        Arrays.asList(
+            new ServiceNode("paho:tcp://broker.hivemq.com:1883/blablubb", null, null),
+            new ServiceNode("hdfs://some_url", null, null),
+            new ServiceNode("ahc://some_url", null, null),
+            new ServiceNode("log:info", null, null));
+    DecisionPlan plan = pdp.requestPathDecisions(path, Sets.newHashSet("labeltwo"));
+
+    // Evaluation stops at the denied hop to ahc://some_url
+    assertEquals(2, plan.getHops().size());
+    HopDecision first = plan.getHops().get(0);
+    assertEquals(Sets.newHashSet("labeltwo"), first.getLabels());
+    assertEquals(Sets.newHashSet("labelone", "private"), first.getTransformation().getLabelsToAdd());
+    assertEquals(Sets.newHashSet("labeltwo"), first.getTransformation().getLabelsToRemove());
+    assertEquals(Decision.ALLOW, first.getDecision().getDecision());
+    HopDecision second = plan.getHops().get(1);
+    assertEquals(Sets.newHashSet("labelone", "private"), second.getLabels());
+    assertEquals(Decision.DENY, second.getDecision().getDecision());
+
+    // Plan lookup requires matching labels
+    String from = path.get(0).getEndpoint();
+    String to = path.get(1).getEndpoint();
+    assertSame(first, plan.getHop(from, to, Sets.newHashSet("labeltwo")));
+    assertNull(plan.getHop(from, to, Sets.newHashSet("labelone")));
+    assertSame(first, plan.getHop(path.get(0), path.get(1), Sets.newHashSet("labeltwo")));
+
+    // Hops between registered endpoints are looked up by the ids of their endpoints
+    ServiceNode source = ServiceNode.register(from);
+    ServiceNode target = ServiceNode.register(to);
+    DecisionPlan registered =
+        pdp.requestPathDecisions(Arrays.asList(source, target), Sets.newHashSet("labeltwo"));
+    assertSame(
+        registered.getHops().get(0),
+        registered.getHop(ServiceNode.register(from), target, LabelSet.of("labeltwo")));
+    assertNull(registered.getHop(target, source, LabelSet.of("labeltwo")));
+  }
+
+  /** Test that decisions are cached per endpoint and label set and invalidated on policy change. */
+  @Test
+  public void testDecisionCache() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicies();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    long version = pdp.getDecisionCacheStats().getPolicyVersion();
+
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    ServiceNode dest = new ServiceNode("ahc://some_url", null, null);
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, Sets.newLinkedHashSet(Arrays.asList("private", "public")));
+    PolicyDecision dec = pdp.requestDecision(new DecisionRequest(source, dest, attributes, null));
+
+    // Same label set in different order must hit the cache
+    attributes.put(PDP.LABELS_KEY, Sets.newLinkedHashSet(Arrays.asList("public", "private")));
+    assertSame(dec, pdp.requestDecision(new DecisionRequest(source, dest, attributes, null)));
+    DecisionCacheStats stats = pdp.getDecisionCacheStats();
+    assertEquals(1, stats.getHits());
+    assertEquals(1, stats.getMisses());
+    assertEquals(1, stats.getSize());
+
+    // Loading a policy must invalidate cached decisions
+    pdp.loadPolicy(EXTENDED_LABELS_POLICY);
+    stats = pdp.getDecisionCacheStats();
+    assertTrue(stats.getPolicyVersion() > version);
+    assertEquals(0, stats.getSize());
+    assertNotSame(dec, pdp.requestDecision(new DecisionRequest(source, dest, attributes, null)));
+
+    // Clearing caches must invalidate cached decisions
+    pdp.clearAllCaches();
+    assertEquals(0, pdp.getDecisionCacheStats().getSize());
+  }
+
+  /** Test that warmed caches answer the decisions of all reachable label sets. */
+  @Test
+  public void testCacheWarmUp() throws Exception {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    ServiceNode broker = ServiceNode.register("paho:tcp://broker.hivemq.com:1883/warmup");
+    ServiceNode hdfs = ServiceNode.register("hdfs://warmup");
+    pdp.warmCaches(List.of(broker, hdfs, hdfs));
+
+    CacheWarmUpProgress progress = pdp.getCacheWarmUpProgress();
+    for (int i = 0; i < 500 && (progress.isRunning() || progress.getPending() > 0); i++) {
+      Thread.sleep(10);
+      progress = pdp.getCacheWarmUpProgress();
+    }
+    assertFalse(progress.isRunning());
+    assertFalse(progress.isAborted());
+    assertEquals(pdp.getPolicyVersion(), progress.getPolicyVersion());
+    assertEquals(2, progress.getEndpoints());
+    // No labels and the labels created by the broker
+    assertEquals(2, progress.getLabelSets());
+    assertEquals(6, progress.getTotal());
+    assertEquals(6, progress.getCompleted());
+
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, pdp.requestTranformations(broker).apply(LabelSet.EMPTY));
+    long hits = pdp.getDecisionCacheStats().getHits();
+    pdp.requestDecision(new DecisionRequest(broker, hdfs, attributes, null));
+    assertEquals(hits + 1, pdp.getDecisionCacheStats().getHits());
+  }
+
+  /** Test that nodes with registered endpoints are looked up by id and decided like others. */
+  @Test
+  public void testRegisteredEndpoints() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    String endpoint = "paho:tcp://broker.hivemq.com:1883/registered";
+    ServiceNode unregistered = new ServiceNode(endpoint, null, null);
+    assertEquals(EndpointRegistry.NO_ID, unregistered.getEndpointId());
+    ServiceNode registered = ServiceNode.register(endpoint);
+    assertNotEquals(EndpointRegistry.NO_ID, registered.getEndpointId());
+    assertEquals(registered.getEndpointId(), EndpointRegistry.register(endpoint));
+    assertEquals(endpoint, EndpointRegistry.getEndpoint(registered.getEndpointId()));
+    assertEquals(registered, new ServiceNode(endpoint, null, null));
+
+    // Transformations of registered endpoints are kept in the table of the policy epoch
+    TransformationDecision trans = pdp.requestTranformations(registered);
+    assertSame(trans, pdp.requestTranformations(new ServiceNode(endpoint, null, null)));
+    assertEquals(
+        pdp.requestTranformations(unregistered).getLabelsToAdd(), trans.getLabelsToAdd());
+    DecisionMetrics metrics = pdp.getDecisionMetrics();
+    assertEquals(1, metrics.getTransformationCacheHits());
+    assertEquals(2, metrics.getTransformationCacheMisses());
+
+    // Decisions for registered endpoints equal those for unregistered ones
+    ServiceNode source = ServiceNode.register("seda:test_source");
+    ServiceNode dest = ServiceNode.register("hdfs://some_url");
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, Sets.newHashSet("private"));
+    PolicyDecision dec = pdp.requestDecision(new DecisionRequest(source, dest, attributes, null));
+    assertEquals(Decision.ALLOW, dec.getDecision());
+    assertSame(dec, pdp.requestDecision(new DecisionRequest(source, dest, attributes, null)));
+
+    // Loading a policy starts with an empty transformation table
+    pdp.loadPolicy(EXTENDED_LABELS_POLICY);
+    assertNotSame(trans, pdp.requestTranformations(registered));
+  }
+
+  /** Test label set operations and their compatibility with sets of strings. */
+  @Test
+  public void testLabelSet() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    // Labels of the loaded policy are registered
+    assertNotEquals(LabelRegistry.NO_ID, LabelRegistry.lookup("labelone"));
+    assertNotEquals(LabelRegistry.NO_ID, LabelRegistry.lookup("labeltwo"));
+
+    LabelSet labels = LabelSet.of("labeltwo", "unknown_label_" + System.nanoTime());
+    assertEquals(2, labels.size());
+    assertTrue(labels.contains("labeltwo"));
+    assertFalse(labels.contains("labelone"));
+    assertSame(labels, LabelSet.of(labels));
+    assertEquals(LabelSet.of(new ArrayList<>(labels)), labels);
+    assertEquals(new HashSet<>(labels), labels);
+    assertEquals(labels, new HashSet<>(labels));
+    assertEquals(new HashSet<>(labels).hashCode(), labels.hashCode());
+    assertSame(LabelSet.EMPTY, LabelSet.of(Collections.emptySet()));
+    try {
+      labels.add("labelone");
+      fail("Label sets must be immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    // Transformations are bitwise operations
+    TransformationDecision trans =
+        pdp.requestTranformations(
+            new ServiceNode("paho:tcp://broker.hivemq.com:1883/blablubb", null, null));
+    LabelSet transformed = trans.apply(labels);
+    assertEquals(3, transformed.size());
+    assertTrue(transformed.containsAll(Arrays.asList("labelone", "private")));
+    assertFalse(transformed.contains("labeltwo"));
+    assertEquals(labels, labels.union(LabelSet.EMPTY));
+    assertSame(labels, labels.difference(LabelSet.of("labelone")));
+    assertEquals(LabelSet.EMPTY, labels.difference(labels));
+    assertTrue(labels.difference(labels).isEmpty());
+  }
+
+  /** Only labels of loaded policies are registered, other labels are kept as strings. */
+  @Test
+  public void testUnknownLabelsNotRegistered() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    String unknown = "message_label_" + System.nanoTime();
+    int registered = LabelRegistry.size();
+    LabelSet labels = LabelSet.of(unknown, "labelone");
+    assertEquals(registered, LabelRegistry.size());
+    assertEquals(LabelRegistry.NO_ID, LabelRegistry.lookup(unknown));
+    assertEquals(2, labels.size());
+    assertTrue(labels.contains(unknown));
+
+    // A policy using the label registers it, sets created before are still equal to new sets
+    pdp.loadPolicy(EXAMPLE_POLICY + "\nlabel_probe :- label(" + unknown + ").\n");
+    assertNotEquals(LabelRegistry.NO_ID, LabelRegistry.lookup(unknown));
+    LabelSet registeredLabels = LabelSet.of(unknown, "labelone");
+    assertTrue(labels.contains(unknown));
+    assertEquals(registeredLabels, labels);
+    assertEquals(labels, registeredLabels);
+    assertEquals(registeredLabels.hashCode(), labels.hashCode());
+    assertEquals(2, labels.union(registeredLabels).size());
+    assertEquals(LabelSet.of("labelone"), labels.difference(LabelSet.of(unknown)));
+  }
+
+  /** Test removing labels of a set created before the labels were registered. */
+  @Test
+  public void testDifferenceWithSetCreatedBeforeRegistration() {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    String unknown = "message_label_" + System.nanoTime();
+    LabelSet remove = LabelSet.of(unknown);
+
+    // The label is a bit of sets created from now on, but still a string of the set to remove
+    pdp.loadPolicy(EXAMPLE_POLICY + "\nlabel_probe :- label(" + unknown + ").\n");
+    LabelSet labels = LabelSet.of(unknown, "labelone");
+    assertEquals(LabelSet.of("labelone"), labels.difference(remove));
+    assertFalse(labels.difference(remove).contains(unknown));
+    assertEquals(LabelSet.of("labelone"), labels.transform(remove, LabelSet.EMPTY));
+  }
+
+  /** Test that decision latencies and cache counters are recorded and published via JMX. */
+  @Test
+  public void testDecisionMetrics() throws Exception {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    for (String endpoint : Arrays.asList("hdfs://some_url?a=1", "hdfs://some_url?a=2", "ahc://x")) {
+      for (int i = 0; i < 2; i++) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(PDP.LABELS_KEY, Sets.newHashSet("private"));
+        pdp.requestDecision(
+            new DecisionRequest(source, new ServiceNode(endpoint, null, null), attributes, null));
+      }
+      pdp.requestTranformations(new ServiceNode(endpoint, null, null));
+    }
+
+    DecisionMetrics metrics = pdp.getDecisionMetrics();
+    assertEquals(3, metrics.getDecisionCacheHits());
+    assertEquals(3, metrics.getDecisionCacheMisses());
+    assertEquals(3, metrics.getTransformationCacheMisses());
+    // Latencies of evaluated decisions by endpoint without query parameters
+    assertEquals(2, metrics.getLatencies().size());
+    DecisionLatency ahc = metrics.getLatencies().get(0);
+    assertEquals("ahc://x", ahc.getEndpoint());
+    assertEquals("DENY", ahc.getOutcome());
+    assertEquals(1, ahc.getCount());
+    DecisionLatency hdfs = metrics.getLatencies().get(1);
+    assertEquals("hdfs://some_url", hdfs.getEndpoint());
+    assertEquals("ALLOW", hdfs.getOutcome());
+    assertEquals(2, hdfs.getCount());
+    assertTrue(hdfs.getP50Nanos() > 0 && hdfs.getP99Nanos() <= hdfs.getMaxNanos());
+
+    // Metrics are readable via JMX
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(PolicyDecisionPointMXBean.OBJECT_NAME + ",test=metrics");
+    server.registerMBean(pdp, name);
+    try {
+      CompositeData data = (CompositeData) server.getAttribute(name, "DecisionMetrics");
+      assertEquals(3L, data.get("decisionCacheHits"));
+      assertEquals(2, ((CompositeData[]) data.get("latencies")).length);
+      server.invoke(name, "resetDecisionMetrics", null, null);
+      assertTrue(pdp.getDecisionMetrics().getLatencies().isEmpty());
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  /** Test the accuracy of latency percentiles. */
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentile(50));
+    for (long i = 1; i <= 100000; i++) {
+      histogram.record(i * 1000);
+    }
+    assertEquals(100000, histogram.getCount());
+    assertEquals(100000000, histogram.getMaxNanos());
+    for (double p : new double[] {50, 90, 99, 99.9}) {
+      double expected = p * 1000000;
+      assertEquals(expected, histogram.percentile(p), expected / LatencyHistogram.SUB_BUCKETS);
+    }
+    assertEquals(100000000, histogram.percentile(100));
+  }
+
+  /** Test that a policy loaded by one thread is used by the engines of all other threads. */
+  @Test
+  public void testPolicyPropagation() throws Exception {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.loadPolicies();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // Create engine of the other thread before the policy is loaded
+      assertTrue(executor.submit(pdp::listRules).get().isEmpty());
+
+      pdp.loadPolicy(EXAMPLE_POLICY);
+      assertEquals(4, executor.submit(pdp::listRules).get().size());
+
+      pdp.loadPolicy(EXTENDED_LABELS_POLICY);
+      assertEquals(2, executor.submit(pdp::listRules).get().size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Test that decisions are taken correctly by many threads sharing a small engine pool. */
+  @Test
+  public void testEnginePool() throws Exception {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.configureEnginePool(2, 10000);
+    pdp.setDecisionEngine(DecisionEngines.PROLOG);
+    pdp.loadPolicy(EXAMPLE_POLICY);
+
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<PolicyDecision>> decisions = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        // Different label sets per request to bypass the decision cache
+        String endpoint = i % 2 == 0 ? "hdfs://some_url" : "ahc://some_url";
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(PDP.LABELS_KEY, Sets.newHashSet("private", "label" + i));
+        DecisionRequest req =
+            new DecisionRequest(source, new ServiceNode(endpoint, null, null), attributes, null);
+        decisions.add(executor.submit(() -> pdp.requestDecision(req)));
+      }
+      for (int i = 0; i < decisions.size(); i++) {
+        PolicyDecision dec = decisions.get(i).get();
+        assertEquals(i % 2 == 0 ? Decision.ALLOW : Decision.DENY, dec.getDecision());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    LuconEnginePool.Stats stats = pdp.getEnginePoolStats();
+    assertNotNull(stats);
+    assertEquals(2, stats.getSize());
+    assertEquals(0, stats.getInUse());
+    assertEquals(0, stats.getTimeouts());
+    assertTrue(stats.getCheckouts() >= 64);
+  }
+
+  /** Tests that policies are loaded without waiting for pooled engines. */
+  @Test
+  public void testLoadPolicyWithExhaustedPool() throws Exception {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.configureEnginePool(1, 10000);
+    pdp.setDecisionEngine(DecisionEngines.PROLOG);
+    Field f = pdp.getClass().getDeclaredField("enginePool");
+    f.setAccessible(true);
+    LuconEnginePool pool = (LuconEnginePool) f.get(pdp);
+    long version = pdp.getPolicyVersion();
+    long start = System.nanoTime();
+    pool.withEngine(
+        e -> {
+          assertNull(pool.tryWithEngine(other -> other));
+          pdp.loadPolicy(EXAMPLE_POLICY);
+          return null;
+        });
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(version + 1, pdp.getPolicyVersion());
+
+    // The pooled engine loads the policy before its next query
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, Sets.newHashSet("private"));
+    DecisionRequest req =
+        new DecisionRequest(
+            source, new ServiceNode("hdfs://some_url", null, null), attributes, null);
+    assertEquals(Decision.ALLOW, pdp.requestDecision(req).getDecision());
+  }
+
+  /** Transformations that cannot be queried because the pool is exhausted are not cached. */
+  @Test
+  public void testTransformationWithExhaustedPool() throws Exception {
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.configureEnginePool(1, 10);
+    pdp.setDecisionEngine(DecisionEngines.PROLOG);
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    Field f = pdp.getClass().getDeclaredField("enginePool");
+    f.setAccessible(true);
+    LuconEnginePool pool = (LuconEnginePool) f.get(pdp);
+    String endpoint = "paho:tcp://broker.hivemq.com:1883/blablubb";
+    // Looked up in the transformation table of the epoch
+    ServiceNode registered = ServiceNode.register(endpoint);
+    // Looked up in the transformation cache
+    ServiceNode withProperties = new ServiceNode(endpoint, Sets.newHashSet("property"), null);
+    pool.withEngine(
+        e -> {
+          assertTrue(pdp.requestTranformations(registered).getLabelsToAdd().isEmpty());
+          assertTrue(pdp.requestTranformations(withProperties).getLabelsToAdd().isEmpty());
+          return null;
+        });
+
+    // Once an engine is available again, the labels are transformed
+    Set<String> expected = Sets.newHashSet("labelone", "private");
+    assertEquals(expected, pdp.requestTranformations(registered).getLabelsToAdd());
+    assertEquals(expected, pdp.requestTranformations(withProperties).getLabelsToAdd());
+  }
+
+  /** Test that readers finish on their policy epoch and that superseded epochs are retired. */
+  @Test
+  public void testPolicySwap() throws Exception {
+    List<PolicyEpoch> retired = new ArrayList<>();
+    PolicyEpochs epochs =
+        new PolicyEpochs(
+            new PolicyEpoch(0, LuconTheory.Companion.getEMPTY(), null),
+            e -> {
+              retired.add(e);
+              return Unit.INSTANCE;
+            });
+    PolicyEpoch reader = epochs.acquire();
+    PolicyEpoch next =
+        epochs.swap(
+            (version, previous) -> new PolicyEpoch(version, LuconTheory.Companion.getEMPTY(), null));
+    assertEquals(1, next.getVersion());
+    assertSame(next, epochs.getCurrent());
+    assertSame(next, epochs.withEpoch(e -> e));
+    // The superseded epoch stays in use until its reader is done
+    assertFalse(reader.isRetired());
+    assertEquals(1, epochs.getStats().getDraining());
+    reader.release();
+    assertTrue(reader.isRetired());
+    assertEquals(Collections.singletonList(reader), retired);
+    PolicyEpochs.Stats stats = epochs.getStats();
+    assertEquals(1, stats.getVersion());
+    assertEquals(1, stats.getSwaps());
+    assertEquals(0, stats.getDraining());
+
+    // Decisions never fail while policies are swapped concurrently
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.setDecisionEngine(DecisionEngines.PROLOG);
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<PolicyDecision>> decisions = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(PDP.LABELS_KEY, Sets.newHashSet("private", "label" + i));
+        DecisionRequest req =
+            new DecisionRequest(
+                source, new ServiceNode("hdfs://some_url", null, null), attributes, null);
+        decisions.add(executor.submit(() -> pdp.requestDecision(req)));
+        if (i % 8 == 0) {
+          pdp.loadPolicy(i % 16 == 0 ? EXTENDED_LABELS_POLICY : EXAMPLE_POLICY);
+        }
+      }
+      for (Future<PolicyDecision> decision : decisions) {
+        String reason = decision.get().getReason();
+        assertFalse(reason, reason != null && reason.startsWith("Error"));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    stats = pdp.getPolicySwapStats();
+    assertEquals(pdp.getPolicyVersion(), stats.getVersion());
+    assertEquals(5, stats.getSwaps());
+    assertEquals(0, stats.getDraining());
+    assertTrue(stats.getLastSwapNanos() > 0);
+  }
+
   /** List all rules of the currently loaded policy. */
   @Test
   public void testListRules() {
@@ -335,6 +863,40 @@ public class LuconEngineTest {
     assertTrue(rules.contains("anotherRule"));
   }
 
+  /** Load policy modules from a directory and reload a changed module. */
+  @Test
+  public void testPolicyModules() throws Exception {
+    File dir = Files.createTempDirectory("lucon-modules").toFile();
+    try {
+      Files.writeString(new File(dir, "a.pl").toPath(), "rule(ruleA1).\nrule(ruleA2).\n");
+      Files.writeString(new File(dir, "b.pl").toPath(), "rule(ruleB).\n");
+      Files.writeString(new File(dir, "ignored.txt").toPath(), "rule(ignored).\n");
+      PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+      pdp.loadPolicies(dir);
+      assertEquals(Set.of("ruleA1", "ruleA2", "ruleB"), new HashSet<>(pdp.listRules()));
+
+      // Only the changed module is parsed again, the others are kept
+      Files.writeString(new File(dir, "b.pl").toPath(), "rule(ruleB2).\n");
+      pdp.reloadPolicies(Set.of("b.pl"));
+      assertEquals(Set.of("ruleA1", "ruleA2", "ruleB2"), new HashSet<>(pdp.listRules()));
+
+      // A module that cannot be parsed keeps its previous version
+      Files.writeString(new File(dir, "b.pl").toPath(), "rule(ruleB3\n");
+      pdp.reloadPolicies(Set.of("b.pl"));
+      assertEquals(Set.of("ruleA1", "ruleA2", "ruleB2"), new HashSet<>(pdp.listRules()));
+
+      // Deleted modules are removed from the policy
+      Files.delete(new File(dir, "a.pl").toPath());
+      pdp.reloadPolicies(Set.of("a.pl"));
+      assertEquals(List.of("ruleB2"), pdp.listRules());
+    } finally {
+      for (File f : Objects.requireNonNull(dir.listFiles())) {
+        Files.delete(f.toPath());
+      }
+      Files.delete(dir.toPath());
+    }
+  }
+
   @Test
   public void testTransformationsMatch() {
     PolicyDecisionPoint pdp = new PolicyDecisionPoint();
@@ -370,6 +932,135 @@ public class LuconEngineTest {
     assertEquals(0, trans.getLabelsToRemove().size());
   }
 
+  /** Tests hit counting and weight-based eviction of the shared pattern cache. */
+  @Test
+  public void testPatternCache() throws InvalidTheoryException, NoSolutionException {
+    LuconEngine e = new LuconEngine(null);
+    String regex = "^pattern_cache_test_" + System.nanoTime() + ".*";
+    PreparedGoal goal = new PreparedGoal("regex_match(R, \"pattern_cache_test_1\")", "R");
+    PatternCache.Stats before = PatternCache.INSTANCE.getStats();
+    assertTrue(e.query(goal.bind(PreparedGoal.Companion.atom(regex)), false).isEmpty());
+    assertTrue(e.query(goal.bind(PreparedGoal.Companion.atom(regex)), false).isEmpty());
+    // Invalid regexes do not match
+    assertTrue(e.query(goal.bind(PreparedGoal.Companion.atom("pattern_cache_test_(")), false).isEmpty());
+    PatternCache.Stats after = PatternCache.INSTANCE.getStats();
+    assertTrue(after.getMisses() >= before.getMisses() + 2);
+    assertTrue(after.getHits() >= before.getHits() + 1);
+
+    // Cache is bounded by the total length of cached regexes
+    char[] filler = new char[1000];
+    Arrays.fill(filler, 'x');
+    for (int i = 0; i < 1100; i++) {
+      assertNotNull(PatternCache.get(i + new String(filler)));
+    }
+    after = PatternCache.INSTANCE.getStats();
+    assertTrue(after.getWeight() <= PatternCache.MAX_WEIGHT);
+    assertTrue(after.getEvictions() > 0);
+  }
+
+  /** Tests the cache_* predicates and the bounded memo table behind them. */
+  @Test
+  public void testRuleCache()
+      throws InvalidTheoryException, MalformedGoalException, NoSolutionException {
+    LuconEngine e = new LuconEngine(null);
+    e.loadPolicy(EXAMPLE_POLICY);
+    assertEquals(1, e.query("cache_put_all([k, a, 1], [x, y]).", false).size());
+    List<SolveInfo> solutions = e.query("cache_get([k, a, 1], V).", true);
+    assertEquals(2, solutions.size());
+    assertEquals("x", solutions.get(0).getVarValue("V").getTerm().toString());
+    assertEquals("y", solutions.get(1).getVarValue("V").getTerm().toString());
+    // Bindings are cached, unbound variables stay unbound
+    assertEquals(1, e.query("X = v, cache_put([k, b], [X, Z]).", false).size());
+    assertEquals(1, e.query("cache_get([k, b], [v, Z]), var(Z).", false).size());
+    // Non-ground keys are not cached
+    assertTrue(e.query("cache_put_all([k, _], [x]).", false).isEmpty());
+    assertEquals(1, e.query("cache_put([k, _], x).", false).size());
+    assertTrue(e.query("cache_get([k, _], _).", false).isEmpty());
+    // Clearing by key pattern
+    assertEquals(1, e.query("cache_clear([k, a, _]).", false).size());
+    assertTrue(e.query("cache_get([k, a, 1], _).", false).isEmpty());
+    assertEquals(1, e.query("cache_get([k, b], _).", false).size());
+    // Clearing the caches of all engines
+    LuconCache.Companion.invalidateAll();
+    assertTrue(e.query("cache_get([k, b], _).", false).isEmpty());
+
+    // A dominant rule lookup counts one miss when computed and one hit when cached
+    LuconCache.Stats before = LuconCache.Companion.getStats();
+    String goal = "dominant_allow_rules(\"hdfs://myCluster\", S, R).";
+    List<SolveInfo> computed = e.query(goal, true);
+    LuconCache.Stats afterMiss = LuconCache.Companion.getStats();
+    assertEquals(before.getMisses() + 1, afterMiss.getMisses());
+    assertEquals(before.getHits(), afterMiss.getHits());
+    assertEquals(computed.size(), e.query(goal, true).size());
+    LuconCache.Stats afterHit = LuconCache.Companion.getStats();
+    assertEquals(afterMiss.getMisses(), afterHit.getMisses());
+    assertEquals(afterMiss.getHits() + 1, afterHit.getHits());
+
+    // Least recently used keys are evicted
+    LuconCache cache = new LuconCache(2);
+    long evictions = LuconCache.Companion.getStats().getEvictions();
+    cache.addAll(Term.createTerm("[a]"), Collections.singletonList(Term.createTerm("1")));
+    cache.addAll(Term.createTerm("[b]"), Collections.singletonList(Term.createTerm("2")));
+    assertNotNull(cache.get(Term.createTerm("[a]")));
+    cache.addAll(Term.createTerm("[c]"), Collections.singletonList(Term.createTerm("3")));
+    assertEquals(2, cache.getSize());
+    assertNotNull(cache.get(Term.createTerm("[a]")));
+    assertNull(cache.get(Term.createTerm("[b]")));
+    assertEquals(evictions + 1, LuconCache.Companion.getStats().getEvictions());
+    cache.clear();
+    assertEquals(0, cache.getSize());
+  }
+
+  /**
+   * Tests that action_services/2 finds the same services as evaluating has_endpoint/2 facts with
+   * regex_match/2 one by one.
+   */
+  @Test
+  public void testActionServices() throws InvalidTheoryException, NoSolutionException {
+    String policy =
+        EXAMPLE_POLICY
+            + "\nhas_endpoint(optionalService, \"^x?hdfs.*\").\n"
+            + "has_endpoint(repeatedService, \"hd+fs:.*\").\n"
+            + "has_endpoint(escapedService, \"hdfs\\\\://.*\").\n"
+            + "has_endpoint(alternativeService, \"log|hdfs.*\").\n"
+            + "has_endpoint(complexService, endpoint(\"hdfs.*\")).\n";
+    List<String> actions =
+        Arrays.asList(
+            "hdfs://myendpoint",
+            "hdfs:",
+            "hddfs://x",
+            "xhdfs://x",
+            "log",
+            "log:info",
+            "paho:tcp://broker.hivemq.com:1883/blablubb",
+            "amqp:testQueue:test",
+            "hello_anonymizer_world",
+            "");
+    LuconEngine local = new LuconEngine(null);
+    local.loadPolicy(policy);
+    LuconEngine shared = new LuconEngine(null);
+    shared.syncTheory(LuconTheory.Companion.parse(policy));
+    for (String action : actions) {
+      Term actionAtom = PreparedGoal.Companion.atom(action);
+      String expected =
+          local
+              .query(
+                  new PreparedGoal(
+                          "findall(S, (has_endpoint(S, R), regex_match(R, A)), SL)", "A")
+                      .bind(actionAtom),
+                  false)
+              .get(0)
+              .getVarValue("SL")
+              .toString();
+      PreparedGoal goal = new PreparedGoal("action_services(A, SL)", "A");
+      for (LuconEngine e : Arrays.asList(local, shared)) {
+        List<SolveInfo> solutions = e.query(goal.bind(actionAtom), false);
+        assertEquals(action, 1, solutions.size());
+        assertEquals(action, expected, solutions.get(0).getVarValue("SL").toString());
+      }
+    }
+  }
+
   /**
    * Tests the generation of a proof that a route matches a policy.
    *
@@ -413,6 +1104,202 @@ public class LuconEngineTest {
     assertNotNull(proof.getCounterExamples());
   }
 
+  /**
+   * Tests verification of multiple routes, caching of proofs and removal of route facts from the
+   * policy engine after a proof.
+   *
+   * @throws Exception If something fails
+   */
+  @Test
+  public void testVerifyRoutes() throws Exception {
+    RouteManager rm = mock(RouteManager.class);
+    when(rm.getRouteAsProlog(anyString())).thenReturn(VERIFIABLE_ROUTE);
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    Field f1 = pdp.getClass().getDeclaredField("routeManager");
+    f1.setAccessible(true);
+    f1.set(pdp, rm);
+    pdp.loadPolicy(EXAMPLE_POLICY);
+
+    List<String> routeIds = Arrays.asList("route1", "route2", "route3");
+    Map<String, RouteVerificationProof> proofs = pdp.verifyRoutes(routeIds);
+    assertEquals(routeIds, new ArrayList<>(proofs.keySet()));
+    for (String routeId : routeIds) {
+      RouteVerificationProof proof = proofs.get(routeId);
+      assertEquals(routeId, proof.getRouteId());
+      assertFalse(proof.isValid());
+      assertFalse(proof.getCounterExamples().isEmpty());
+    }
+
+    // Unchanged routes are not verified again for the same policy
+    assertSame(proofs.get("route1"), pdp.verifyRoute("route1"));
+    pdp.loadPolicy(EXAMPLE_POLICY);
+    RouteVerificationProof proof = pdp.verifyRoute("route1");
+    assertNotSame(proofs.get("route1"), proof);
+    assertEquals(proofs.get("route1").toString(), proof.toString());
+
+    // Route facts are removed from the engine after the proof
+    LuconEngine e = new LuconEngine(null);
+    e.loadPolicy(EXAMPLE_POLICY);
+    assertEquals(proof.toString(), e.proofInvalidRoute("route1", VERIFIABLE_ROUTE).toString());
+    assertTrue(e.query("stmt(X).", true).isEmpty());
+    assertEquals(proof.toString(), e.proofInvalidRoute("route1", VERIFIABLE_ROUTE).toString());
+  }
+
+  /**
+   * Tests that a cached proof computed after an aborted proof on the same engine equals an uncached
+   * proof.
+   *
+   * @throws Exception If something fails
+   */
+  @Test
+  public void testCachedProofAfterAbortedProof() throws Exception {
+    RouteManager rm = mock(RouteManager.class);
+    when(rm.getRouteAsProlog(anyString())).thenReturn(VERIFIABLE_ROUTE);
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    Field f1 = pdp.getClass().getDeclaredField("routeManager");
+    f1.setAccessible(true);
+    f1.set(pdp, rm);
+    pdp.loadPolicy(EXAMPLE_POLICY);
+
+    // Stopped in the middle of a path
+    pdp.setMaxCounterExamples(1);
+    assertTrue(pdp.verifyRoute("aborted").isTruncated());
+
+    pdp.setMaxCounterExamples(100);
+    RouteVerificationProof proof = pdp.verifyRoute("route1");
+    assertSame(proof, pdp.verifyRoute("route1"));
+    LuconEngine e = new LuconEngine(null);
+    e.loadPolicy(EXAMPLE_POLICY);
+    assertEquals(e.proofInvalidRoute("route1", VERIFIABLE_ROUTE).toString(), proof.toString());
+  }
+
+  /** Tests the fallback decision for decision queries exceeding their budget. */
+  @Test
+  public void testQueryBudget() {
+    String policy =
+        "rule(allowA).\n"
+            + "rule_priority(allowA, 1).\n"
+            + "has_decision(allowA, allow).\n"
+            + "receives_label(allowA).\n"
+            + "has_target(allowA, serviceAll).\n"
+            + "rule(allowB).\n"
+            + "rule_priority(allowB, 1).\n"
+            + "has_decision(allowB, allow).\n"
+            + "receives_label(allowB).\n"
+            + "has_target(allowB, serviceAll).\n"
+            + "rule(allowLooping).\n"
+            + "rule_priority(allowLooping, 1).\n"
+            + "has_decision(allowLooping, allow).\n"
+            + "receives_label(allowLooping) :- label(loop), repeat, fail.\n"
+            + "has_target(allowLooping, serviceAll).\n"
+            + "service(serviceAll).\n"
+            + "has_endpoint(serviceAll, '.*').\n";
+    PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+    pdp.setDecisionEngine(DecisionEngines.PROLOG);
+    pdp.setQueryBudget(new QueryBudget(0, 0));
+    pdp.loadPolicy(policy);
+    ServiceNode source = new ServiceNode("seda:test_source", null, null);
+    ServiceNode target = new ServiceNode("hdfs://some_url", null, null);
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(PDP.LABELS_KEY, Collections.singleton("private"));
+    assertEquals(
+        Decision.ALLOW,
+        pdp.requestDecision(new DecisionRequest(source, target, attributes, null)).getDecision());
+
+    // Two solutions exceed a budget of one solution
+    pdp.setQueryBudget(new QueryBudget(0, 1));
+    pdp.clearAllCaches();
+    PolicyDecision dec = pdp.requestDecision(new DecisionRequest(source, target, attributes, null));
+    assertEquals(Decision.DENY, dec.getDecision());
+    assertEquals(PolicyDecisionPoint.BUDGET_EXCEEDED_REASON, dec.getReason());
+
+    // A query without end is halted at the deadline
+    pdp.setQueryBudget(new QueryBudget(200, 0));
+    attributes.put(PDP.LABELS_KEY, Collections.singleton("loop"));
+    long start = System.nanoTime();
+    dec = pdp.requestDecision(new DecisionRequest(source, target, attributes, null));
+    assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    assertEquals(Decision.DENY, dec.getDecision());
+    assertEquals(PolicyDecisionPoint.BUDGET_EXCEEDED_REASON, dec.getReason());
+
+    // Budget violations are counted, fallback decisions are not cached
+    assertEquals(2, pdp.getDecisionMetrics().getBudgetExceeded());
+    pdp.setBudgetFallbackDecision(Decision.ALLOW);
+    dec = pdp.requestDecision(new DecisionRequest(source, target, attributes, null));
+    assertEquals(Decision.ALLOW, dec.getDecision());
+    assertEquals(3, pdp.getDecisionMetrics().getBudgetExceeded());
+  }
+
+  /** Tests that counterexamples are distinct and that their enumeration stops at the limit. */
+  @Test
+  public void testBoundedCounterExamples() throws Exception {
+    LuconEngine e = new LuconEngine(null);
+    e.loadPolicy(EXAMPLE_POLICY);
+    RouteVerificationProof full = e.proofInvalidRoute("route1", VERIFIABLE_ROUTE);
+    assertFalse(full.isValid());
+    assertFalse(full.isTruncated());
+    List<CounterExample> counterExamples = full.getCounterExamples();
+    assertFalse(counterExamples.isEmpty());
+    // Paths are reported once per violating node and label set
+    Set<String> violations = new HashSet<>();
+    for (CounterExample ce : counterExamples) {
+      assertTrue(violations.add(ce.getSteps().get(ce.getSteps().size() - 1)));
+    }
+
+    RouteVerificationProof bounded = e.proofInvalidRoute("route1", VERIFIABLE_ROUTE, 1, 10000);
+    assertFalse(bounded.isValid());
+    assertEquals(1, bounded.getCounterExamples().size());
+    assertEquals(counterExamples.size() > 1, bounded.isTruncated());
+    assertEquals(
+        counterExamples.get(0).toString(), bounded.getCounterExamples().get(0).toString());
+    // Route facts are removed after a truncated proof as well
+    assertTrue(e.query("stmt(X).", true).isEmpty());
+  }
+
+  @Test
+  public void testAbortedProofLeavesNoLabels() throws Exception {
+    LuconEngine e = new LuconEngine(null);
+    e.loadPolicy(EXAMPLE_POLICY);
+    LuconEngine fresh = new LuconEngine(null);
+    fresh.loadPolicy(EXAMPLE_POLICY);
+
+    // Stopped at the first counterexample, i.e. in the middle of a path with labels asserted
+    assertTrue(e.proofInvalidRoute("route1", VERIFIABLE_ROUTE, 1, 10000).isTruncated());
+    assertTrue(e.query("label(X).", true).isEmpty());
+    // Halted by the deadline
+    e.proofInvalidRoute("route1", VERIFIABLE_ROUTE, 100, 0);
+    assertTrue(e.query("label(X).", true).isEmpty());
+
+    // Decisions and proofs on the same engine are not affected by the aborted proofs
+    assertEquals(
+        fresh.query("rule(R), receives_label(R).", true).size(),
+        e.query("rule(R), receives_label(R).", true).size());
+    assertEquals(
+        fresh.proofInvalidRoute("route1", VERIFIABLE_ROUTE).toString(),
+        e.proofInvalidRoute("route1", VERIFIABLE_ROUTE).toString());
+  }
+
+  @Test
+  public void testCyclicRoute() {
+    LuconEngine e = new LuconEngine(null);
+    e.loadPolicy(EXAMPLE_POLICY);
+    // Messages from testQueue loop back to the broker
+    String cyclicRoute = VERIFIABLE_ROUTE + "succ(testQueue, hiveMqttBroker).\n";
+    RouteVerificationProof proof = e.proofInvalidRoute("route1", cyclicRoute, 100, 10000);
+    assertFalse(proof.isValid());
+    // The walk terminates instead of running into the timeout
+    assertFalse(proof.isTruncated());
+    assertTrue(
+        proof
+            .toString()
+            .contains(
+                "Service testQueueService may receive messages, which is forbidden by rule \"anotherRule\"."));
+    Set<String> violations = new HashSet<>();
+    for (CounterExample ce : proof.getCounterExamples()) {
+      assertTrue(violations.add(ce.getSteps().get(ce.getSteps().size() - 1)));
+    }
+  }
+
   @Test
   @Ignore("Not a regular unit test; for evaluating runtime performance.")
   public void testPerformanceEvaluationScaleRules() {
@@ -545,6 +1432,169 @@ public class LuconEngineTest {
     }
   }
 
+  /**
+   * Measures verification of many routes against a policy. Prints number of routes and the time
+   * (ns) of verifying all routes for the first time and again with unchanged routes.
+   */
+  @Test
+  @Ignore("Not a regular unit test; for evaluating runtime performance.")
+  public void testPerformanceEvaluationRouteVerification() throws Exception {
+    RouteManager rm = mock(RouteManager.class);
+    when(rm.getRouteAsProlog(anyString())).thenReturn(VERIFIABLE_ROUTE);
+    for (int i = 10; i <= 40; i += 10) {
+      PolicyDecisionPoint pdp = new PolicyDecisionPoint();
+      Field f1 = pdp.getClass().getDeclaredField("routeManager");
+      f1.setAccessible(true);
+      f1.set(pdp, rm);
+      pdp.loadPolicy(EXAMPLE_POLICY);
+      List<String> routeIds = new ArrayList<>(i);
+      for (int j = 0; j < i; j++) {
+        routeIds.add("route" + j);
+      }
+
+      long start = System.nanoTime();
+      assertEquals(i, pdp.verifyRoutes(routeIds).size());
+      long firstTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      assertEquals(i, pdp.verifyRoutes(routeIds).size());
+      long cachedTime = System.nanoTime() - start;
+
+      System.out.println(i + "\t\t" + firstTime + "\t\t" + cachedTime);
+    }
+  }
+
+  /**
+   * Compares matching actions against the endpoints of many services with action_services/2 and
+   * by evaluating has_endpoint/2 facts with regex_match/2 one by one. Prints number of services
+   * and mean latency (ns) of both variants.
+   */
+  @Test
+  @Ignore("Not a regular unit test; for evaluating runtime performance.")
+  public void testPerformanceEvaluationActionServices()
+      throws InvalidTheoryException, NoSolutionException {
+    int runs = 200;
+    for (int n : new int[] {10, 1000, 10000}) {
+      StringBuilder policy = new StringBuilder();
+      for (int i = 0; i < n; i++) {
+        policy.append("has_endpoint(service").append(i).append(", \"^service").append(i);
+        policy.append(i % 10 == 0 ? "://.*\").\n" : ":.*\").\n");
+      }
+      policy.append("has_endpoint(anonymizer, \".*anonymizer.*\").\n");
+      LuconEngine e = new LuconEngine(null);
+      e.syncTheory(LuconTheory.Companion.parse(policy.toString()));
+      PreparedGoal regexGoal =
+          new PreparedGoal("findall(S, (has_endpoint(S, R), regex_match(R, A)), SL)", "A");
+      PreparedGoal servicesGoal = new PreparedGoal("action_services(A, SL)", "A");
+
+      long regexTime = 0;
+      long servicesTime = 0;
+      for (int i = 0; i < runs; i++) {
+        Term action = PreparedGoal.Companion.atom("service" + (i * 7919 % n) + "://anonymizer");
+        long start = System.nanoTime();
+        String expected = e.query(regexGoal.bind(action), false).get(0).getVarValue("SL").toString();
+        regexTime += System.nanoTime() - start;
+        start = System.nanoTime();
+        String actual =
+            e.query(servicesGoal.bind(action), false).get(0).getVarValue("SL").toString();
+        servicesTime += System.nanoTime() - start;
+        assertEquals(expected, actual);
+      }
+      System.out.println(n + "\t\t" + regexTime / runs + "\t\t" + servicesTime / runs);
+    }
+  }
+
+  /**
+   * Compares loading a policy into many engines by parsing its text in each engine with loading a
+   * shared theory that has been parsed once. Prints number of rules, load times (ns) and retained
+   * heap (bytes) of both variants.
+   */
+  @Test
+  @Ignore("Not a regular unit test; for evaluating runtime performance.")
+  public void testPerformanceEvaluationSharedTheory()
+      throws InvalidTheoryException, MalformedGoalException {
+    int engineCount = 50;
+    for (int i = 100; i <= 500; i += 100) {
+      String theory = generateRules(i);
+
+      long memoryBefore = usedMemory();
+      long start = System.nanoTime();
+      List<LuconEngine> engines = new ArrayList<>(engineCount);
+      for (int j = 0; j < engineCount; j++) {
+        LuconEngine e = new LuconEngine(null);
+        e.loadPolicy(theory);
+        engines.add(e);
+      }
+      long textTime = System.nanoTime() - start;
+      long textMemory = usedMemory() - memoryBefore;
+      engines.clear();
+
+      memoryBefore = usedMemory();
+      start = System.nanoTime();
+      LuconTheory shared = LuconTheory.Companion.parse(theory);
+      for (int j = 0; j < engineCount; j++) {
+        LuconEngine e = new LuconEngine(null);
+        e.syncTheory(shared);
+        engines.add(e);
+      }
+      long sharedTime = System.nanoTime() - start;
+      long sharedMemory = usedMemory() - memoryBefore;
+      assertEquals(i, engines.get(0).query("rule(X).", true).size());
+      engines.clear();
+
+      System.out.println(
+          i + "\t\t" + textTime + "\t\t" + sharedTime + "\t\t" + textMemory + "\t\t" + sharedMemory);
+    }
+  }
+
+  /**
+   * Compares decision latency of asserting labels into the knowledge base with passing labels as
+   * list argument. Prints number of labels and mean latency (ns) of both variants.
+   */
+  @Test
+  @Ignore("Not a regular unit test; for evaluating runtime performance.")
+  public void testPerformanceEvaluationLabelList()
+      throws InvalidTheoryException, MalformedGoalException {
+    LuconEngine engine = new LuconEngine(null);
+    engine.loadPolicy(EXAMPLE_POLICY);
+    String prefix = "rule(X), has_target(X, T), has_endpoint(T, EP), regex_match(EP, 'hdfs://some_url'), ";
+    String suffix = "rule_priority(X, P), has_decision(X, D).";
+    int runs = 20;
+    for (int i = 0; i <= 300; i += 50) {
+      List<String> labels = new ArrayList<>();
+      labels.add("private");
+      for (int j = 0; j < i; j++) {
+        labels.add("label" + j);
+      }
+
+      StringBuilder assertQuery = new StringBuilder(prefix);
+      labels.forEach(l -> assertQuery.append("assert(label(").append(l).append(")), "));
+      assertQuery.append("receives_label(X), ").append(suffix);
+      String listQuery = prefix + "receives_label(X, " + labels + "), " + suffix;
+
+      long start = System.nanoTime();
+      for (int j = 0; j < runs; j++) {
+        assertFalse(engine.query(assertQuery.toString(), true).isEmpty());
+        engine.query("retractall(label(_)).", false);
+      }
+      long assertTime = (System.nanoTime() - start) / runs;
+
+      start = System.nanoTime();
+      for (int j = 0; j < runs; j++) {
+        assertFalse(engine.query(listQuery, true).isEmpty());
+      }
+      long listTime = (System.nanoTime() - start) / runs;
+
+      System.out.println(labels.size() + "\t\t" + assertTime + "\t\t" + listTime);
+    }
+  }
+
+  private static long usedMemory() {
+    System.gc();
+    System.gc();
+    System.gc(); // Empty level 1- & 2-LRUs.
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
   @Test
   public void testRulePriorities() {
     PolicyDecisionPoint pdp = new PolicyDecisionPoint();
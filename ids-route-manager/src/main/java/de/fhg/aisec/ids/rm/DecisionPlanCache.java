@@ -0,0 +1,132 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import de.fhg.aisec.ids.api.policy.DecisionPlan;
+import de.fhg.aisec.ids.api.policy.LabelSet;
+import de.fhg.aisec.ids.api.policy.PAP;
+import de.fhg.aisec.ids.api.policy.PDP;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.camel.model.RouteDefinition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the decision plans of routes, so the PDP decides the hops of a route only once for each
+ * set of labels messages enter the route with.
+ *
+ * <p>Plans are bound to the policy version they have been computed for. When another policy is
+ * loaded, all plans are dropped on the next message, and the plans of a route are dropped when the
+ * route is replaced or removed. Without a PAP reporting the policy version, plans are not cached.
+ */
+final class DecisionPlanCache {
+  private static final Logger LOG = LoggerFactory.getLogger(DecisionPlanCache.class);
+  /** Maximum number of cached plans per route, further label sets are planned for each message */
+  static final int MAX_PLANS_PER_ROUTE = 64;
+  /** Placeholder for routes that cannot be planned */
+  private static final DecisionPlan NO_PLAN = new DecisionPlan(List.of());
+
+  private final RouteManagerService rm;
+  private volatile Plans plans = new Plans(Long.MIN_VALUE);
+
+  DecisionPlanCache(@NonNull RouteManagerService rm) {
+    this.rm = rm;
+  }
+
+  /** The plans of all routes for a specific policy version. */
+  private static final class Plans {
+    private final long policyVersion;
+    /** Plans by route id */
+    private final Map<String, RoutePlans> routes = new ConcurrentHashMap<>();
+
+    private Plans(long policyVersion) {
+      this.policyVersion = policyVersion;
+    }
+  }
+
+  /** The plans of a route definition, by the labels of messages entering the route. */
+  private static final class RoutePlans {
+    private final RouteDefinition route;
+    private final Map<LabelSet, DecisionPlan> plans = new ConcurrentHashMap<>();
+
+    private RoutePlans(RouteDefinition route) {
+      this.route = route;
+    }
+  }
+
+  /**
+   * Returns the decision plan for messages entering a route, planning the route if necessary.
+   *
+   * @param pdp The PDP
+   * @param route The route the message enters
+   * @param labels The labels of the message when entering the route
+   * @return The decision plan for the route, or null if the route cannot be planned
+   */
+  @Nullable
+  DecisionPlan get(@NonNull PDP pdp, @NonNull RouteDefinition route, @NonNull LabelSet labels) {
+    PAP pap = rm.getPap();
+    String routeId = route.getId();
+    if (pap == null || routeId == null) {
+      return PolicyEnforcementPoint.createDecisionPlan(
+          pdp, rm.getInterceptionPlanner(), route, labels);
+    }
+    // Read the version before planning, so a concurrent policy change causes another plan
+    long version = pap.getPolicyVersion();
+    Plans current = plans;
+    if (current.policyVersion != version) {
+      LOG.debug("Policy version {} loaded, planning routes again", version);
+      current = new Plans(version);
+      plans = current;
+    }
+    RoutePlans routePlans = current.routes.get(routeId);
+    if (routePlans == null || routePlans.route != route) {
+      routePlans = new RoutePlans(route);
+      current.routes.put(routeId, routePlans);
+    }
+    DecisionPlan plan = routePlans.plans.get(labels);
+    if (plan == null) {
+      plan =
+          PolicyEnforcementPoint.createDecisionPlan(
+              pdp, rm.getInterceptionPlanner(), route, labels);
+      if (plan == null) {
+        plan = NO_PLAN;
+      }
+      if (routePlans.plans.size() < MAX_PLANS_PER_ROUTE) {
+        routePlans.plans.putIfAbsent(labels, plan);
+      }
+    }
+    return plan != NO_PLAN ? plan : null;
+  }
+
+  /**
+   * Drops the plans of a route, e.g. because the route has been modified.
+   *
+   * @param routeId The id of the route
+   */
+  void invalidate(@Nullable String routeId) {
+    if (routeId != null) {
+      plans.routes.remove(routeId);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import de.fhg.aisec.ids.api.policy.PAP;
+import de.fhg.aisec.ids.api.policy.PDP;
+import de.fhg.aisec.ids.api.policy.ServiceNode;
+import de.fhg.aisec.ids.api.router.RouteMetrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.model.RouteDefinition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which route nodes are enforced by their PEP and which are passed through.
+ *
+ * <p>Every processor of a route is wrapped in a {@link PolicyEnforcementPoint}, but most of them
+ * (e.g. log, setHeader or bean steps) are not matched by any label-dependent rule and do not
+ * transform labels. The PEPs of such nodes pass messages through without calling the PDP, see
+ * {@link PDP#canPassThrough(ServiceNode)}. Nodes are classified lazily by their PEP, on the first
+ * message they receive, so that the PDP and the policy are available.
+ *
+ * <p>The classification is bound to the policy version it has been computed for. When another
+ * policy is loaded, all nodes are classified again on their next message. Without a PAP reporting
+ * the policy version, all nodes are enforced.
+ */
+final class InterceptionPlanner {
+  private static final Logger LOG = LoggerFactory.getLogger(InterceptionPlanner.class);
+
+  private final RouteManagerService rm;
+  private volatile Plan plan = new Plan(Long.MIN_VALUE);
+
+  InterceptionPlanner(@NonNull RouteManagerService rm) {
+    this.rm = rm;
+  }
+
+  /** The classification of nodes for a specific policy version. */
+  private static final class Plan {
+    private final long policyVersion;
+    /** Whether nodes are passed through, by endpoint */
+    private final Map<String, Boolean> passThrough = new ConcurrentHashMap<>();
+
+    private Plan(long policyVersion) {
+      this.policyVersion = policyVersion;
+    }
+  }
+
+  /**
+   * Returns whether the PEP of a node may pass messages through without enforcing the policy.
+   *
+   * @param node The node of the PEP
+   * @return Whether the node is passed through under the active policy
+   */
+  boolean isPassThrough(@NonNull ServiceNode node) {
+    PAP pap = rm.getPap();
+    PDP pdp = rm.getPdp();
+    String endpoint = node.getEndpoint();
+    if (!rm.isSelectiveInterception() || pap == null || pdp == null || endpoint == null) {
+      return false;
+    }
+    // Read the version before classifying, so a concurrent policy change causes another plan
+    long version = pap.getPolicyVersion();
+    Plan current = plan;
+    if (current.policyVersion != version) {
+      LOG.debug("Policy version {} loaded, classifying route nodes again", version);
+      current = new Plan(version);
+      plan = current;
+    }
+    return current.passThrough.computeIfAbsent(endpoint, ep -> classify(pdp, node));
+  }
+
+  private static boolean classify(PDP pdp, ServiceNode node) {
+    try {
+      boolean passThrough = pdp.canPassThrough(node);
+      LOG.debug("Node {} is {}", node.getEndpoint(), passThrough ? "passed through" : "enforced");
+      return passThrough;
+    } catch (RuntimeException e) {
+      LOG.error("Error while classifying node " + node.getEndpoint(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Sets the numbers of enforced and passed through nodes of a route in its metrics.
+   *
+   * @param route The route
+   * @param metrics The metrics of the route
+   */
+  void addNodeCounts(@NonNull RouteDefinition route, @NonNull RouteMetrics metrics) {
+    long[] counts = new long[2];
+    for (ProcessorDefinition<?> output : route.getOutputs()) {
+      countNodes(output, counts);
+    }
+    metrics.setEnforcedNodes(counts[0]);
+    metrics.setPassedThroughNodes(counts[1]);
+  }
+
+  private void countNodes(ProcessorDefinition<?> node, long[] counts) {
+    counts[isPassThrough(ServiceNode.register(node.toString())) ? 1 : 0]++;
+    for (ProcessorDefinition<?> output : node.getOutputs()) {
+      countNodes(output, counts);
+    }
+  }
+}
@@ -0,0 +1,378 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import de.fhg.aisec.ids.api.policy.LabelSet;
+import de.fhg.aisec.ids.api.policy.Obligation;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executes the obligations of policy decisions asynchronously, off the routing thread.
+ *
+ * <p>Obligations are put into a bounded queue and executed in batches by a single worker thread.
+ * The queue is never waited for: if it is full, the obligation is rejected and the PEP enforces
+ * the alternative decision of the obligation instead, so a slow obligation handler slows down
+ * neither the route nor the memory consumption of the connector.
+ *
+ * <p>Actions are dispatched by their name, i.e. the functor of the Prolog term (<code>log</code>
+ * for <code>log(audit)</code>). Handlers for further actions can be registered at runtime.
+ * Obligations with actions that have no handler are rejected when they are submitted, just like
+ * obligations that do not fit into the queue, so the PEP enforces their alternative decision.
+ */
+public final class ObligationExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(ObligationExecutor.class);
+  /** Action logging the data flow that has triggered the obligation */
+  public static final String LOG_ACTION = "log";
+  private static final long SHUTDOWN_POLL_MILLIS = 100;
+
+  private final int capacity;
+  private final int batchSize;
+  private final BlockingQueue<ObligationTask> queue;
+  private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+  @Nullable private volatile Thread worker;
+  private volatile boolean shutdown;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder executed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder totalWaitNanos = new LongAdder();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final LongAdder totalExecutionNanos = new LongAdder();
+  private final AtomicLong maxExecutionNanos = new AtomicLong();
+
+  /**
+   * Creates an executor. The worker thread is started when the first obligation is submitted.
+   *
+   * @param capacity Maximum number of pending obligations
+   * @param batchSize Maximum number of obligations taken from the queue at once
+   */
+  ObligationExecutor(int capacity, int batchSize) {
+    if (capacity <= 0 || batchSize <= 0) {
+      throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+    }
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    handlers.put(
+        LOG_ACTION,
+        task ->
+            LOG.info(
+                "Obligation {}: {} -> {}, exchange {}, labels {}",
+                task.getObligation().getAction(),
+                task.getSource(),
+                task.getDestination(),
+                task.getExchangeId(),
+                task.getLabels()));
+  }
+
+  /** Executes the obligations with a specific action. */
+  @FunctionalInterface
+  public interface Handler {
+    void execute(@NonNull ObligationTask task) throws Exception;
+  }
+
+  /** An obligation along with the data flow that has triggered it. */
+  public static final class ObligationTask {
+    private final Obligation obligation;
+    private final String source;
+    private final String destination;
+    private final String exchangeId;
+    private final Set<String> labels;
+    private final long enqueueTime;
+
+    private ObligationTask(
+        Obligation obligation,
+        String source,
+        String destination,
+        String exchangeId,
+        Set<String> labels) {
+      this.obligation = obligation;
+      this.source = source;
+      this.destination = destination;
+      this.exchangeId = exchangeId;
+      this.labels = labels;
+      this.enqueueTime = System.nanoTime();
+    }
+
+    public Obligation getObligation() {
+      return obligation;
+    }
+
+    public String getSource() {
+      return source;
+    }
+
+    public String getDestination() {
+      return destination;
+    }
+
+    public String getExchangeId() {
+      return exchangeId;
+    }
+
+    /** The labels of the message when the obligation was triggered. */
+    public Set<String> getLabels() {
+      return labels;
+    }
+  }
+
+  /** Snapshot of the executor metrics. Times are in nanoseconds. */
+  public static final class Stats {
+    private final int queueDepth;
+    private final int capacity;
+    private final long submitted;
+    private final long rejected;
+    private final long executed;
+    private final long failed;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final long totalExecutionNanos;
+    private final long maxExecutionNanos;
+
+    private Stats(
+        int queueDepth,
+        int capacity,
+        long submitted,
+        long rejected,
+        long executed,
+        long failed,
+        long totalWaitNanos,
+        long maxWaitNanos,
+        long totalExecutionNanos,
+        long maxExecutionNanos) {
+      this.queueDepth = queueDepth;
+      this.capacity = capacity;
+      this.submitted = submitted;
+      this.rejected = rejected;
+      this.executed = executed;
+      this.failed = failed;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos = maxWaitNanos;
+      this.totalExecutionNanos = totalExecutionNanos;
+      this.maxExecutionNanos = maxExecutionNanos;
+    }
+
+    /** Number of pending obligations */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+    public long getSubmitted() {
+      return submitted;
+    }
+
+    /** Number of obligations rejected because the queue was full or their action had no handler */
+    public long getRejected() {
+      return rejected;
+    }
+
+    /** Number of obligations executed successfully */
+    public long getExecuted() {
+      return executed;
+    }
+
+    /** Number of obligations whose handler has failed */
+    public long getFailed() {
+      return failed;
+    }
+
+    /** Mean time obligations were pending in the queue */
+    public long getMeanWaitNanos() {
+      return executed + failed == 0 ? 0 : totalWaitNanos / (executed + failed);
+    }
+
+    public long getMaxWaitNanos() {
+      return maxWaitNanos;
+    }
+
+    /** Mean time of the execution of an obligation handler */
+    public long getMeanExecutionNanos() {
+      return executed + failed == 0 ? 0 : totalExecutionNanos / (executed + failed);
+    }
+
+    public long getMaxExecutionNanos() {
+      return maxExecutionNanos;
+    }
+  }
+
+  /**
+   * Registers the handler of an obligation action, replacing any previous handler.
+   *
+   * @param action The name of the action
+   * @param handler The handler
+   */
+  public void registerHandler(@NonNull String action, @NonNull Handler handler) {
+    handlers.put(action, handler);
+  }
+
+  /**
+   * Schedules the execution of an obligation without waiting.
+   *
+   * @param obligation The obligation
+   * @param source The node that has processed the message
+   * @param destination The node the message is sent to
+   * @param exchangeId The id of the exchange carrying the message
+   * @param labels The labels of the message, copied by this method unless immutable
+   * @return Whether the obligation has been scheduled, false if there is no handler for its action,
+   *     the queue is full or the executor has been shut down
+   */
+  boolean submit(
+      @NonNull Obligation obligation,
+      @NonNull String source,
+      @NonNull String destination,
+      @NonNull String exchangeId,
+      @NonNull Set<String> labels) {
+    if (shutdown) {
+      rejected.increment();
+      return false;
+    }
+    if (!handlers.containsKey(getActionName(obligation.getAction()))) {
+      rejected.increment();
+      LOG.warn("No handler for obligation action {}", obligation.getAction());
+      return false;
+    }
+    ObligationTask task =
+        new ObligationTask(
+            obligation,
+            source,
+            destination,
+            exchangeId,
+            labels instanceof LabelSet ? labels : Set.copyOf(labels));
+    if (!queue.offer(task)) {
+      rejected.increment();
+      return false;
+    }
+    submitted.increment();
+    if (worker == null) {
+      startWorker();
+    }
+    return true;
+  }
+
+  private synchronized void startWorker() {
+    if (worker == null && !shutdown) {
+      worker = new Thread(this::run, "ids-obligation-executor");
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  private void run() {
+    List<ObligationTask> batch = new ArrayList<>(batchSize);
+    while (!shutdown) {
+      try {
+        // Handlers are not interrupted on shutdown, the flag is polled instead
+        ObligationTask task = queue.poll(SHUTDOWN_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (task == null) {
+          continue;
+        }
+        batch.add(task);
+      } catch (InterruptedException e) {
+        break;
+      }
+      queue.drainTo(batch, batchSize - 1);
+      batch.forEach(this::execute);
+      batch.clear();
+    }
+    // Obligations accepted before the shutdown are still executed
+    queue.drainTo(batch);
+    batch.forEach(this::execute);
+  }
+
+  private void execute(ObligationTask task) {
+    long start = System.nanoTime();
+    long wait = start - task.enqueueTime;
+    totalWaitNanos.add(wait);
+    maxWaitNanos.accumulateAndGet(wait, Math::max);
+    String action = getActionName(task.getObligation().getAction());
+    Handler handler = handlers.get(action);
+    try {
+      if (handler == null) {
+        failed.increment();
+        LOG.warn("No handler for obligation action {}", task.getObligation().getAction());
+      } else {
+        handler.execute(task);
+        executed.increment();
+      }
+    } catch (Exception e) {
+      failed.increment();
+      LOG.error("Error executing obligation " + task.getObligation().getAction(), e);
+    } finally {
+      long time = System.nanoTime() - start;
+      totalExecutionNanos.add(time);
+      maxExecutionNanos.accumulateAndGet(time, Math::max);
+    }
+  }
+
+  /**
+   * Returns the name of an action term, i.e. the text before the arguments.
+   *
+   * @param action The action, e.g. <code>delete_after(30)</code>
+   * @return The name of the action, e.g. <code>delete_after</code>
+   */
+  static String getActionName(@Nullable String action) {
+    if (action == null) {
+      return "";
+    }
+    int args = action.indexOf('(');
+    return (args < 0 ? action : action.substring(0, args)).trim();
+  }
+
+  public Stats getStats() {
+    return new Stats(
+        queue.size(),
+        capacity,
+        submitted.sum(),
+        rejected.sum(),
+        executed.sum(),
+        failed.sum(),
+        totalWaitNanos.sum(),
+        maxWaitNanos.get(),
+        totalExecutionNanos.sum(),
+        maxExecutionNanos.get());
+  }
+
+  /**
+   * Stops accepting obligations. Pending obligations are executed before the worker thread
+   * terminates, running handlers are not interrupted.
+   */
+  void shutdown() {
+    shutdown = true;
+  }
+}
@@ -21,21 +21,35 @@ package de.fhg.aisec.ids.rm;
 
 import de.fhg.aisec.ids.api.policy.*;
 import org.apache.camel.*;
+import org.apache.camel.model.ProcessorDefinition;
 import org.apache.camel.model.RouteDefinition;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 public class PolicyEnforcementPoint implements AsyncProcessor {
   private static final Logger LOG = LoggerFactory.getLogger(PolicyEnforcementPoint.class);
+  /** Exchange property holding the decision plan of the current route */
+  static final String DECISION_PLAN_KEY = "luconDecisionPlan";
+  /** Exchange property holding the id of the verified route the exchange is passing through */
+  static final String ELIDED_ROUTE_KEY = "luconElidedRoute";
+  /** Exchange property holding the ServiceNode of the last processed node */
+  static final String LAST_NODE_KEY = "luconLastNode";
   private CamelContext ctx;
   private NamedNode node;
   private Processor target;
   private RouteManagerService rm;
+  /** The node of this PEP, with its endpoint registered at route start */
+  private final ServiceNode serviceNode;
+  /** The input node of the route, created when the first exchange enters the route */
+  @Nullable private volatile ServiceNode routeInputNode;
 
   PolicyEnforcementPoint(
       @NonNull CamelContext ctx,
@@ -46,6 +60,7 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
     this.node = node;
     this.target = target;
     this.rm = rm;
+    this.serviceNode = ServiceNode.register(node.toString());
   }
 
   /**
@@ -80,37 +95,58 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
       return false;
     }
 
-    String source = (String) exchange.getProperty("lastDestination");
-    if (source == null) {
-      var routeNode = node.getParent();
-      while (!(routeNode instanceof RouteDefinition)) {
-        routeNode = node.getParent();
-      }
-      source = ((RouteDefinition) routeNode).getInput().toString();
+    /*
+     * TODO:
+     * Nodes currently have no properties or capabilities. They should be retrieved from
+     * a) either the prolog knowledge base (a respective query must be created)
+     * b) or from service meta data provided by the ConnectionManagerService(?)
+     */
+    ServiceNode sourceNode = exchange.getProperty(LAST_NODE_KEY, ServiceNode.class);
+    RouteDefinition route = null;
+    if (sourceNode == null) {
+      route = getRouteDefinition();
+      sourceNode = getRouteInputNode(route);
     }
-    String destination = node.toString();
+    ServiceNode destNode = serviceNode;
+    String source = sourceNode.getEndpoint();
+    String destination = destNode.getEndpoint();
     exchange.setProperty("lastDestination", destination);
+    exchange.setProperty(LAST_NODE_KEY, destNode);
 
     if (LOG.isTraceEnabled()) {
       LOG.trace("{} -> {}", source, destination);
     }
 
-    /*
-     * TODO:
-     * Nodes currently have no properties or capabilities. They should be retrieved from
-     * a) either the prolog knowledge base (a respective query must be created)
-     * b) or from service meta data provided by the ConnectionManagerService(?)
-     */
-    ServiceNode sourceNode = new ServiceNode(source, null, null);
-    ServiceNode destNode = new ServiceNode(destination, null, null);
+    // On routes proven to comply with the policy, only label transformations need to be applied
+    TransformationDecision elidedTransformation =
+        getElidedTransformation(exchange, route, sourceNode);
+    if (elidedTransformation != null) {
+      applyLabelTransformation(elidedTransformation, exchange);
+      return true;
+    }
 
-    // Call PDP to transform labels and decide whether to forward the Exchange
-    applyLabelTransformation(pdp.requestTranformations(sourceNode), exchange);
-    PolicyDecision decision =
-        pdp.requestDecision(
-            new DecisionRequest(sourceNode, destNode, exchange.getProperties(), null));
+    // When entering a route, use the decisions for the whole route, requested at once
+    DecisionPlan plan = exchange.getProperty(DECISION_PLAN_KEY, DecisionPlan.class);
+    if (route != null) {
+      plan = rm.getDecisionPlans().get(pdp, route, getLabels(exchange));
+      exchange.setProperty(DECISION_PLAN_KEY, plan);
+    }
+
+    // Use the precomputed decision if the plan covers this hop with the current labels
+    HopDecision hop = plan != null ? plan.getHop(sourceNode, destNode, getLabels(exchange)) : null;
+    PolicyDecision decision;
+    if (hop != null) {
+      applyLabelTransformation(hop.getTransformation(), exchange);
+      decision = hop.getDecision();
+    } else {
+      // Call PDP to transform labels and decide whether to forward the Exchange
+      applyLabelTransformation(pdp.requestTranformations(sourceNode), exchange);
+      decision =
+          pdp.requestDecision(
+              new DecisionRequest(sourceNode, destNode, exchange.getProperties(), null));
+    }
 
-    switch (decision.getDecision()) {
+    switch (scheduleObligations(decision, source, destination, exchange)) {
       case ALLOW:
         // forward the Exchange
         return true;
@@ -123,8 +159,168 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
         exchange.setException(new Exception("Exchange blocked by data flow policy"));
         return false;
     }
+  }
+
+  /**
+   * Hands the obligations of a decision over to the obligation executor.
+   *
+   * <p>Obligations are executed asynchronously and only for allowed flows, a denied message is
+   * never delivered. If an obligation cannot be scheduled because the executor is saturated, its
+   * alternative decision is enforced instead (deny if it has none).
+   *
+   * @param decision The policy decision
+   * @param source The node that has processed the exchange before
+   * @param destination The node the exchange is sent to
+   * @param exchange The exchange
+   * @return The decision to enforce
+   */
+  private PolicyDecision.Decision scheduleObligations(
+      PolicyDecision decision, String source, String destination, Exchange exchange) {
+    PolicyDecision.Decision result = decision.getDecision();
+    if (result != PolicyDecision.Decision.ALLOW) {
+      return result;
+    }
+    for (Obligation obligation : decision.getObligations()) {
+      if (obligation.getAction() == null) {
+        continue;
+      }
+      if (!rm.getObligationExecutor()
+          .submit(obligation, source, destination, exchange.getExchangeId(), getLabels(exchange))) {
+        LOG.warn(
+            "Obligation {} rejected, alternative decision is {}",
+            obligation.getAction(),
+            obligation.getAlternativeDecision());
+        // An alternative decision may restrict, but never widen the decision
+        if (obligation.getAlternativeDecision() != PolicyDecision.Decision.ALLOW) {
+          result = PolicyDecision.Decision.DENY;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the route definition this node belongs to.
+   *
+   * @return The route definition of the node
+   */
+  private RouteDefinition getRouteDefinition() {
+    var routeNode = node.getParent();
+    while (!(routeNode instanceof RouteDefinition)) {
+      routeNode = routeNode.getParent();
+    }
+    return (RouteDefinition) routeNode;
+  }
+
+  /**
+   * Returns the input node of the route this node belongs to.
+   *
+   * @param route The route definition of the node
+   * @return The input node, with its endpoint registered
+   */
+  private ServiceNode getRouteInputNode(RouteDefinition route) {
+    String input = route.getInput().toString();
+    ServiceNode inputNode = routeInputNode;
+    if (inputNode == null || !input.equals(inputNode.getEndpoint())) {
+      inputNode = ServiceNode.register(input);
+      routeInputNode = inputNode;
+    }
+    return inputNode;
+  }
+
+  /**
+   * Returns the precomputed label transformation for the current hop, if the policy decision for
+   * this hop can be elided.
+   *
+   * <p>Decisions are elided if the exchange has entered a route without labels and the route has
+   * been proven valid for the active policy. As soon as a hop does not qualify for elision (e.g.
+   * because the policy has changed and the route has not been verified again, or because the
+   * exchange has left the route), decisions are requested for all remaining hops. Hops whose
+   * decision carries obligations are decided by the PDP, so that the obligations are scheduled,
+   * but decisions of the hops after them are elided again.
+   *
+   * @param exchange The exchange
+   * @param enteredRoute The route the exchange has just entered, or null if it already was routed
+   * @param sourceNode The node that has processed the exchange before
+   * @return The label transformation of the source node, or null if a decision is required
+   */
+  @Nullable
+  private TransformationDecision getElidedTransformation(
+      Exchange exchange, @Nullable RouteDefinition enteredRoute, ServiceNode sourceNode) {
+    if (!rm.isDecisionElision()) {
+      return null;
+    }
+    if (enteredRoute != null) {
+      // Route verification assumes that messages have no labels at the route input
+      if (enteredRoute.getId() == null || !getLabels(exchange).isEmpty()) {
+        return null;
+      }
+      exchange.setProperty(ELIDED_ROUTE_KEY, enteredRoute.getId());
+    }
+    Object elidedRouteId = exchange.getProperty(ELIDED_ROUTE_KEY);
+    if (elidedRouteId == null) {
+      return null;
+    }
+    RouteDefinition route = enteredRoute != null ? enteredRoute : getRouteDefinition();
+    VerifiedRoutes.VerifiedRoute verifiedRoute =
+        elidedRouteId.equals(route.getId()) ? rm.getVerifiedRoutes().get(route) : null;
+    TransformationDecision transformation =
+        verifiedRoute != null ? verifiedRoute.getTransformation(sourceNode.getEndpoint()) : null;
+    if (transformation == null) {
+      exchange.removeProperty(ELIDED_ROUTE_KEY);
+      return null;
+    }
+    LabelSet labels = transformation.apply(getLabels(exchange));
+    return verifiedRoute.isElidable(serviceNode, labels) ? transformation : null;
+  }
+
+  /**
+   * Requests decisions for all hops of a route from the PDP in a single call. Plans are cached by
+   * {@link DecisionPlanCache}.
+   *
+   * <p>Only routes with a linear sequence of processors are planned. For routes with nested
+   * processors (e.g. choice or multicast), the path of a message is not known in advance and null
+   * is returned. Nodes passed through are left out, just as they are skipped by messages.
+   *
+   * @param pdp The PDP
+   * @param planner The planner deciding which nodes are enforced
+   * @param route The route the message enters
+   * @param labels The labels of the message when entering the route
+   * @return The decision plan for the route or null
+   */
+  @Nullable
+  static DecisionPlan createDecisionPlan(
+      PDP pdp, InterceptionPlanner planner, RouteDefinition route, Set<String> labels) {
+    List<ServiceNode> path = new ArrayList<>(route.getOutputs().size() + 1);
+    path.add(ServiceNode.register(route.getInput().toString()));
+    for (ProcessorDefinition<?> output : route.getOutputs()) {
+      if (!output.getOutputs().isEmpty()) {
+        return null;
+      }
+      ServiceNode node = ServiceNode.register(output.toString());
+      if (!planner.isPassThrough(node)) {
+        path.add(node);
+      }
+    }
+    return pdp.requestPathDecisions(path, labels);
+  }
 
-    // TODO: Obligation Implementation
+  /**
+   * Returns the labels of an exchange. Labels stored as another kind of set are converted to a
+   * label set.
+   *
+   * @param exchange The exchange
+   * @return The labels of the exchange
+   */
+  @SuppressWarnings("unchecked")
+  private static LabelSet getLabels(Exchange exchange) {
+    Object labels = exchange.getProperty(PDP.LABELS_KEY);
+    if (labels instanceof LabelSet) {
+      return (LabelSet) labels;
+    }
+    LabelSet labelSet = LabelSet.of((Collection<String>) labels);
+    exchange.setProperty(PDP.LABELS_KEY, labelSet);
+    return labelSet;
   }
 
   /**
@@ -133,30 +329,33 @@ public class PolicyEnforcementPoint implements AsyncProcessor {
    * @param requestTransformations The request transformations (label changes) to be performed
    * @param exchange Exchange processed
    */
-  @SuppressWarnings("unchecked")
   private void applyLabelTransformation(
       TransformationDecision requestTransformations, Exchange exchange) {
-    Set<String> labels =
-        (Set<String>)
-            exchange.getProperties().computeIfAbsent(PDP.LABELS_KEY, k -> new HashSet<String>());
-
-    // Remove labels from exchange
-    labels.removeAll(requestTransformations.getLabelsToRemove());
+    // Remove and add labels by bitwise operations, the label set of the exchange is replaced
+    exchange.setProperty(PDP.LABELS_KEY, requestTransformations.apply(getLabels(exchange)));
+  }
 
-    // Add labels to exchange
-    labels.addAll(requestTransformations.getLabelsToAdd());
+  /**
+   * Returns whether this node is passed through under the active policy. Messages passed through
+   * are neither checked nor labeled, and the node is not recorded as their last node, so the next
+   * enforced node applies the label transformation of the node before.
+   *
+   * @return Whether flow control is skipped for this node
+   */
+  private boolean isPassThrough() {
+    return rm != null && target != null && rm.getInterceptionPlanner().isPassThrough(serviceNode);
   }
 
   @Override
   public void process(Exchange exchange) throws Exception {
-    if (processFlowControl(exchange)) {
+    if (isPassThrough() || processFlowControl(exchange)) {
       target.process(exchange);
     }
   }
 
   @Override
   public boolean process(Exchange exchange, AsyncCallback callback) {
-    if (processFlowControl(exchange)) {
+    if (isPassThrough() || processFlowControl(exchange)) {
       try {
         target.process(exchange);
         callback.done(true);
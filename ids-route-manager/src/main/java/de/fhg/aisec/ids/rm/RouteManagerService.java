@@ -20,7 +20,9 @@
 package de.fhg.aisec.ids.rm;
 
 import de.fhg.aisec.ids.api.ReferenceUnbind;
+import de.fhg.aisec.ids.api.policy.PAP;
 import de.fhg.aisec.ids.api.policy.PDP;
+import de.fhg.aisec.ids.api.policy.ServiceNode;
 import de.fhg.aisec.ids.api.router.*;
 import de.fhg.aisec.ids.rm.util.CamelRouteToDot;
 import de.fhg.aisec.ids.rm.util.PrologPrinter;
@@ -47,6 +49,7 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
@@ -58,17 +61,65 @@ import java.util.stream.Collectors;
  * @author Julian Schuette (julian.schuette@aisec.fraunhofer.de)
  */
 @Component(immediate = true, name = "ids-routemanager")
-public class RouteManagerService implements RouteManager {
+public class RouteManagerService implements RouteManager, RouteManagerMXBean {
   private static final Logger LOG = LoggerFactory.getLogger(RouteManagerService.class);
 
   @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
   private volatile PDP pdp;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC)
+  private volatile PAP pap;
+
+  /** System property enabling decision elision for routes proven valid by the PAP */
+  static final String DECISION_ELISION_PROPERTY = "ids.pep.decisionElision";
+
+  private volatile boolean decisionElision = Boolean.getBoolean(DECISION_ELISION_PROPERTY);
+
+  private final VerifiedRoutes verifiedRoutes = new VerifiedRoutes(this);
+
+  /** System property for the selective interception of route nodes, enabled by default */
+  static final String SELECTIVE_INTERCEPTION_PROPERTY = "ids.pep.selectiveInterception";
+
+  private volatile boolean selectiveInterception =
+      Boolean.parseBoolean(System.getProperty(SELECTIVE_INTERCEPTION_PROPERTY, "true"));
+
+  private final InterceptionPlanner interceptionPlanner = new InterceptionPlanner(this);
+
+  private final DecisionPlanCache decisionPlans = new DecisionPlanCache(this);
+
+  /** System property for the maximum number of pending obligations */
+  static final String OBLIGATION_QUEUE_CAPACITY_PROPERTY = "ids.pep.obligationQueueCapacity";
+  /** System property for the maximum number of obligations executed in one batch */
+  static final String OBLIGATION_BATCH_SIZE_PROPERTY = "ids.pep.obligationBatchSize";
+
+  private final ObligationExecutor obligationExecutor =
+      new ObligationExecutor(
+          Integer.getInteger(OBLIGATION_QUEUE_CAPACITY_PROPERTY, 10000),
+          Integer.getInteger(OBLIGATION_BATCH_SIZE_PROPERTY, 100));
+
   private ComponentContext ctx;
 
   @Activate
   protected void activate(ComponentContext ctx) {
     this.ctx = ctx;
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(this, new ObjectName(RouteManagerMXBean.OBJECT_NAME));
+    } catch (JMException e) {
+      LOG.warn("Could not register route manager metrics with JMX: {}", e.getMessage());
+    }
+  }
+
+  @Deactivate
+  protected void deactivate(ComponentContext ctx) {
+    obligationExecutor.shutdown();
+    verifiedRoutes.shutdown();
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .unregisterMBean(new ObjectName(RouteManagerMXBean.OBJECT_NAME));
+    } catch (JMException e) {
+      LOG.debug("Could not unregister route manager metrics from JMX: {}", e.getMessage());
+    }
   }
 
   @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
@@ -108,6 +159,90 @@ public class RouteManagerService implements RouteManager {
     return pdp;
   }
 
+  PAP getPap() {
+    return pap;
+  }
+
+  /**
+   * Returns whether PEPs may skip PDP decisions for routes that have been proven valid.
+   *
+   * @return Whether decision elision is enabled
+   */
+  boolean isDecisionElision() {
+    return decisionElision;
+  }
+
+  void setDecisionElision(boolean decisionElision) {
+    this.decisionElision = decisionElision;
+  }
+
+  VerifiedRoutes getVerifiedRoutes() {
+    return verifiedRoutes;
+  }
+
+  /**
+   * Returns whether PEPs may pass messages through without enforcement at nodes that cannot be
+   * affected by the active policy.
+   *
+   * @return Whether selective interception is enabled
+   */
+  boolean isSelectiveInterception() {
+    return selectiveInterception;
+  }
+
+  void setSelectiveInterception(boolean selectiveInterception) {
+    this.selectiveInterception = selectiveInterception;
+  }
+
+  InterceptionPlanner getInterceptionPlanner() {
+    return interceptionPlanner;
+  }
+
+  DecisionPlanCache getDecisionPlans() {
+    return decisionPlans;
+  }
+
+  /**
+   * Returns the executor of the obligations of policy decisions.
+   *
+   * @return The obligation executor
+   */
+  ObligationExecutor getObligationExecutor() {
+    return obligationExecutor;
+  }
+
+  @Override
+  public void registerObligationHandler(
+      @NonNull String action, @NonNull ObligationHandler handler) {
+    obligationExecutor.registerHandler(
+        action,
+        task ->
+            handler.execute(
+                task.getObligation(),
+                task.getSource(),
+                task.getDestination(),
+                task.getExchangeId(),
+                task.getLabels()));
+  }
+
+  @Override
+  @NonNull
+  public ObligationMetrics getObligationMetrics() {
+    ObligationExecutor.Stats stats = obligationExecutor.getStats();
+    ObligationMetrics metrics = new ObligationMetrics();
+    metrics.setQueueDepth(stats.getQueueDepth());
+    metrics.setCapacity(stats.getCapacity());
+    metrics.setSubmitted(stats.getSubmitted());
+    metrics.setRejected(stats.getRejected());
+    metrics.setExecuted(stats.getExecuted());
+    metrics.setFailed(stats.getFailed());
+    metrics.setMeanWaitNanos(stats.getMeanWaitNanos());
+    metrics.setMaxWaitNanos(stats.getMaxWaitNanos());
+    metrics.setMeanExecutionNanos(stats.getMeanExecutionNanos());
+    metrics.setMaxExecutionNanos(stats.getMaxExecutionNanos());
+    return metrics;
+  }
+
   @Override
   @NonNull
   public List<RouteObject> getRoutes() {
@@ -253,6 +388,7 @@ public class RouteManagerService implements RouteManager {
             m.setMaxProcessingTime(stat.getMaxProcessingTime());
             m.setMinProcessingTime(stat.getMinProcessingTime());
             m.setMeanProcessingTime(stat.getMeanProcessingTime());
+            interceptionPlanner.addNodeCounts(rd, m);
             rdump.put(rd.getId(), m);
           }
         } catch (MalformedObjectNameException
@@ -280,6 +416,8 @@ public class RouteManagerService implements RouteManager {
           } catch (Exception e) {
             LOG.error(e.getMessage(), e);
           }
+          verifiedRoutes.invalidate(routeId);
+          decisionPlans.invalidate(routeId);
           return;
         }
       }
@@ -512,6 +650,8 @@ public class RouteManagerService implements RouteManager {
       LOG.error("Error while removing old route \"" + routeId + "\"", e);
       throw new RouteException(e);
     }
+    verifiedRoutes.invalidate(routeId);
+    decisionPlans.invalidate(routeId);
 
     // Add new route and start it if it was started/starting before save
     try {
@@ -520,6 +660,7 @@ public class RouteManagerService implements RouteManager {
       if (routeStarted) {
         cCtx.getRouteController().startRoute(routeDefinition.getId());
       }
+      warmCaches(routes);
       return routeDefinitionToObject(cCtx, routeDefinition);
     } catch (Exception e) {
       LOG.error("Error while adding new route \"" + routeId + "\"", e);
@@ -559,9 +700,42 @@ public class RouteManagerService implements RouteManager {
       }
       cCtx.adapt(ModelCamelContext.class).addRouteDefinitions(routes);
       cCtx.start();
+      warmCaches(routes);
     } catch (Exception e) {
       LOG.error(e.getMessage(), e);
       throw new RouteException(e);
     }
   }
+
+  /**
+   * Asks the PDP to warm its caches for all nodes of new routes, so the first messages through the
+   * routes do not wait for cold policy evaluations. With decision elision, the routes are verified
+   * in the background as well.
+   *
+   * @param routes The added routes
+   */
+  private void warmCaches(List<RouteDefinition> routes) {
+    PDP pdp = this.pdp;
+    if (pdp == null) {
+      return;
+    }
+    if (decisionElision) {
+      routes.forEach(verifiedRoutes::verifyAsync);
+    }
+    List<ServiceNode> nodes = new ArrayList<>();
+    for (RouteDefinition route : routes) {
+      // Same endpoints as used by the PEPs of the route
+      nodes.add(ServiceNode.register(route.getInput().toString()));
+      addServiceNodes(route.getOutputs(), nodes);
+    }
+    pdp.warmCaches(nodes);
+  }
+
+  private static void addServiceNodes(
+      List<ProcessorDefinition<?>> processors, List<ServiceNode> nodes) {
+    for (ProcessorDefinition<?> processor : processors) {
+      nodes.add(ServiceNode.register(processor.toString()));
+      addServiceNodes(processor.getOutputs(), nodes);
+    }
+  }
 }
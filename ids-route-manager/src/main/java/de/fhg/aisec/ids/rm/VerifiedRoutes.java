@@ -0,0 +1,344 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import de.fhg.aisec.ids.api.policy.DecisionPlan;
+import de.fhg.aisec.ids.api.policy.DecisionRequest;
+import de.fhg.aisec.ids.api.policy.HopDecision;
+import de.fhg.aisec.ids.api.policy.LabelSet;
+import de.fhg.aisec.ids.api.policy.PAP;
+import de.fhg.aisec.ids.api.policy.PDP;
+import de.fhg.aisec.ids.api.policy.PolicyDecision;
+import de.fhg.aisec.ids.api.policy.ServiceNode;
+import de.fhg.aisec.ids.api.policy.TransformationDecision;
+import de.fhg.aisec.ids.api.router.RouteVerificationProof;
+import org.apache.camel.model.ProcessorDefinition;
+import org.apache.camel.model.RouteDefinition;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of routes that have been proven by the PAP to never violate the active policy.
+ *
+ * <p>Route verification starts with a message without labels at the route input and explores all
+ * paths through the route. For messages entering a verified route without labels, the decisions of
+ * the PDP are therefore known to be ALLOW at every hop, and the PEP only needs to apply the label
+ * transformations, which are precomputed along with the proof. A proof does not cover obligations,
+ * though: the hops are decided along with the proof, and hops whose decision carries obligations
+ * are never elided, so that the PEP schedules them.
+ *
+ * <p>Proofs are bound to the route definition and the policy version they have been computed for.
+ * As soon as another policy is loaded or the route is replaced, the route is verified again before
+ * decisions are elided. Routes are verified in the background, when they are added or when a
+ * message finds their proof missing or outdated. Until the proof is available, decisions are
+ * enforced as usual, so messages never wait for a proof.
+ */
+final class VerifiedRoutes {
+  private static final Logger LOG = LoggerFactory.getLogger(VerifiedRoutes.class);
+  /** Maximum number of label sets the hops of a nonlinear route are decided for */
+  static final int MAX_LABEL_SETS = 32;
+
+  private final RouteManagerService rm;
+  private final Map<String, VerifiedRoute> routes = new ConcurrentHashMap<>();
+  /** Ids of the routes scheduled for verification */
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final ThreadPoolExecutor executor =
+      new ThreadPoolExecutor(
+          1,
+          1,
+          60,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          r -> {
+            Thread t = new Thread(r, "ids-route-verification");
+            t.setDaemon(true);
+            return t;
+          });
+
+  VerifiedRoutes(@NonNull RouteManagerService rm) {
+    this.rm = rm;
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** A route verification result for a specific route definition and policy version. */
+  static final class VerifiedRoute {
+    private final RouteDefinition route;
+    private final long policyVersion;
+    @Nullable private final Map<String, TransformationDecision> transformations;
+    /** Labels of messages whose decisions may be elided, by target endpoint */
+    private final Map<String, Set<LabelSet>> elidable;
+
+    private VerifiedRoute(
+        RouteDefinition route,
+        long policyVersion,
+        @Nullable Map<String, TransformationDecision> transformations,
+        Map<String, Set<LabelSet>> elidable) {
+      this.route = route;
+      this.policyVersion = policyVersion;
+      this.transformations = transformations;
+      this.elidable = elidable;
+    }
+
+    private boolean isCurrent(RouteDefinition route, long policyVersion) {
+      return this.route == route && this.policyVersion == policyVersion;
+    }
+
+    boolean isValid() {
+      return transformations != null;
+    }
+
+    /**
+     * Returns the precomputed label transformations of a node of the route.
+     *
+     * @param endpoint The node that has processed the message
+     * @return The transformations, or null if the node is not part of the verified route
+     */
+    @Nullable
+    TransformationDecision getTransformation(@NonNull String endpoint) {
+      return transformations != null ? transformations.get(endpoint) : null;
+    }
+
+    /**
+     * Returns whether the decision for a hop may be elided, i.e. whether the PDP allows the hop
+     * without obligations. Hops are decided during the verification of the route, hops not known
+     * from the verification are never elided.
+     *
+     * @param target The node the message is sent to
+     * @param labels The labels of the message after the transformation of the source node
+     * @return Whether the hop is allowed without obligations
+     */
+    boolean isElidable(@NonNull ServiceNode target, @NonNull LabelSet labels) {
+      Set<LabelSet> elidableLabels = elidable.get(target.getEndpoint());
+      return elidableLabels != null && elidableLabels.contains(labels);
+    }
+
+    private static boolean isElidable(PolicyDecision decision) {
+      return decision.getDecision() == PolicyDecision.Decision.ALLOW
+          && decision.getObligations().isEmpty();
+    }
+  }
+
+  /**
+   * Returns the verification result of a route for the active policy. If the route has not been
+   * verified for the active policy yet, its verification is started in the background.
+   *
+   * @param route The route
+   * @return The verification result, if the route has been proven valid, null otherwise
+   */
+  @Nullable
+  VerifiedRoute get(@NonNull RouteDefinition route) {
+    PAP pap = rm.getPap();
+    String routeId = route.getId();
+    if (pap == null || rm.getPdp() == null || routeId == null) {
+      return null;
+    }
+    VerifiedRoute result = routes.get(routeId);
+    if (result == null || !result.isCurrent(route, pap.getPolicyVersion())) {
+      verifyAsync(route);
+      return null;
+    }
+    return result.isValid() ? result : null;
+  }
+
+  /**
+   * Verifies a route for the active policy in the background, unless it is verified already or
+   * its verification is pending.
+   *
+   * @param route The route
+   */
+  void verifyAsync(@NonNull RouteDefinition route) {
+    String routeId = route.getId();
+    if (routeId == null || !pending.add(routeId)) {
+      return;
+    }
+    try {
+      executor.execute(
+          () -> {
+            try {
+              verifyIfOutdated(route);
+            } finally {
+              pending.remove(routeId);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      pending.remove(routeId);
+    }
+  }
+
+  private void verifyIfOutdated(RouteDefinition route) {
+    PAP pap = rm.getPap();
+    PDP pdp = rm.getPdp();
+    if (pap == null || pdp == null) {
+      return;
+    }
+    // Read the version before verifying, so a concurrent policy change causes another verification
+    long version = pap.getPolicyVersion();
+    VerifiedRoute old = routes.get(route.getId());
+    if (old == null || !old.isCurrent(route, version)) {
+      routes.put(route.getId(), verify(pap, pdp, rm.getInterceptionPlanner(), route, version));
+    }
+  }
+
+  /**
+   * Forgets the verification result of a route, e.g. because the route has been modified.
+   *
+   * @param routeId The id of the route
+   */
+  void invalidate(@Nullable String routeId) {
+    if (routeId != null) {
+      routes.remove(routeId);
+    }
+  }
+
+  /** Stops the verification of routes, pending verifications are discarded. */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static VerifiedRoute verify(
+      PAP pap, PDP pdp, InterceptionPlanner planner, RouteDefinition route, long policyVersion) {
+    try {
+      RouteVerificationProof proof = pap.verifyRoute(route.getId());
+      if (proof == null || !proof.isValid()) {
+        LOG.debug("Route {} not verified, decisions will not be elided", route.getId());
+        return new VerifiedRoute(route, policyVersion, null, Map.of());
+      }
+      Map<String, TransformationDecision> transformations = new HashMap<>();
+      addTransformation(pdp, route.getInput().toString(), transformations);
+      for (ProcessorDefinition<?> output : route.getOutputs()) {
+        addTransformations(pdp, output, transformations);
+      }
+      LOG.info("Route {} verified, decisions will be elided", route.getId());
+      return new VerifiedRoute(
+          route,
+          policyVersion,
+          Collections.unmodifiableMap(transformations),
+          getElidableHops(pdp, planner, route, transformations));
+    } catch (RuntimeException e) {
+      LOG.error("Error while verifying route " + route.getId(), e);
+      return new VerifiedRoute(route, policyVersion, null, Map.of());
+    }
+  }
+
+  /**
+   * Determines which hops of a route may be elided for messages entering the route without labels.
+   *
+   * <p>The hops of linear routes are decided along the path of the messages. For other routes, the
+   * path of a message is not known in advance, so every enforced node is decided for all label sets
+   * reachable by the transformations of the route, up to {@link #MAX_LABEL_SETS} label sets.
+   */
+  private static Map<String, Set<LabelSet>> getElidableHops(
+      PDP pdp,
+      InterceptionPlanner planner,
+      RouteDefinition route,
+      Map<String, TransformationDecision> transformations) {
+    Map<String, Set<LabelSet>> elidable = new HashMap<>();
+    DecisionPlan plan =
+        PolicyEnforcementPoint.createDecisionPlan(pdp, planner, route, LabelSet.EMPTY);
+    if (plan != null) {
+      for (HopDecision hop : plan.getHops()) {
+        String endpoint = hop.getTo().getEndpoint();
+        if (endpoint != null && VerifiedRoute.isElidable(hop.getDecision())) {
+          elidable
+              .computeIfAbsent(endpoint, ep -> new HashSet<>())
+              .add(hop.getTransformation().apply(hop.getLabels()));
+        }
+      }
+      return elidable;
+    }
+    ServiceNode input = ServiceNode.register(route.getInput().toString());
+    Set<LabelSet> labelSets = getReachableLabelSets(transformations.values());
+    for (String endpoint : transformations.keySet()) {
+      ServiceNode target = ServiceNode.register(endpoint);
+      if (endpoint.equals(input.getEndpoint()) || planner.isPassThrough(target)) {
+        continue;
+      }
+      for (LabelSet labels : labelSets) {
+        PolicyDecision decision =
+            pdp.requestDecision(
+                new DecisionRequest(
+                    input, target, Map.<String, Object>of(PDP.LABELS_KEY, labels), null));
+        if (VerifiedRoute.isElidable(decision)) {
+          elidable.computeIfAbsent(endpoint, ep -> new HashSet<>()).add(labels);
+        }
+      }
+    }
+    return elidable;
+  }
+
+  /**
+   * Returns the label sets of messages entering a route without labels after any sequence of
+   * label transformations, limited to {@link #MAX_LABEL_SETS} label sets.
+   */
+  private static Set<LabelSet> getReachableLabelSets(
+      Collection<TransformationDecision> transformations) {
+    Set<LabelSet> reachable = new HashSet<>();
+    Deque<LabelSet> queue = new ArrayDeque<>();
+    reachable.add(LabelSet.EMPTY);
+    queue.add(LabelSet.EMPTY);
+    while (!queue.isEmpty()) {
+      LabelSet labels = queue.poll();
+      for (TransformationDecision transformation : transformations) {
+        LabelSet next = transformation.apply(labels);
+        if (!reachable.contains(next)) {
+          if (reachable.size() >= MAX_LABEL_SETS) {
+            LOG.debug(
+                "More than {} label sets reachable, hops are not elided for all of them",
+                MAX_LABEL_SETS);
+            return reachable;
+          }
+          reachable.add(next);
+          queue.add(next);
+        }
+      }
+    }
+    return reachable;
+  }
+
+  private static void addTransformations(
+      PDP pdp, ProcessorDefinition<?> node, Map<String, TransformationDecision> transformations) {
+    addTransformation(pdp, node.toString(), transformations);
+    for (ProcessorDefinition<?> output : node.getOutputs()) {
+      addTransformations(pdp, output, transformations);
+    }
+  }
+
+  private static void addTransformation(
+      PDP pdp, String endpoint, Map<String, TransformationDecision> transformations) {
+    transformations.computeIfAbsent(
+        endpoint, ep -> pdp.requestTranformations(ServiceNode.register(ep)));
+  }
+}
@@ -0,0 +1,212 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+import de.fhg.aisec.ids.api.policy.*;
+import de.fhg.aisec.ids.api.router.RouteVerificationProof;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.CamelContext;
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.model.ModelCamelContext;
+import org.apache.camel.model.RouteDefinition;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class DecisionElisionTest extends CamelTestSupport {
+  private final PDP pdp = mock(PDP.class);
+  private final PAP pap = mock(PAP.class);
+  private final RouteManagerService rm = new RouteManagerService();
+
+  @Test
+  public void testDecisionElision() throws Exception {
+    PolicyDecision allow = new PolicyDecision();
+    allow.setDecision(PolicyDecision.Decision.ALLOW);
+    when(pdp.requestDecision(any())).thenReturn(allow);
+    when(pdp.requestTranformations(any()))
+        .thenReturn(
+            new TransformationDecision(Collections.singleton("visited"), Collections.emptySet()));
+    when(pap.getPolicyVersion()).thenReturn(1L);
+    when(pap.verifyRoute("foo")).thenReturn(new RouteVerificationProof("foo"));
+
+    // Verified route: labels are transformed, the hops have been decided during the verification
+    awaitVerification();
+    MockEndpoint mock = getMockEndpoint("mock:result");
+    mock.expectedMessageCount(2);
+    template.sendBody("direct:input", "Hello");
+    template.sendBody("direct:input", "World");
+    mock.assertIsSatisfied();
+    verify(pap, times(1)).verifyRoute("foo");
+    verify(pdp, never()).requestDecision(any());
+    assertEquals(
+        Collections.singleton("visited"),
+        getLabels(mock.getReceivedExchanges().get(0).getProperty(PDP.LABELS_KEY)));
+
+    // After a policy change, decisions are checked until the route is verified again, which fails
+    RouteVerificationProof invalid = new RouteVerificationProof("foo");
+    invalid.setValid(false);
+    when(pap.getPolicyVersion()).thenReturn(2L);
+    when(pap.verifyRoute("foo")).thenReturn(invalid);
+    mock.reset();
+    mock.expectedMessageCount(1);
+    template.sendBody("direct:input", "Hello");
+    mock.assertIsSatisfied();
+    verify(pap, timeout(5000).times(2)).verifyRoute("foo");
+    verify(pdp, times(2)).requestDecision(any());
+  }
+
+  @Test
+  public void testObligationOnVerifiedRoute() throws Exception {
+    PolicyDecision allow = new PolicyDecision();
+    allow.setDecision(PolicyDecision.Decision.ALLOW);
+    PolicyDecision obliged = new PolicyDecision();
+    obliged.setDecision(PolicyDecision.Decision.ALLOW);
+    obliged.setObligations(
+        List.of(new Obligation("notify(audit)", PolicyDecision.Decision.DENY)));
+    when(pdp.requestDecision(any())).thenReturn(allow);
+    when(pdp.requestDecision(
+            argThat(req -> req != null && req.getTo().getEndpoint().startsWith("To[mock:result"))))
+        .thenReturn(obliged);
+    when(pdp.requestTranformations(any())).thenReturn(new TransformationDecision());
+    when(pap.getPolicyVersion()).thenReturn(1L);
+    when(pap.verifyRoute("foo")).thenReturn(new RouteVerificationProof("foo"));
+    List<String> notified = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(3);
+    rm.registerObligationHandler(
+        "notify",
+        (obligation, source, destination, exchangeId, labels) -> {
+          notified.add(destination);
+          done.countDown();
+        });
+
+    // The hop with the obligation is decided for every message, so the obligation is scheduled
+    awaitVerification();
+    MockEndpoint mock = getMockEndpoint("mock:result");
+    mock.expectedMessageCount(2);
+    template.sendBody("direct:input", "Hello");
+    template.sendBody("direct:input", "World");
+    mock.assertIsSatisfied();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(3, notified.size());
+    assertTrue(notified.stream().allMatch(dest -> dest.startsWith("To[mock:result")));
+    // Only the hop with the obligation is decided for each message
+    verify(pdp, times(2)).requestDecision(any());
+  }
+
+  @Test
+  public void testNoObligationsForDeniedFlow() throws Exception {
+    PolicyDecision deny = new PolicyDecision();
+    deny.setDecision(PolicyDecision.Decision.DENY);
+    deny.setObligations(List.of(new Obligation("log(audit)", PolicyDecision.Decision.DENY)));
+    when(pdp.requestDecision(any())).thenReturn(deny);
+    when(pdp.requestTranformations(any())).thenReturn(new TransformationDecision());
+    when(pap.getPolicyVersion()).thenReturn(1L);
+
+    // The message is blocked at the first hop, so its obligations are not executed
+    MockEndpoint mock = getMockEndpoint("mock:result");
+    mock.expectedMessageCount(0);
+    try {
+      template.sendBody("direct:input", "Hello");
+      fail("Exchange was not blocked");
+    } catch (CamelExecutionException e) {
+      // expected
+    }
+    mock.assertIsSatisfied();
+    assertEquals(0, rm.getObligationMetrics().getSubmitted());
+  }
+
+  @Test
+  public void testObligationWithoutHandler() throws Exception {
+    PolicyDecision allow = new PolicyDecision();
+    allow.setDecision(PolicyDecision.Decision.ALLOW);
+    allow.setObligations(
+        List.of(new Obligation("delete_after(30)", PolicyDecision.Decision.DENY)));
+    when(pdp.requestDecision(any())).thenReturn(allow);
+    when(pdp.requestTranformations(any())).thenReturn(new TransformationDecision());
+    when(pap.getPolicyVersion()).thenReturn(1L);
+
+    // The obligation cannot be executed, so its alternative decision is enforced
+    MockEndpoint mock = getMockEndpoint("mock:result");
+    mock.expectedMessageCount(0);
+    try {
+      template.sendBody("direct:input", "Hello");
+      fail("Exchange was not blocked");
+    } catch (CamelExecutionException e) {
+      // expected
+    }
+    mock.assertIsSatisfied();
+    assertEquals(1, rm.getObligationMetrics().getRejected());
+  }
+
+  /**
+   * Sends a message, which is checked by the PDP and starts the verification of the route in the
+   * background, and waits until the route is verified.
+   */
+  private void awaitVerification() throws InterruptedException {
+    template.sendBody("direct:input", "Start");
+    RouteDefinition route = context.adapt(ModelCamelContext.class).getRouteDefinition("foo");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (rm.getVerifiedRoutes().get(route) == null) {
+      assertTrue("Route not verified in time", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    getMockEndpoint("mock:result").reset();
+    clearInvocations(pdp);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Set<String> getLabels(Object labels) {
+    return (Set<String>) labels;
+  }
+
+  @Override
+  protected CamelContext createCamelContext() throws Exception {
+    rm.setDecisionElision(true);
+    for (String name : new String[] {"pdp", "pap"}) {
+      Field f = RouteManagerService.class.getDeclaredField(name);
+      f.setAccessible(true);
+      f.set(rm, name.equals("pdp") ? pdp : pap);
+    }
+    CamelContext ctx = super.createCamelContext();
+    ctx.adapt(ExtendedCamelContext.class).addInterceptStrategy(new CamelInterceptor(rm));
+    return ctx;
+  }
+
+  @Override
+  protected RouteBuilder createRouteBuilder() {
+    return new RouteBuilder() {
+      public void configure() {
+        from("direct:input").routeId("foo").log("${body}").to("mock:result");
+      }
+    };
+  }
+}
@@ -0,0 +1,126 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import static org.junit.Assert.*;
+
+import de.fhg.aisec.ids.api.policy.Obligation;
+import de.fhg.aisec.ids.api.policy.PolicyDecision;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ObligationExecutorTest {
+
+  @Test
+  public void testDispatchByActionName() throws Exception {
+    ObligationExecutor executor = new ObligationExecutor(10, 5);
+    List<String> executed = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(2);
+    executor.registerHandler(
+        "delete_after",
+        task -> {
+          executed.add(task.getObligation().getAction() + "@" + task.getDestination());
+          done.countDown();
+        });
+    assertTrue(
+        executor.submit(
+            new Obligation("delete_after(30)", PolicyDecision.Decision.DENY),
+            "direct:a",
+            "mock:b",
+            "1",
+            Collections.singleton("private")));
+    assertTrue(
+        executor.submit(
+            new Obligation("delete_after(60)", PolicyDecision.Decision.DENY),
+            "direct:a",
+            "mock:c",
+            "2",
+            Collections.emptySet()));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("delete_after(30)@mock:b", "delete_after(60)@mock:c"), executed);
+
+    // Actions without a handler are rejected, so the alternative decision is enforced
+    assertFalse(
+        executor.submit(
+            new Obligation("unknown", PolicyDecision.Decision.DENY),
+            "direct:a",
+            "mock:b",
+            "3",
+            Collections.emptySet()));
+    executor.shutdown();
+    waitForIdle(executor);
+    ObligationExecutor.Stats stats = executor.getStats();
+    assertEquals(2, stats.getSubmitted());
+    assertEquals(1, stats.getRejected());
+    assertEquals(2, stats.getExecuted());
+    assertEquals(0, stats.getFailed());
+    assertEquals(0, stats.getQueueDepth());
+  }
+
+  @Test
+  public void testRejectWhenSaturated() throws Exception {
+    ObligationExecutor executor = new ObligationExecutor(1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.registerHandler(
+        "notify",
+        task -> {
+          started.countDown();
+          release.await();
+        });
+    Obligation obligation = new Obligation("notify", PolicyDecision.Decision.DENY);
+
+    // The first obligation blocks the worker, the second one fills the queue
+    assertTrue(executor.submit(obligation, "a", "b", "1", Collections.emptySet()));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(executor.submit(obligation, "a", "b", "2", Collections.emptySet()));
+    assertFalse(executor.submit(obligation, "a", "b", "3", Collections.emptySet()));
+    assertEquals(1, executor.getStats().getQueueDepth());
+    assertEquals(1, executor.getStats().getRejected());
+
+    release.countDown();
+    executor.shutdown();
+    waitForIdle(executor);
+    assertEquals(2, executor.getStats().getExecuted());
+    assertFalse(executor.submit(obligation, "a", "b", "4", Collections.emptySet()));
+  }
+
+  @Test
+  public void testActionName() {
+    assertEquals("log", ObligationExecutor.getActionName("log"));
+    assertEquals("delete_after", ObligationExecutor.getActionName("delete_after(30)"));
+    assertEquals("", ObligationExecutor.getActionName(null));
+  }
+
+  private static void waitForIdle(ObligationExecutor executor) throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      ObligationExecutor.Stats stats = executor.getStats();
+      if (stats.getExecuted() + stats.getFailed() == stats.getSubmitted()) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    fail("Obligations not executed in time");
+  }
+}
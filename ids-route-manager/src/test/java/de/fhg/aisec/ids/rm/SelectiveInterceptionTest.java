@@ -0,0 +1,126 @@
+/*-
+ * ========================LICENSE_START=================================
+ * ids-route-manager
+ * %%
+ * Copyright (C) 2019 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.rm;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+import de.fhg.aisec.ids.api.policy.*;
+import de.fhg.aisec.ids.api.router.RouteMetrics;
+import java.lang.reflect.Field;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ExtendedCamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.model.ModelCamelContext;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class SelectiveInterceptionTest extends CamelTestSupport {
+  private final PDP pdp = mock(PDP.class);
+  private final PAP pap = mock(PAP.class);
+  private final RouteManagerService rm = new RouteManagerService();
+
+  @Test
+  public void testSelectiveInterception() throws Exception {
+    PolicyDecision allow = new PolicyDecision();
+    allow.setDecision(PolicyDecision.Decision.ALLOW);
+    when(pdp.requestDecision(any())).thenReturn(allow);
+    when(pdp.requestTranformations(any())).thenReturn(new TransformationDecision());
+
+    // The log node is passed through, only messages to the mock endpoint are checked
+    MockEndpoint mock = getMockEndpoint("mock:result");
+    mock.expectedMessageCount(2);
+    template.sendBody("direct:input", "Hello");
+    template.sendBody("direct:input", "World");
+    mock.assertIsSatisfied();
+    verify(pdp, times(2)).requestDecision(any());
+    verify(pdp, times(2))
+        .requestDecision(argThat(req -> req.getTo().getEndpoint().startsWith("To[mock:result")));
+    RouteMetrics metrics = new RouteMetrics();
+    rm.getInterceptionPlanner()
+        .addNodeCounts(context.adapt(ModelCamelContext.class).getRouteDefinition("foo"), metrics);
+    assertEquals(1, metrics.getEnforcedNodes());
+    assertEquals(1, metrics.getPassedThroughNodes());
+
+    // After a policy change, the nodes are classified again
+    when(pap.getPolicyVersion()).thenReturn(2L);
+    when(pdp.canPassThrough(any())).thenReturn(false);
+    mock.reset();
+    mock.expectedMessageCount(1);
+    template.sendBody("direct:input", "Hello");
+    mock.assertIsSatisfied();
+    verify(pdp, times(4)).requestDecision(any());
+    rm.getInterceptionPlanner()
+        .addNodeCounts(context.adapt(ModelCamelContext.class).getRouteDefinition("foo"), metrics);
+    assertEquals(2, metrics.getEnforcedNodes());
+    assertEquals(0, metrics.getPassedThroughNodes());
+  }
+
+  @Test
+  public void testDecisionPlanCache() throws Exception {
+    PolicyDecision allow = new PolicyDecision();
+    allow.setDecision(PolicyDecision.Decision.ALLOW);
+    when(pdp.requestDecision(any())).thenReturn(allow);
+    when(pdp.requestTranformations(any())).thenReturn(new TransformationDecision());
+
+    // The route is planned once for messages entering it with the same labels
+    MockEndpoint mock = getMockEndpoint("mock:result");
+    mock.expectedMessageCount(2);
+    template.sendBody("direct:input", "Hello");
+    template.sendBody("direct:input", "World");
+    mock.assertIsSatisfied();
+    verify(pdp, times(1)).requestPathDecisions(any(), any());
+
+    // After a policy change, the route is planned again
+    when(pap.getPolicyVersion()).thenReturn(2L);
+    mock.reset();
+    mock.expectedMessageCount(1);
+    template.sendBody("direct:input", "Hello");
+    mock.assertIsSatisfied();
+    verify(pdp, times(2)).requestPathDecisions(any(), any());
+  }
+
+  @Override
+  protected CamelContext createCamelContext() throws Exception {
+    // Nodes are classified on their first message
+    when(pap.getPolicyVersion()).thenReturn(1L);
+    when(pdp.canPassThrough(argThat(node -> node != null && node.getEndpoint().startsWith("Log["))))
+        .thenReturn(true);
+    for (String name : new String[] {"pdp", "pap"}) {
+      Field f = RouteManagerService.class.getDeclaredField(name);
+      f.setAccessible(true);
+      f.set(rm, name.equals("pdp") ? pdp : pap);
+    }
+    CamelContext ctx = super.createCamelContext();
+    ctx.adapt(ExtendedCamelContext.class).addInterceptStrategy(new CamelInterceptor(rm));
+    return ctx;
+  }
+
+  @Override
+  protected RouteBuilder createRouteBuilder() {
+    return new RouteBuilder() {
+      public void configure() {
+        from("direct:input").routeId("foo").log("${body}").to("mock:result");
+      }
+    };
+  }
+}
@@ -25,6 +25,7 @@ import de.fhg.aisec.ids.api.conm.ConnectionManager;
 import de.fhg.aisec.ids.api.endpointconfig.EndpointConfigManager;
 import de.fhg.aisec.ids.api.infomodel.InfoModel;
 import de.fhg.aisec.ids.api.policy.PAP;
+import de.fhg.aisec.ids.api.policy.PDP;
 import de.fhg.aisec.ids.api.router.RouteManager;
 import de.fhg.aisec.ids.api.settings.Settings;
 import de.fhg.aisec.ids.api.tokenm.TokenManager;
@@ -72,6 +73,9 @@ public class WebConsoleComponent {
   @Reference(cardinality = ReferenceCardinality.OPTIONAL)
   private PAP pap = null;
 
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+  private PDP pdp = null;
+
   @Reference(cardinality = ReferenceCardinality.OPTIONAL)
   private InfoModel im = null;
 
@@ -152,6 +156,15 @@ public class WebConsoleComponent {
     return null;
   }
 
+  @Nullable
+  public static PDP getPolicyDecisionPoint() {
+    WebConsoleComponent in = instance;
+    if (in != null) {
+      return in.pdp;
+    }
+    return null;
+  }
+
   @Nullable
   public static InfoModel getInfoModelManager() {
     WebConsoleComponent in = instance;
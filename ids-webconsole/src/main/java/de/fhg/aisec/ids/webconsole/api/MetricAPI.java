@@ -19,6 +19,12 @@
  */
 package de.fhg.aisec.ids.webconsole.api;
 
+import de.fhg.aisec.ids.api.policy.CacheWarmUpProgress;
+import de.fhg.aisec.ids.api.policy.DecisionMetrics;
+import de.fhg.aisec.ids.api.policy.PDP;
+import de.fhg.aisec.ids.api.router.ObligationMetrics;
+import de.fhg.aisec.ids.api.router.RouteManager;
+import de.fhg.aisec.ids.webconsole.WebConsoleComponent;
 import io.swagger.annotations.*;
 import java.lang.management.*;
 import java.text.DecimalFormat;
@@ -27,6 +33,7 @@ import java.util.Map;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
 
 /**
@@ -93,4 +100,90 @@ public class MetricAPI {
 
     return result;
   }
+
+  /**
+   * Returns instrumentation data of the policy decision point.
+   *
+   * @return Cache counters and decision latencies by endpoint and outcome
+   */
+  @GET
+  @Path("policy")
+  @ApiOperation(
+    value = "Returns policy decision metrics",
+    notes = "Latencies are in nanoseconds, by target endpoint and decision outcome",
+    response = DecisionMetrics.class
+  )
+  @ApiResponses({
+    @ApiResponse(code = 200, message = "Policy decision metrics", response = DecisionMetrics.class),
+    @ApiResponse(code = 503, message = "No PDP available")
+  })
+  @Produces(MediaType.APPLICATION_JSON)
+  @AuthorizationRequired
+  public DecisionMetrics getPolicyMetrics() {
+    PDP pdp = WebConsoleComponent.getPolicyDecisionPoint();
+    if (pdp == null) {
+      throw new ServiceUnavailableException("No PDP available");
+    }
+    return pdp.getDecisionMetrics();
+  }
+
+  /**
+   * Returns the progress of the cache warm-up of the policy decision point.
+   *
+   * @return Progress of the running or most recently finished warm-up
+   */
+  @GET
+  @Path("policy/warmup")
+  @ApiOperation(
+    value = "Returns the progress of the policy cache warm-up",
+    notes = "Caches are warmed after a policy has been loaded or a route has been added",
+    response = CacheWarmUpProgress.class
+  )
+  @ApiResponses({
+    @ApiResponse(
+      code = 200,
+      message = "Cache warm-up progress",
+      response = CacheWarmUpProgress.class
+    ),
+    @ApiResponse(code = 503, message = "No PDP available")
+  })
+  @Produces(MediaType.APPLICATION_JSON)
+  @AuthorizationRequired
+  public CacheWarmUpProgress getPolicyWarmUpProgress() {
+    PDP pdp = WebConsoleComponent.getPolicyDecisionPoint();
+    if (pdp == null) {
+      throw new ServiceUnavailableException("No PDP available");
+    }
+    return pdp.getCacheWarmUpProgress();
+  }
+
+  /**
+   * Returns metrics of the asynchronous execution of obligations.
+   *
+   * @return Queue depth, counters and latencies of obligations
+   */
+  @GET
+  @Path("policy/obligations")
+  @ApiOperation(
+    value = "Returns obligation execution metrics",
+    notes = "Times are in nanoseconds",
+    response = ObligationMetrics.class
+  )
+  @ApiResponses({
+    @ApiResponse(
+      code = 200,
+      message = "Obligation execution metrics",
+      response = ObligationMetrics.class
+    ),
+    @ApiResponse(code = 503, message = "No route manager available")
+  })
+  @Produces(MediaType.APPLICATION_JSON)
+  @AuthorizationRequired
+  public ObligationMetrics getObligationMetrics() {
+    RouteManager rm = WebConsoleComponent.getRouteManager();
+    if (rm == null) {
+      throw new ServiceUnavailableException("No route manager available");
+    }
+    return rm.getObligationMetrics();
+  }
 }
@@ -31,6 +31,7 @@ import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.Authorization;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.ws.rs.*;
@@ -258,6 +259,10 @@ public class RouteApi {
     metrics.setMinProcessingTime(
         currentMetrics.stream().mapToLong(RouteMetrics::getMinProcessingTime).min().orElse(0));
     metrics.setCompleted(currentMetrics.stream().mapToLong(RouteMetrics::getCompleted).sum());
+    metrics.setEnforcedNodes(
+        currentMetrics.stream().mapToLong(RouteMetrics::getEnforcedNodes).sum());
+    metrics.setPassedThroughNodes(
+        currentMetrics.stream().mapToLong(RouteMetrics::getPassedThroughNodes).sum());
     return metrics;
   }
 
@@ -299,9 +304,37 @@ public class RouteApi {
     if (pap == null) {
       throw new ComponentNotAvailableException();
     }
-    RouteVerificationProof rvp = pap.verifyRoute(routeId);
+    return toValidationInfo(pap.verifyRoute(routeId));
+  }
+
+  /**
+   * Validates all routes against the active policy. Routes are verified in parallel.
+   *
+   * @return Validation results by route id
+   */
+  @GET
+  @Path("/validate")
+  @Produces(MediaType.APPLICATION_JSON)
+  @AuthorizationRequired
+  public Map<String, ValidationInfo> validateAll() {
+    RouteManager rm = WebConsoleComponent.getRouteManager();
+    PAP pap = WebConsoleComponent.getPolicyAdministrationPoint();
+    if (rm == null || pap == null) {
+      throw new ComponentNotAvailableException();
+    }
+    List<String> routeIds = new ArrayList<>();
+    for (RouteObject route : rm.getRoutes()) {
+      routeIds.add(route.getId());
+    }
+    Map<String, ValidationInfo> result = new LinkedHashMap<>();
+    pap.verifyRoutes(routeIds).forEach((id, rvp) -> result.put(id, toValidationInfo(rvp)));
+    return result;
+  }
+
+  private static ValidationInfo toValidationInfo(RouteVerificationProof rvp) {
     ValidationInfo vi = new ValidationInfo();
     vi.valid = rvp.isValid();
+    vi.truncated = rvp.isTruncated();
     if (!rvp.isValid()) {
       vi.counterExamples = rvp.getCounterExamples();
     }
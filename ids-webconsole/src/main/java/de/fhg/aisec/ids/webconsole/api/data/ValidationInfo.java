@@ -24,5 +24,7 @@ import java.util.List;
 
 public class ValidationInfo {
   public boolean valid;
+  /** Whether validation was stopped early, so the counterexamples are incomplete */
+  public boolean truncated = false;
   public List<CounterExample> counterExamples = null;
 }
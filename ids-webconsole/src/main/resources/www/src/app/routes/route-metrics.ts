@@ -7,4 +7,6 @@ export class RouteMetrics {
     public maxProcessingTime: number;
     public meanProcessingTime: number;
     public minProcessingTime: number;
+    public enforcedNodes: number;
+    public passedThroughNodes: number;
 }
@@ -5,5 +5,6 @@ export class CounterExample {
 
 export class ValidationInfo {
     public valid = true;
+    public truncated = false;
     public counterExamples?: Array<CounterExample>;
 }